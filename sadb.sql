@@ -23,20 +23,42 @@ CREATE TABLE `ps_foundation_session` (
   `remote_addr` varchar(255) DEFAULT NULL,
   `remote_port` varchar(255) DEFAULT NULL,
   `remote_user` varchar(255) DEFAULT NULL,
-  PRIMARY KEY (`session_id`)
+  `version` bigint(20) NOT NULL DEFAULT '0',
+  PRIMARY KEY (`session_id`),
+  KEY `ps_foundation_session_accessed` (`webapp`,`this_accessed_time`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
 
 DROP TABLE IF EXISTS `ps_foundation_session_attr`;
 CREATE TABLE `ps_foundation_session_attr` (
   `session_id` varchar(32) NOT NULL,
-  `attr_key` varchar(255) DEFAULT NULL,
+  `attr_key` varchar(255) NOT NULL,
   `last_updated_time` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,
   `update_count` int(11) DEFAULT NULL,
   `data_length` int(11) DEFAULT NULL,
   `data_checksum` varchar(2000) DEFAULT NULL,
   `data_type` char(255) DEFAULT NULL,
   `data` longblob,
-  PRIMARY KEY (`session_id`)
+  `data_codec` varchar(16) DEFAULT NULL,
+  `delta_count` int(11) NOT NULL DEFAULT '0',
+  PRIMARY KEY (`session_id`,`attr_key`)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
 
+
+DROP TABLE IF EXISTS `ps_foundation_session_attr_delta`;
+CREATE TABLE `ps_foundation_session_attr_delta` (
+  `session_id` varchar(32) NOT NULL,
+  `attr_key` varchar(255) NOT NULL,
+  `delta_seq` int(11) NOT NULL,
+  `data` longblob,
+  PRIMARY KEY (`session_id`,`attr_key`,`delta_seq`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+
+DROP TABLE IF EXISTS `ps_foundation_node`;
+CREATE TABLE `ps_foundation_node` (
+  `node_id` varchar(255) NOT NULL,
+  `webapp` varchar(255) NOT NULL,
+  `heartbeat_time` timestamp NOT NULL DEFAULT '0000-00-00 00:00:00',
+  PRIMARY KEY (`node_id`,`webapp`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
@@ -0,0 +1,111 @@
+package org.apache.catalina.session;
+
+/**
+ * Description: gradient based limit on the number of concurrent session saves, driven by the observed save latency.
+ * <p/>
+ * The lowest recent (smoothed) save time is the estimate of the no-load latency; it creeps up slowly, and saves that
+ * ran alone are taken as they are, so that a lasting change of the database speed is accepted. The recent save time is compared against it: while saves take
+ * about as long as without load the limit grows (by roughly its square root per sample), once they take noticeably
+ * longer the saves are queuing in the database and the limit shrinks in proportion, down to half per sample. This settles
+ * near the concurrency at which the database delivers its throughput without building a queue, instead of adding
+ * workers whenever the backlog grows.
+ * <p/>
+ * The limit only grows while it is actually used, so an idle period does not inflate it.
+ *
+ * @author jim631@sina.com
+ */
+public class AdaptiveConcurrencyLimit {
+
+	// weight of a sample in the recent average
+	private static final double SHORT_SMOOTHING = 0.2;
+	// per sample upward drift of the no-load estimate
+	private static final double NO_LOAD_DRIFT = 0.0001;
+	// weight of the newly computed limit against the current one
+	private static final double LIMIT_SMOOTHING = 0.2;
+	private static final double MIN_GRADIENT = 0.5;
+	// tolerated latency increase before the limit shrinks
+	private static final double RTT_TOLERANCE = 1.2;
+
+	private final int minLimit;
+	private volatile int maxLimit;
+
+	private double limit;
+	private double shortRttNanos;
+	private double noLoadRttNanos;
+
+	// throughput over the last completed one second window
+	private long windowStart = System.nanoTime();
+	private int windowSamples;
+	private volatile int throughputPerSecond;
+
+	private volatile int currentLimit;
+
+	public AdaptiveConcurrencyLimit(final int initialLimit, final int minLimit, final int maxLimit) {
+		super();
+		this.minLimit = Math.max(1, minLimit);
+		this.maxLimit = Math.max(this.minLimit, maxLimit);
+		this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+		this.currentLimit = (int) limit;
+	}
+
+	/**
+	 * Record a completed save.
+	 *
+	 * @param rttNanos time the save took
+	 * @param inflight number of saves running when this one completed, including it
+	 * @return the (possibly changed) limit
+	 */
+	public synchronized int onSample(final long rttNanos, final int inflight) {
+		final long now = System.nanoTime();
+		windowSamples++;
+		if (now - windowStart >= 1000000000L) {
+			throughputPerSecond = (int) (windowSamples * 1000000000L / (now - windowStart));
+			windowSamples = 0;
+			windowStart = now;
+		}
+
+		if (rttNanos <= 0)
+			return currentLimit;
+		if (noLoadRttNanos == 0) {
+			shortRttNanos = rttNanos;
+			noLoadRttNanos = rttNanos;
+			return currentLimit;
+		}
+		shortRttNanos = shortRttNanos * (1 - SHORT_SMOOTHING) + rttNanos * SHORT_SMOOTHING;
+		if (inflight <= minLimit) {
+			// nothing else was running, so this is what the database takes without load, faster or slower
+			noLoadRttNanos = noLoadRttNanos * (1 - SHORT_SMOOTHING) + rttNanos * SHORT_SMOOTHING;
+		} else {
+			noLoadRttNanos = Math.min(noLoadRttNanos * (1 + NO_LOAD_DRIFT), shortRttNanos);
+		}
+
+		final double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, RTT_TOLERANCE * noLoadRttNanos / shortRttNanos));
+		// probe for more throughput only while saves are not queuing and the current limit is in use
+		final double headroom = gradient >= 1.0 && inflight * 2 >= limit ? Math.sqrt(limit) : 0;
+		final double newLimit = limit * gradient + headroom;
+		limit = limit * (1 - LIMIT_SMOOTHING) + newLimit * LIMIT_SMOOTHING;
+		limit = Math.max(minLimit, Math.min(maxLimit, limit));
+		currentLimit = (int) limit;
+		return currentLimit;
+	}
+
+	public int getLimit() {
+		return currentLimit;
+	}
+
+	public void setMaxLimit(final int maxLimit) {
+		this.maxLimit = Math.max(minLimit, maxLimit);
+	}
+
+	public synchronized long getShortRttMicros() {
+		return (long) (shortRttNanos / 1000);
+	}
+
+	public synchronized long getNoLoadRttMicros() {
+		return (long) (noLoadRttNanos / 1000);
+	}
+
+	public int getThroughputPerSecond() {
+		return throughputPerSecond;
+	}
+}
@@ -1,14 +1,31 @@
 package org.apache.catalina.session;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.catalina.LifecycleException;
@@ -20,13 +37,14 @@ import java.util.logging.Logger;
 
 /**
  * Foundation {@link org.apache.catalina.Session} {@link org.apache.catalina.Store} wrapper that defers session persistence into
- * an asynchronous work queue.
+ * an asynchronous work queue, partitioned by session id so that the snapshots of a session are stored in order
+ * (see {@link PartitionedPersistenceExecutor}).
  * <p/>
  * Also provides JMX MBean registration to allow for monitoring the queue and persistence metrics.
  *
  * @author jim631@sina.com
  */
-public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionStore implements RejectedExecutionHandler {
+public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionStore {
 
 	private static final Logger log = Logger.getLogger(AsyncFoundationSessionStoreWrapper.class.getName());
 	
@@ -34,13 +52,84 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 
 	private FoundationSessionStoreMonitoring mBean;
 
-	// async queues/executor
+	// async queues/executor: the lanes hold the waiting sessions, the executor runs the lanes
 	protected ThreadPoolExecutor persistenceExecutor;
 	protected LinkedBlockingQueue<Runnable> persistenceExecutorQueue;
+	protected PartitionedPersistenceExecutor persistenceLanes;
+
+	// access time only changes, coalesced per session and written in batches by the touch flusher
+	private final ConcurrentHashMap<String, SessionSerializationHeaderData> pendingTouches = new ConcurrentHashMap<>();
+	protected ScheduledExecutorService touchExecutor;
+
+	// full saves held back for the minimum persist interval, one per session with the later changes folded in
+	private final ConcurrentHashMap<String, DebouncedSave> pendingSaves = new ConcurrentHashMap<>();
+	protected ScheduledExecutorService debounceExecutor;
+
+	// wakes up the lanes when the retry of a failed save is due
+	protected ScheduledExecutorService retryExecutor;
+	// saves that failed on every attempt, oldest first, bounded; folded into the next save of their session
+	private final Map<String, SessionSerializationData> deadLetters = new LinkedHashMap<String, SessionSerializationData>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, SessionSerializationData> eldest) {
+			final boolean result = size() > mBean.deadLetterCapacity;
+			if (result) {
+				mBean.totalDeadLettersDropped.incrementAndGet();
+				log.severe("Dead letter area full, the unsaved changes of session " + eldest.getKey() + " are lost");
+			}
+			return result;
+		}
+	};
 
 	// lock to prevent concurrent thread pool size adjustments
 	private final ReentrantLock executorThreadPoolAdjusterLock = new ReentrantLock();
 
+	// limit on concurrent saves driven by the save latency, null to size the pool by queue depth thresholds instead
+	private final AdaptiveConcurrencyLimit concurrencyLimit;
+	private final AtomicInteger inflightSaves = new AtomicInteger();
+
+	// set while the lanes are drained on shutdown, the pool then runs at its maximum size
+	private volatile boolean draining;
+
+	// fails store calls fast while the store is down, null if disabled; the health probe is its only trial caller
+	private final StoreCircuitBreaker circuitBreaker;
+	protected ScheduledExecutorService healthProbeExecutor;
+	// sessions removed (logouts, expiries) while the store was down, removed from the store by the health probe once it
+	// answers again; until then they are not loaded
+	private final Set<String> pendingRemovals = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	// sessions of a departed node fetched ahead of their first request here, bounded, each kept for the prefetch TTL
+	private final ConcurrentHashMap<String, PrefetchedSession> prefetched = new ConcurrentHashMap<>();
+	protected ExecutorService warmUpExecutor;
+	private final Set<String> nodesWarmingUp = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	// loads of sessions another node stored last, per node: start of the window, loads in it, time of the last warm-up
+	private final Map<String, long[]> foreignLoads = new HashMap<>();
+
+	// sessions restored from other nodes, to be made this node's in batches; heartbeat and orphan sweep run alongside
+	private final Set<String> pendingAdoptions = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	protected ScheduledExecutorService ownershipExecutor;
+
+	// ids the store was found not to hold, oldest first, bounded; each is answered from here until its time is up
+	private final Map<String, Long> absentSessions = new LinkedHashMap<String, Long>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<String, Long> eldest) {
+			return size() > mBean.negativeCacheMaxSize;
+		}
+	};
+	// ids the store may hold, from scans of the store plus the sessions saved here; null until the first full scan
+	private volatile SessionIdBloomFilter sessionIdFilter;
+	private volatile SessionIdBloomFilter rebuildingSessionIdFilter;
+	private long sessionIdScanTime;
+	private long sessionIdRebuildTime;
+	private volatile int sessionIdRebuildCount;
+	protected ScheduledExecutorService sessionIdScanExecutor;
+
+	// evicted sessions passivated to local disk, null if disabled
+	private volatile SessionSwapFile swapFile;
+
 	private final ThreadFactory threadFactory = new ThreadFactoryInternal();
 
 	public FoundationSessionStoreMonitoring getFoundationSessionStoreMonitoring() {
@@ -51,6 +140,8 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
     public AsyncFoundationSessionStoreWrapper(final BaseFoundationSessionStore target) {
 		super();
 		this.target = target;
+		// one baseline per session: the target caches what it loads and fences its writes on the baseline's version
+		this.sessionCache = target.sessionCache();
 		this.mBean = new FoundationSessionStoreMonitoring(this);
 
 		// set configuration from system properties if applicable
@@ -58,9 +149,51 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 		mBean.maxPoolSize = getSystemPropertyIntValue("maxPoolSize", mBean.maxPoolSize);
 		mBean.executorThreadPoolThreadTTLMs = getSystemPropertyLongValue("executorThreadPoolThreadTTLMs", mBean.executorThreadPoolThreadTTLMs);
 		mBean.executorQueueMaxCapacity = getSystemPropertyIntValue("executorQueueMaxCapacity", mBean.executorQueueMaxCapacity);
+		mBean.persistenceLaneCount = getSystemPropertyIntValue("persistenceLaneCount", mBean.persistenceLaneCount);
+		mBean.persistenceLaneWaitStrategy = PartitionedPersistenceExecutor.WaitStrategy.fromString(
+				getSystemPropertyStringValue("persistenceLaneWaitStrategy", null), mBean.persistenceLaneWaitStrategy);
+		mBean.persistenceLaneIdleWaitMicros = getSystemPropertyLongValue("persistenceLaneIdleWaitMicros", mBean.persistenceLaneIdleWaitMicros);
+		mBean.persistencePriorityWeights = getSystemPropertyIntArrayValue("persistencePriorityWeights", mBean.persistencePriorityWeights);
+		mBean.maxPersistAttempts = getSystemPropertyIntValue("maxPersistAttempts", mBean.maxPersistAttempts);
+		mBean.persistRetryBaseDelayMs = getSystemPropertyLongValue("persistRetryBaseDelayMs", mBean.persistRetryBaseDelayMs);
+		mBean.persistRetryMaxDelayMs = getSystemPropertyLongValue("persistRetryMaxDelayMs", mBean.persistRetryMaxDelayMs);
+		mBean.deadLetterCapacity = getSystemPropertyIntValue("deadLetterCapacity", mBean.deadLetterCapacity);
+		mBean.shutdownDrainTimeoutMs = getSystemPropertyLongValue("shutdownDrainTimeoutMs", mBean.shutdownDrainTimeoutMs);
+		mBean.evictionFlushTimeoutMs = getSystemPropertyLongValue("evictionFlushTimeoutMs", mBean.evictionFlushTimeoutMs);
+		mBean.swapFileSizeMb = getSystemPropertyIntValue("swapFileSizeMb", mBean.swapFileSizeMb);
+		mBean.swapFileDirectory = getSystemPropertyStringValue("swapFileDirectory", mBean.swapFileDirectory);
+		mBean.sessionIdChangeTimeoutMs = getSystemPropertyLongValue("sessionIdChangeTimeoutMs", mBean.sessionIdChangeTimeoutMs);
+		mBean.warmUpMaxSessions = getSystemPropertyIntValue("warmUpMaxSessions", mBean.warmUpMaxSessions);
+		mBean.warmUpBatchSize = getSystemPropertyIntValue("warmUpBatchSize", mBean.warmUpBatchSize);
+		mBean.warmUpParallelism = getSystemPropertyIntValue("warmUpParallelism", mBean.warmUpParallelism);
+		mBean.prefetchTtlMs = getSystemPropertyLongValue("prefetchTtlMs", mBean.prefetchTtlMs);
+		mBean.warmUpTriggerLoads = getSystemPropertyIntValue("warmUpTriggerLoads", mBean.warmUpTriggerLoads);
+		mBean.warmUpTriggerWindowMs = getSystemPropertyLongValue("warmUpTriggerWindowMs", mBean.warmUpTriggerWindowMs);
+		mBean.adoptionFlushIntervalMs = getSystemPropertyLongValue("adoptionFlushIntervalMs", mBean.adoptionFlushIntervalMs);
+		mBean.adoptionBatchSize = getSystemPropertyIntValue("adoptionBatchSize", mBean.adoptionBatchSize);
+		mBean.nodeHeartbeatIntervalMs = getSystemPropertyLongValue("nodeHeartbeatIntervalMs", mBean.nodeHeartbeatIntervalMs);
+		mBean.nodeHeartbeatTimeoutMs = getSystemPropertyLongValue("nodeHeartbeatTimeoutMs", mBean.nodeHeartbeatTimeoutMs);
+		mBean.negativeCacheTtlMs = getSystemPropertyLongValue("negativeCacheTtlMs", mBean.negativeCacheTtlMs);
+		mBean.negativeCacheMaxSize = getSystemPropertyIntValue("negativeCacheMaxSize", mBean.negativeCacheMaxSize);
+		mBean.bloomFilterEnabled = "true".equals(getSystemPropertyStringValue("bloomFilter", "false"));
+		mBean.bloomFilterExpectedSessions = getSystemPropertyIntValue("bloomFilterExpectedSessions", mBean.bloomFilterExpectedSessions);
+		mBean.bloomFilterBitsPerSession = getSystemPropertyIntValue("bloomFilterBitsPerSession", mBean.bloomFilterBitsPerSession);
+		mBean.bloomFilterRefreshIntervalMs = getSystemPropertyLongValue("bloomFilterRefreshIntervalMs", mBean.bloomFilterRefreshIntervalMs);
+		mBean.bloomFilterRebuildIntervalMs = getSystemPropertyLongValue("bloomFilterRebuildIntervalMs", mBean.bloomFilterRebuildIntervalMs);
+		mBean.bloomFilterScanOverlapMs = getSystemPropertyLongValue("bloomFilterScanOverlapMs", mBean.bloomFilterScanOverlapMs);
+		mBean.touchFlushIntervalMs = getSystemPropertyLongValue("touchFlushIntervalMs", mBean.touchFlushIntervalMs);
+		mBean.minPersistIntervalMs = getSystemPropertyLongValue("minPersistIntervalMs", mBean.minPersistIntervalMs);
+		mBean.maxPersistStalenessMs = getSystemPropertyLongValue("maxPersistStalenessMs", mBean.maxPersistStalenessMs);
 		final int[] percentages = getSystemPropertyIntArrayValue("executorThreadPoolQueuePercentageSizeThresholds",
 				mBean.executorThreadPoolQueuePercentageSizeThresholds);
 		setExecutorThreadPoolQueuePercentageSizeThresholds(percentages);
+		mBean.adaptiveConcurrencyEnabled = !"false".equals(getSystemPropertyStringValue("adaptiveConcurrency", "true"));
+		concurrencyLimit = mBean.adaptiveConcurrencyEnabled ? new AdaptiveConcurrencyLimit(mBean.corePoolSize, 1, mBean.maxPoolSize) : null;
+		mBean.circuitBreakerEnabled = !"false".equals(getSystemPropertyStringValue("circuitBreaker", "true"));
+		mBean.circuitFailureThreshold = getSystemPropertyIntValue("circuitFailureThreshold", mBean.circuitFailureThreshold);
+		mBean.circuitOpenDurationMs = getSystemPropertyLongValue("circuitOpenDurationMs", mBean.circuitOpenDurationMs);
+		mBean.healthProbeIntervalMs = getSystemPropertyLongValue("healthProbeIntervalMs", mBean.healthProbeIntervalMs);
+		circuitBreaker = mBean.circuitBreakerEnabled ? new StoreCircuitBreaker(mBean.circuitFailureThreshold, mBean.circuitOpenDurationMs) : null;
 	}
 
 	@Override
@@ -72,14 +205,352 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 		} finally {
 			ssd.unlock();
 		}
-		queueDirtySession(session, ssd);
+		// the full save writes the access times too
+		pendingTouches.remove(session.getIdInternal());
+		addKnownSessionId(session.getIdInternal());
+		if (debounceExecutor != null) {
+			debounceSave(ssd);
+		} else {
+			queueDirtySession(ssd);
+		}
 	}
 
+	/**
+	 * Hold the save back until the session has not changed for the minimum persist interval, but no longer than the
+	 * maximum staleness after its first unsaved change; changes in between are folded into the held back save.
+	 */
+	protected void debounceSave(final SessionSerializationData ssd) throws IOException {
+		final String sessionID = ssd.getId();
+		final long now = System.currentTimeMillis();
+		while (true) {
+			final DebouncedSave pending = pendingSaves.get(sessionID);
+			if (pending == null) {
+				final DebouncedSave created = new DebouncedSave(ssd, now);
+				if (pendingSaves.putIfAbsent(sessionID, created) == null) {
+					mBean.totalSessionsDebounced.incrementAndGet();
+					scheduleDebouncedSave(created, Math.min(mBean.minPersistIntervalMs, mBean.maxPersistStalenessMs));
+					return;
+				}
+			} else {
+				synchronized (pending) {
+					if (!pending.done) {
+						ssd.mergeFrom(pending.ssd);
+						pending.ssd = ssd;
+						pending.due = Math.min(now + mBean.minPersistIntervalMs, pending.firstChange + mBean.maxPersistStalenessMs);
+						mBean.sessionSavesDebounced.incrementAndGet();
+						return;
+					}
+				}
+				// it is on its way to the queue already, start a new one
+				pendingSaves.remove(sessionID, pending);
+			}
+		}
+	}
+
+	private void scheduleDebouncedSave(final DebouncedSave pending, final long delayMs) {
+		final ScheduledExecutorService executor = debounceExecutor;
+		try {
+			if (executor == null)
+				throw new RejectedExecutionException("no debounce executor");
+			executor.schedule(new Runnable() {
+				@Override
+				public void run() {
+					releaseDebouncedSave(pending, false);
+				}
+			}, delayMs, TimeUnit.MILLISECONDS);
+		} catch (final RejectedExecutionException e) {
+			// shutting down, which flushes the pending saves itself
+			log.info("Could not schedule debounced save of session " + pending.ssd.getId() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Hand the held back save to the persistence queue once it is due, or right away if forced. It goes through the
+	 * queue either way so that it cannot overtake an earlier save of the session; once the queue is shut down it is
+	 * written on the calling thread.
+	 */
+	private void releaseDebouncedSave(final DebouncedSave pending, final boolean force) {
+		final SessionSerializationData ssd;
+		synchronized (pending) {
+			if (pending.done)
+				return;
+			final long remaining = pending.due - System.currentTimeMillis();
+			if (!force && remaining > 0) {
+				// changed again since it was scheduled
+				scheduleDebouncedSave(pending, remaining);
+				return;
+			}
+			pending.done = true;
+			ssd = pending.ssd;
+		}
+		pendingSaves.remove(ssd.getId(), pending);
+		try {
+			queueDirtySession(ssd);
+		} catch (final IOException e) {
+			log.severe("Could not save debounced changes of session " + ssd.getId() + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Save the held back changes of all sessions now.
+	 */
+	protected void flushDebouncedSaves() {
+		for (final DebouncedSave pending : pendingSaves.values()) {
+			releaseDebouncedSave(pending, true);
+		}
+	}
+
+	/**
+	 * Save the session now; with persistence lanes it goes through its lane like an eviction flush, so that it cannot
+	 * overtake (and be overwritten by) a save of the session already queued there.
+	 */
 	@Override
-	protected void persistSession(final SessionSerializationData ssd) throws IOException {
+	public void flush(final String sessionId) throws IOException {
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		if (lanes != null && !draining) {
+			final Map<String, SessionSerializationData> queued = new HashMap<>();
+			if (!flushThroughLanes(lanes, Collections.singleton(sessionId), queued).contains(sessionId))
+				throw new IOException("Unable to save session: " + sessionId
+						+ (queued.isEmpty() ? "" : ", not stored within " + mBean.evictionFlushTimeoutMs + "ms"));
+			return;
+		}
+		final DebouncedSave pending = pendingSaves.get(sessionId);
+		if (pending != null)
+			releaseDebouncedSave(pending, true);
+		// last chance for changes that could not be saved before, the caller keeps the session if this fails too
+		final SessionSerializationData deadLetter = takeDeadLetter(sessionId);
+		if (deadLetter != null) {
+			try {
+				flush(deadLetter);
+			} catch (final IOException e) {
+				putDeadLetter(deadLetter);
+				throw e;
+			}
+		}
+		super.flush(sessionId);
+	}
+
+	/**
+	 * Save the sessions about to be evicted through the persistence lanes, all at once: the held back save, the dead
+	 * letter and the unsaved baseline of each session go into its lane, then the lanes write them in parallel while
+	 * this waits (up to the eviction flush timeout) for the whole batch.
+	 */
+	@Override
+	public Set<String> flush(final Collection<String> sessionIds) {
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		if (lanes == null || draining)
+			return super.flush(sessionIds);
+		final Map<String, SessionSerializationData> queued = new HashMap<>();
+		final Set<String> result = flushThroughLanes(lanes, sessionIds, queued);
+		// not stored in time: still in its lane, or a dead letter; the session stays in memory for now
+		mBean.totalEvictionFlushes.incrementAndGet();
+		mBean.evictionSessionsFlushed.addAndGet(sessionIds.size() - queued.size());
+		mBean.evictionFlushFailures.addAndGet(queued.size());
+		return result;
+	}
+
+	/**
+	 * Submit the sessions to their lanes, each with its held back save and dead letter merged in, and wait for them.
+	 *
+	 * @param queued left with the sessions submitted but not stored within the eviction flush timeout
+	 * @return the ids of the sessions stored, or that had nothing to store
+	 */
+	private Set<String> flushThroughLanes(final PartitionedPersistenceExecutor lanes, final Collection<String> sessionIds,
+			final Map<String, SessionSerializationData> queued) {
+		final Set<String> result = new HashSet<>();
+		for (final String sessionId : sessionIds) {
+			final DebouncedSave pending = pendingSaves.get(sessionId);
+			if (pending != null)
+				releaseDebouncedSave(pending, true);
+			final SessionSerializationData deadLetter = takeDeadLetter(sessionId);
+			SessionSerializationData snapshot;
+			try {
+				snapshot = snapshotForFlush(sessionId);
+			} catch (final IOException e) {
+				log.severe("Unable to save session: " + sessionId + ": " + e.getMessage());
+				if (deadLetter != null)
+					putDeadLetter(deadLetter);
+				continue;
+			}
+			if (deadLetter != null) {
+				if (snapshot == null) {
+					// still QUEUED from its last attempt
+					snapshot = deadLetter;
+				} else {
+					snapshot.mergeFrom(deadLetter);
+				}
+			}
+			if (snapshot == null) {
+				result.add(sessionId);
+			} else if (lanes.submit(snapshot)) {
+				queued.put(sessionId, snapshot);
+			} else {
+				rejectedSessionPersistence(snapshot);
+				if (deadLetter != null)
+					putDeadLetter(deadLetter);
+			}
+		}
+		final long deadline = System.currentTimeMillis() + mBean.evictionFlushTimeoutMs;
+		while (!queued.isEmpty()) {
+			for (final Iterator<Map.Entry<String, SessionSerializationData>> it = queued.entrySet().iterator(); it.hasNext();) {
+				final Map.Entry<String, SessionSerializationData> entry = it.next();
+				if (entry.getValue().getPersistenceQueueState() == PersistenceQueueState.STORED) {
+					result.add(entry.getKey());
+					it.remove();
+				}
+			}
+			if (queued.isEmpty() || System.currentTimeMillis() >= deadline)
+				break;
+			try {
+				Thread.sleep(10);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return a queued copy of the session's unsaved baseline, null if it has nothing to save
+	 */
+	private SessionSerializationData snapshotForFlush(final String sessionId) throws IOException {
+		final SessionSerializationData baseline = sessionCache().get(sessionId);
+		if (baseline == null || !baseline.hasUnstoredChanges())
+			return null;
+		final SessionSerializationData result;
+		try {
+			baseline.tryLock(100, TimeUnit.MILLISECONDS);
+			try {
+				result = SerializationUtils.cloneSessionSerializationData(manager, baseline);
+				result.setPersistencePriority(baseline.getPersistencePriority());
+				result.setCaptureSequence(baseline.getCaptureSequence());
+			} finally {
+				baseline.unlock();
+			}
+			result.lock();
+			try {
+				result.setPersistenceQueueState(PersistenceQueueState.NONE);
+				result.setPersistenceQueueState(PersistenceQueueState.QUEUED);
+			} finally {
+				result.unlock();
+			}
+		} catch (final ClassNotFoundException | CouldNotObtainLockException e) {
+			throw new IOException("Could not copy the changes of session " + sessionId, e);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Could not copy the changes of session " + sessionId, e);
+		}
+		return result;
+	}
+
+	private SessionSerializationData takeDeadLetter(final String sessionId) {
+		synchronized (deadLetters) {
+			return deadLetters.isEmpty() ? null : deadLetters.remove(sessionId);
+		}
+	}
+
+	private void putDeadLetter(final SessionSerializationData ssd) {
+		synchronized (deadLetters) {
+			final SessionSerializationData older = deadLetters.remove(ssd.getId());
+			if (older != null)
+				ssd.mergeFrom(older);
+			deadLetters.put(ssd.getId(), ssd);
+		}
+	}
+
+	/**
+	 * Keep a save that failed on every attempt in the dead letter area (on a worker thread).
+	 */
+	protected void persistFailed(final SessionSerializationData ssd, final IOException cause) {
+		log.severe("Could not save session " + ssd.getId() + " after " + mBean.maxPersistAttempts + " attempts, keeping it as a dead letter: "
+				+ cause.getMessage());
+		mBean.totalSessionsDeadLettered.incrementAndGet();
+		putDeadLetter(ssd);
+	}
+
+	public int getDeadLetterCount() {
+		synchronized (deadLetters) {
+			return deadLetters.size();
+		}
+	}
+
+	public int getPendingSaveCount() {
+		return pendingSaves.size();
+	}
+
+	@Override
+	protected void sendTouchedSessionToPersist(final String sessionId, final SessionSerializationHeaderData header) throws IOException {
+		if (touchExecutor == null) {
+			super.sendTouchedSessionToPersist(sessionId, header);
+			return;
+		}
+		mBean.totalSessionsTouched.incrementAndGet();
+		// a later touch of the same session simply replaces the pending one
+		pendingTouches.put(sessionId, header);
+	}
+
+	/**
+	 * Write all pending access time changes as one batch.
+	 */
+	protected void flushTouches() {
+		if (pendingTouches.isEmpty())
+			return;
+		final Map<String, SessionSerializationHeaderData> batch = new HashMap<>();
+		for (final String sessionId : pendingTouches.keySet()) {
+			final SessionSerializationHeaderData header = pendingTouches.remove(sessionId);
+			if (header != null)
+				batch.put(sessionId, header);
+		}
+		try {
+			persistSessionTouches(batch);
+		} catch (final IOException e) {
+			// the times are written again with the next touch or save, the sessions only look slightly older until then
+			log.severe("Could not save access times of " + batch.size() + " sessions: " + e.getMessage());
+		}
+	}
+
+	@Override
+	protected void persistSessionTouches(final Map<String, SessionSerializationHeaderData> touches) throws IOException {
+		if (touches.isEmpty())
+			return;
 		final long start = System.currentTimeMillis();
 
-		target.persistSession(ssd);
+		checkCircuit();
+		try {
+			target.persistSessionTouches(touches);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			throw e;
+		}
+		recordStoreSuccess();
+
+		mBean.touchBatchCounter.incrementAndGet();
+		mBean.sessionTouchesSavedCounter.addAndGet(touches.size());
+		mBean.touchBatchSaveLastTime = System.currentTimeMillis() - start;
+	}
+
+	public int getPendingTouchCount() {
+		return pendingTouches.size();
+	}
+
+	@Override
+	protected void persistSession(final SessionSerializationData ssd) throws IOException {
+		final long start = System.currentTimeMillis();
+		final long startNanos = System.nanoTime();
+		checkCircuit();
+		final int inflight = inflightSaves.incrementAndGet();
+		try {
+			target.persistSession(ssd);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			throw e;
+		} finally {
+			inflightSaves.decrementAndGet();
+		}
+		recordStoreSuccess();
+		if (concurrencyLimit != null)
+			concurrencyLimit.onSample(System.nanoTime() - startNanos, inflight);
 
 		mBean.sessionSavedCounter.incrementAndGet();
 		final long end = System.currentTimeMillis();
@@ -101,30 +572,885 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 	protected synchronized void startInternal() throws LifecycleException {
 		super.startInternal();
 		createExecutor();
+		createTouchExecutor();
+		createDebounceExecutor();
+		createHealthProbeExecutor();
+		createWarmUpExecutor();
+		createOwnershipExecutor();
+		createSessionIdScanExecutor();
+		createSwapFile();
 		mBean.resetCounters();
 	}
 
+	protected void createSwapFile() {
+		if (mBean.swapFileSizeMb <= 0)
+			return;
+		final File directory = new File(mBean.swapFileDirectory);
+		try {
+			directory.mkdirs();
+			final File file = File.createTempFile("foundation-sessions-", ".swap", directory);
+			file.deleteOnExit();
+			swapFile = new SessionSwapFile(file, (int) Math.min(Integer.MAX_VALUE, mBean.swapFileSizeMb * 1024L * 1024L));
+			log.info("Passivating evicted sessions to " + file + " (" + mBean.swapFileSizeMb + "MB)");
+		} catch (final IOException e) {
+			log.severe("Unable to create the session swap file in " + directory + ", evicted sessions are loaded from the store: " + e.getMessage());
+		}
+	}
+
+	protected void createHealthProbeExecutor() {
+		if (circuitBreaker == null)
+			return;
+		healthProbeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r);
+				result.setDaemon(true);
+				result.setName("FoundationSessionStore-health");
+				return result;
+			}
+		});
+		final long interval = Math.max(100, mBean.healthProbeIntervalMs);
+		healthProbeExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				runHealthProbe();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Check the store in the background, so that an outage opens the circuit before requests pile up on it and the
+	 * circuit is closed again once the store answers; while open, the probe is the half-open trial.
+	 */
+	protected void runHealthProbe() {
+		if (!circuitBreaker.allowRequest())
+			return;
+		final long start = System.currentTimeMillis();
+		try {
+			target.probeStore();
+			circuitBreaker.onSuccess();
+		} catch (final IOException | RuntimeException e) {
+			mBean.healthProbeFailures.incrementAndGet();
+			circuitBreaker.onFailure();
+			log.severe("Session store health probe failed: " + e.getMessage());
+			return;
+		} finally {
+			mBean.healthProbeLastTime = System.currentTimeMillis() - start;
+		}
+		replayPendingRemovals();
+	}
+
+	/**
+	 * Remove from the store the sessions removed while it was down, stopping at the first failure.
+	 */
+	private void replayPendingRemovals() {
+		for (final Iterator<String> it = pendingRemovals.iterator(); it.hasNext();) {
+			final String id = it.next();
+			try {
+				target.remove(id);
+			} catch (final IOException e) {
+				recordStoreFailure(e);
+				log.severe("Unable to remove session " + id + " removed while the store was down, retrying with the next probe: " + e.getMessage());
+				return;
+			}
+			it.remove();
+			mBean.totalDeferredRemovalsReplayed.incrementAndGet();
+		}
+	}
+
+	public int getPendingRemovalCount() {
+		return pendingRemovals.size();
+	}
+
+	/**
+	 * Fail fast while the circuit is not closed.
+	 */
+	private void checkCircuit() throws IOException {
+		if (circuitBreaker != null && !circuitBreaker.isClosed())
+			throw new IOException("Session store is unavailable, circuit " + circuitBreaker.getState());
+	}
+
+	private void recordStoreSuccess() {
+		if (circuitBreaker != null)
+			circuitBreaker.onSuccess();
+	}
+
+	private void recordStoreFailure(final IOException e) {
+		if (circuitBreaker != null && StoreCircuitBreaker.isStoreFailure(e))
+			circuitBreaker.onFailure();
+	}
+
+	@Override
+	protected void probeStore() throws IOException {
+		target.probeStore();
+	}
+
+	public StoreCircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	protected void createSessionIdScanExecutor() {
+		if (!mBean.bloomFilterEnabled)
+			return;
+		sessionIdScanExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r);
+				result.setDaemon(true);
+				result.setName("FoundationSessionStore-id-scan");
+				return result;
+			}
+		});
+		sessionIdScanExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				refreshSessionIdFilter();
+			}
+		}, 0, Math.max(100, mBean.bloomFilterRefreshIntervalMs), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return true if the store is known not to hold the session, without asking it
+	 */
+	private boolean isKnownAbsent(final String id) {
+		if (mBean.negativeCacheTtlMs > 0) {
+			synchronized (absentSessions) {
+				final Long until = absentSessions.isEmpty() ? null : absentSessions.get(id);
+				if (until != null) {
+					if (until.longValue() > System.currentTimeMillis()) {
+						mBean.negativeCacheHits.incrementAndGet();
+						return true;
+					}
+					absentSessions.remove(id);
+				}
+			}
+		}
+		final SessionIdBloomFilter filter = sessionIdFilter;
+		if (filter != null && !filter.mightContain(id)) {
+			mBean.bloomFilterRejections.incrementAndGet();
+			return true;
+		}
+		return false;
+	}
+
+	private void recordAbsent(final String id) {
+		if (mBean.negativeCacheTtlMs <= 0)
+			return;
+		synchronized (absentSessions) {
+			// re-inserted so that it is the youngest
+			absentSessions.remove(id);
+			absentSessions.put(id, Long.valueOf(System.currentTimeMillis() + mBean.negativeCacheTtlMs));
+		}
+	}
+
+	/**
+	 * The session is being saved here, the store is going to hold it.
+	 */
+	private void addKnownSessionId(final String id) {
+		if (mBean.negativeCacheTtlMs > 0) {
+			synchronized (absentSessions) {
+				if (!absentSessions.isEmpty())
+					absentSessions.remove(id);
+			}
+		}
+		// the filter being built first: once it has replaced the current one it is read as the current one below
+		final SessionIdBloomFilter rebuilding = rebuildingSessionIdFilter;
+		if (rebuilding != null)
+			rebuilding.add(id);
+		final SessionIdBloomFilter filter = sessionIdFilter;
+		if (filter != null)
+			filter.add(id);
+	}
+
+	/**
+	 * Add the ids the store took since the last scan (from any node) to the filter, or rebuild the filter from all ids
+	 * once the rebuild interval is up, which drops the removed ones.
+	 */
+	protected void refreshSessionIdFilter() {
+		if (circuitBreaker != null && !circuitBreaker.isClosed())
+			return;
+		final long now = System.currentTimeMillis();
+		try {
+			final SessionIdBloomFilter filter = sessionIdFilter;
+			if (filter == null || now - sessionIdRebuildTime >= mBean.bloomFilterRebuildIntervalMs) {
+				final SessionIdBloomFilter rebuilt = new SessionIdBloomFilter(Math.max(mBean.bloomFilterExpectedSessions, 2 * sessionIdRebuildCount),
+						mBean.bloomFilterBitsPerSession);
+				rebuildingSessionIdFilter = rebuilt;
+				try {
+					final List<String> ids = target.findSessionIdsAccessedSince(0);
+					if (ids == null)
+						return; // the store cannot list its sessions, misses are only cached
+					for (final String id : ids) {
+						rebuilt.add(id);
+					}
+					sessionIdFilter = rebuilt;
+					sessionIdRebuildCount = ids.size();
+					sessionIdRebuildTime = now;
+				} finally {
+					rebuildingSessionIdFilter = null;
+				}
+			} else {
+				// the overlap covers saves that reached the store after the access time they carry
+				final List<String> ids = target.findSessionIdsAccessedSince(sessionIdScanTime - mBean.bloomFilterScanOverlapMs);
+				if (ids == null)
+					return;
+				for (final String id : ids) {
+					filter.add(id);
+				}
+			}
+			sessionIdScanTime = now;
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			log.severe("Could not scan the session ids of the store: " + e.getMessage());
+			return;
+		}
+		recordStoreSuccess();
+	}
+
+	public int getNegativeCacheSize() {
+		synchronized (absentSessions) {
+			return absentSessions.size();
+		}
+	}
+
+	public SessionIdBloomFilter getSessionIdFilter() {
+		return sessionIdFilter;
+	}
+
+	public int getSessionIdRebuildCount() {
+		return sessionIdRebuildCount;
+	}
+
+	protected void createOwnershipExecutor() {
+		if (mBean.adoptionFlushIntervalMs <= 0 && mBean.nodeHeartbeatIntervalMs <= 0)
+			return; // ownership follows the next full save, orphaned sessions stay where they are
+		ownershipExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r);
+				result.setDaemon(true);
+				result.setName("FoundationSessionStore-ownership");
+				return result;
+			}
+		});
+		if (mBean.adoptionFlushIntervalMs > 0) {
+			ownershipExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					flushAdoptions();
+				}
+			}, mBean.adoptionFlushIntervalMs, mBean.adoptionFlushIntervalMs, TimeUnit.MILLISECONDS);
+		}
+		if (mBean.nodeHeartbeatIntervalMs > 0) {
+			ownershipExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					heartbeatAndSweep();
+				}
+			}, 0, mBean.nodeHeartbeatIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Make the sessions restored from other nodes this node's, in batches.
+	 */
+	protected void flushAdoptions() {
+		if (pendingAdoptions.isEmpty() || circuitBreaker != null && !circuitBreaker.isClosed())
+			return;
+		final int batchSize = Math.max(1, mBean.adoptionBatchSize);
+		final List<String> batch = new ArrayList<>(batchSize);
+		for (final String id : pendingAdoptions) {
+			if (pendingAdoptions.remove(id))
+				batch.add(id);
+			if (batch.size() == batchSize) {
+				if (!adoptSessionBatch(batch))
+					return;
+				batch.clear();
+			}
+		}
+		adoptSessionBatch(batch);
+	}
+
+	private boolean adoptSessionBatch(final List<String> batch) {
+		if (batch.isEmpty())
+			return true;
+		try {
+			mBean.totalSessionsAdopted.addAndGet(target.adoptSessions(batch));
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			// tried again with the next flush
+			pendingAdoptions.addAll(batch);
+			log.severe("Could not adopt " + batch.size() + " sessions: " + e.getMessage());
+			return false;
+		}
+		recordStoreSuccess();
+		return true;
+	}
+
+	/**
+	 * Record that this node is alive, and take over the sessions of nodes that are not.
+	 */
+	protected void heartbeatAndSweep() {
+		if (circuitBreaker != null && !circuitBreaker.isClosed())
+			return;
+		try {
+			target.heartbeat();
+			final int adopted = target.adoptOrphanedSessions(mBean.nodeHeartbeatTimeoutMs);
+			mBean.totalOrphanedSessionsAdopted.addAndGet(adopted);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			mBean.heartbeatFailures.incrementAndGet();
+			log.severe("Could not heartbeat or sweep orphaned sessions: " + e.getMessage());
+			return;
+		}
+		recordStoreSuccess();
+	}
+
+	public int getPendingAdoptionCount() {
+		return pendingAdoptions.size();
+	}
+
+	protected void createWarmUpExecutor() {
+		final AtomicInteger threadIDGenerator = new AtomicInteger();
+		warmUpExecutor = Executors.newFixedThreadPool(Math.max(1, mBean.warmUpParallelism), new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r);
+				result.setDaemon(true);
+				result.setName("FoundationSessionStore-warm-up-" + threadIDGenerator.incrementAndGet());
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Fetch the most recently used sessions the given node stored, in batches on the warm-up threads, so that its users
+	 * find their session here on their first request after the node left. At most one warm-up per node runs at a time.
+	 */
+	public void warmUpNode(final String nodeID) {
+		final ExecutorService executor = warmUpExecutor;
+		if (executor == null || nodeID == null || nodeID.equals(getNodeID()))
+			return;
+		if (!nodesWarmingUp.add(nodeID)) {
+			log.info("Sessions of node " + nodeID + " are being fetched already");
+			return;
+		}
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					warmUp(executor, nodeID);
+				}
+			});
+		} catch (final RejectedExecutionException e) {
+			nodesWarmingUp.remove(nodeID);
+		}
+	}
+
+	/**
+	 * List the sessions of the node and queue their batches (on a warm-up thread).
+	 */
+	protected void warmUp(final ExecutorService executor, final String nodeID) {
+		// the last batch to finish ends the warm-up, until they are all queued this does
+		final AtomicInteger remaining = new AtomicInteger(1);
+		try {
+			final List<String> ids;
+			try {
+				checkCircuit();
+				ids = target.findRecentSessionIds(nodeID, Math.max(0, mBean.warmUpMaxSessions));
+			} catch (final IOException e) {
+				recordStoreFailure(e);
+				log.severe("Could not list the sessions of node " + nodeID + " to warm up: " + e.getMessage());
+				return;
+			}
+			mBean.totalWarmUps.incrementAndGet();
+			log.info("Warming up " + ids.size() + " session(s) of node " + nodeID);
+			final int batchSize = Math.max(1, mBean.warmUpBatchSize);
+			for (int i = 0; i < ids.size(); i += batchSize) {
+				final List<String> batch = ids.subList(i, Math.min(ids.size(), i + batchSize));
+				remaining.incrementAndGet();
+				try {
+					executor.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								prefetchSessions(batch);
+							} finally {
+								if (remaining.decrementAndGet() == 0)
+									nodesWarmingUp.remove(nodeID);
+							}
+						}
+					});
+				} catch (final RejectedExecutionException e) {
+					// shutting down
+					remaining.decrementAndGet();
+					return;
+				}
+			}
+		} finally {
+			if (remaining.decrementAndGet() == 0)
+				nodesWarmingUp.remove(nodeID);
+		}
+	}
+
+	/**
+	 * Load a batch of sessions into the prefetched pool with one query, leaving out those that are active here already,
+	 * for as long as the pool has room.
+	 */
+	protected void prefetchSessions(final List<String> ids) {
+		purgeExpiredPrefetches();
+		final List<String> wanted = new ArrayList<>(ids.size());
+		for (final String id : ids) {
+			if (!prefetched.containsKey(id) && !isSessionInMemory(id))
+				wanted.add(id);
+		}
+		final int room = mBean.warmUpMaxSessions - prefetched.size();
+		if (room <= 0 || wanted.isEmpty() || circuitBreaker != null && !circuitBreaker.isClosed())
+			return;
+		final Map<String, StandardSession> sessions;
+		try {
+			sessions = target.loadSessions(wanted.size() > room ? wanted.subList(0, room) : wanted);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			log.severe("Could not prefetch " + wanted.size() + " session(s): " + e.getMessage());
+			return;
+		}
+		recordStoreSuccess();
+		final long now = System.currentTimeMillis();
+		for (final StandardSession session : sessions.values()) {
+			final String id = session.getIdInternal();
+			final SessionSerializationData ssd = sessionCache().get(id);
+			if (ssd == null || !session.isValid() || isSessionInMemory(id))
+				continue;
+			session.removeNote(LOADED_FROM_NODE_NOTE);
+			if (prefetched.putIfAbsent(id, new PrefetchedSession(session, ssd, now)) == null)
+				mBean.totalSessionsPrefetched.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the prefetched session, if it is still what the store holds
+	 */
+	private StandardSession takePrefetched(final String id) throws IOException {
+		if (prefetched.isEmpty())
+			return null;
+		final PrefetchedSession entry = prefetched.remove(id);
+		if (entry == null)
+			return null;
+		if (System.currentTimeMillis() - entry.time > mBean.prefetchTtlMs) {
+			mBean.prefetchExpired.incrementAndGet();
+			sessionCache().remove(id, entry.ssd);
+			return null;
+		}
+		// written by another node meanwhile, or loaded here with a baseline of its own
+		final SessionSerializationData cached = sessionCache().putIfAbsent(id, entry.ssd);
+		final long version;
+		try {
+			version = target.getStoredVersion(id);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			throw e;
+		}
+		if (cached != null && cached != entry.ssd || version >= 0 && version != entry.ssd.getVersion()) {
+			mBean.prefetchStale.incrementAndGet();
+			return null;
+		}
+		mBean.prefetchHits.incrementAndGet();
+		adoptLater(id);
+		return entry.session;
+	}
+
+	/**
+	 * Drop the prefetched sessions nobody asked for within the prefetch TTL, with their cached baselines.
+	 */
+	protected void purgeExpiredPrefetches() {
+		final long oldest = System.currentTimeMillis() - mBean.prefetchTtlMs;
+		for (final Map.Entry<String, PrefetchedSession> entry : prefetched.entrySet()) {
+			final PrefetchedSession prefetch = entry.getValue();
+			if (prefetch.time < oldest && prefetched.remove(entry.getKey(), prefetch)) {
+				mBean.prefetchExpired.incrementAndGet();
+				sessionCache().remove(entry.getKey(), prefetch.ssd);
+			}
+		}
+	}
+
+	/**
+	 * Move the session to its new id through the lane of the old id, behind the saves of the old id still waiting, and
+	 * wait up to the session id change timeout for the store to move it; then the baseline follows it to the new id.
+	 * If the store did not move it, the next save writes the session in full under the new id.
+	 */
+	@Override
+	public void changeSessionId(final String oldId, final String newId) throws IOException {
+		pendingTouches.remove(oldId);
+		prefetched.remove(oldId);
+		pendingAdoptions.remove(oldId);
+		final SessionSwapFile swap = swapFile;
+		if (swap != null)
+			swap.remove(oldId);
+		addKnownSessionId(newId);
+		final DebouncedSave pending = pendingSaves.get(oldId);
+		if (pending != null)
+			releaseDebouncedSave(pending, true);
+
+		// nothing to store of its own, it picks up the saves of the old id it finds waiting in the lane
+		final SessionIdChange change = new SessionIdChange(oldId, newId);
+		final SessionSerializationData marker = new SessionSerializationData(log, oldId);
+		final SessionSerializationData baseline = sessionCache().get(oldId);
+		if (baseline != null)
+			marker.setVersion(baseline.getVersion());
+		marker.setPersistencePriority(PersistencePriority.FIRST_PERSIST);
+		marker.setIdChange(change);
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		if (lanes == null || draining || !lanes.submit(marker)) {
+			// no lane to go through: the saves of the old id were written on their threads already
+			try {
+				persistQueuedSession(marker, System.currentTimeMillis());
+			} catch (final IOException e) {
+				if (change.start())
+					change.finish(false);
+			}
+		}
+
+		if (change.await(mBean.sessionIdChangeTimeoutMs)) {
+			moveSessionSerializationData(oldId, newId);
+			mBean.totalSessionIdChanges.incrementAndGet();
+		} else {
+			sessionCache().remove(oldId);
+			mBean.sessionIdChangeFallbacks.incrementAndGet();
+			log.info("Session " + oldId + " not moved to its new id " + newId + ", it is saved in full under the new id");
+		}
+	}
+
+	@Override
+	public void evict(final String sessionId) {
+		target.evict(sessionId);
+	}
+
+	/**
+	 * Write the session and its baseline to the swap file, to be brought back by {@link #takePassivated(String)} as
+	 * long as no other node stores the session meanwhile.
+	 */
+	@Override
+	public boolean passivate(final StandardSession session) {
+		final SessionSwapFile swap = swapFile;
+		if (swap == null)
+			return false;
+		final String id = session.getIdInternal();
+		final SessionSerializationData baseline = sessionCache().get(id);
+		if (baseline == null)
+			return false;
+		boolean result = false;
+		try {
+			final byte[] baselineData;
+			final long version;
+			baseline.tryLock(100, TimeUnit.MILLISECONDS);
+			try {
+				// changes not stored yet: the swapped copy would be fenced off as stale anyway
+				if (baseline.hasUnstoredChanges())
+					return false;
+				baselineData = SerializationUtils.writeObject(baseline);
+				version = baseline.getVersion();
+			} finally {
+				baseline.unlock();
+			}
+			final byte[] sessionData = serializeFrom(hasHttpSessionActivationListener(session) ? createPassivatedCopy(session) : session);
+			final Object requestCount = session.getNote("request_count");
+			final ByteArrayOutputStream bos = new ByteArrayOutputStream(8 + sessionData.length + baselineData.length);
+			final DataOutputStream out = new DataOutputStream(bos);
+			out.writeInt(requestCount instanceof Integer ? ((Integer) requestCount).intValue() : 0);
+			out.writeInt(sessionData.length);
+			out.write(sessionData);
+			out.write(baselineData);
+			out.close();
+			result = swap.put(id, version, bos.toByteArray());
+			if (result)
+				mBean.totalSessionsPassivated.incrementAndGet();
+		} catch (final IOException | CouldNotObtainLockException e) {
+			log.severe("Unable to passivate session: " + id + ": " + e.getMessage());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the session passivated to the swap file, if it is still what the store holds
+	 */
+	private StandardSession takePassivated(final String id) throws IOException {
+		final SessionSwapFile swap = swapFile;
+		if (swap == null)
+			return null;
+		final SessionSwapFile.Record record = swap.take(id);
+		if (record == null)
+			return null;
+		// stored by another node meanwhile: load its current state instead
+		final long version;
+		try {
+			version = target.getStoredVersion(id);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			throw e;
+		}
+		recordStoreSuccess();
+		if (version >= 0 && version != record.getVersion()) {
+			mBean.passivationStale.incrementAndGet();
+			return null;
+		}
+		final StandardSession result;
+		try {
+			final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getData()));
+			final int requestCount = in.readInt();
+			final byte[] sessionData = new byte[in.readInt()];
+			in.readFully(sessionData);
+			result = createSessionFromData(id, sessionData);
+			result.setNote("request_count", Integer.valueOf(requestCount));
+			final SessionSerializationData ssd = SerializationUtils.readObject(manager, in, new SessionSerializationData(log, id));
+			ssd.initVersion(record.getVersion());
+			ssd.setTouchedAccessTime(result.getThisAccessedTimeInternal());
+			// loaded meanwhile, with a baseline of its own
+			if (!cacheSessionSerializationDataIfAbsent(result, ssd)) {
+				mBean.passivationStale.incrementAndGet();
+				return null;
+			}
+		} catch (final IOException | ClassNotFoundException e) {
+			log.severe("Unable to reactivate passivated session: " + id + ", loading it from the store: " + e.getMessage());
+			return null;
+		}
+		mBean.passivationHits.incrementAndGet();
+		return result;
+	}
+
+	public int getPassivatedSessionCount() {
+		final SessionSwapFile swap = swapFile;
+		return swap == null ? 0 : swap.size();
+	}
+
+	public long getSwapFileUsedBytes() {
+		final SessionSwapFile swap = swapFile;
+		return swap == null ? 0 : swap.getUsedBytes();
+	}
+
+	public long getSwapFileOverwrittenCount() {
+		final SessionSwapFile swap = swapFile;
+		return swap == null ? 0 : swap.getOverwrittenCount();
+	}
+
+	private void adoptLater(final String id) {
+		if (ownershipExecutor != null && mBean.adoptionFlushIntervalMs > 0)
+			pendingAdoptions.add(id);
+	}
+
+	/**
+	 * Count the loads of sessions another node stored last; the session is adopted, and a burst of them means the node
+	 * left the pool and its users are coming here, so its other sessions are fetched ahead (at most once per prefetch TTL).
+	 */
+	private void recordLoadedFrom(final StandardSession session) {
+		final Object nodeID = session.getNote(LOADED_FROM_NODE_NOTE);
+		session.removeNote(LOADED_FROM_NODE_NOTE);
+		if (!(nodeID instanceof String) || nodeID.equals(getNodeID()))
+			return;
+		adoptLater(session.getIdInternal());
+		if (mBean.warmUpTriggerLoads <= 0)
+			return;
+		final long now = System.currentTimeMillis();
+		boolean warmUp = false;
+		synchronized (foreignLoads) {
+			long[] loads = foreignLoads.get(nodeID);
+			if (loads == null) {
+				loads = new long[3];
+				foreignLoads.put((String) nodeID, loads);
+			}
+			if (now - loads[0] > mBean.warmUpTriggerWindowMs) {
+				loads[0] = now;
+				loads[1] = 0;
+			}
+			if (++loads[1] >= mBean.warmUpTriggerLoads && now - loads[2] > mBean.prefetchTtlMs) {
+				loads[1] = 0;
+				loads[2] = now;
+				warmUp = true;
+			}
+		}
+		if (warmUp) {
+			log.info("Sessions of node " + nodeID + " are being restored here, warming up the rest of them");
+			warmUpNode((String) nodeID);
+		}
+	}
+
+	private boolean isSessionInMemory(final String id) {
+		return manager instanceof FoundationSessionManager && ((FoundationSessionManager) manager).isSessionInMemory(id);
+	}
+
+	public int getPrefetchedSessionCount() {
+		return prefetched.size();
+	}
+
+	public Set<String> getNodesWarmingUp() {
+		return nodesWarmingUp;
+	}
+
+	protected void createTouchExecutor() {
+		if (mBean.touchFlushIntervalMs <= 0)
+			return; // touches are written through, one by one
+		touchExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r);
+				result.setDaemon(true);
+				result.setName("FoundationSessionStore-touch-flusher");
+				return result;
+			}
+		});
+		touchExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				flushTouches();
+			}
+		}, mBean.touchFlushIntervalMs, mBean.touchFlushIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	protected void createDebounceExecutor() {
+		if (mBean.minPersistIntervalMs <= 0)
+			return; // every change is queued right away
+		debounceExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r);
+				result.setDaemon(true);
+				result.setName("FoundationSessionStore-debouncer");
+				return result;
+			}
+		});
+	}
+
 	protected void createExecutor() {
-		persistenceExecutorQueue = new LinkedBlockingQueue<>(mBean.executorQueueMaxCapacity);
+		final int laneCount = Math.max(1, mBean.persistenceLaneCount);
+		// at most one task per lane is ever waiting for a worker
+		persistenceExecutorQueue = new LinkedBlockingQueue<>(laneCount);
 		persistenceExecutor = new ThreadPoolExecutor(mBean.corePoolSize, mBean.maxPoolSize, mBean.executorThreadPoolThreadTTLMs, TimeUnit.MILLISECONDS, persistenceExecutorQueue,
-				threadFactory, this);
+				threadFactory);
+		retryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(final Runnable r) {
+				final Thread result = new Thread(r);
+				result.setDaemon(true);
+				result.setName("FoundationSessionStore-retry");
+				return result;
+			}
+		});
+		persistenceLanes = new PartitionedPersistenceExecutor(laneCount, mBean.executorQueueMaxCapacity / laneCount, persistenceExecutor,
+				mBean.persistenceLaneWaitStrategy, TimeUnit.MICROSECONDS.toNanos(mBean.persistenceLaneIdleWaitMicros), mBean.persistencePriorityWeights,
+				mBean.maxPersistAttempts, mBean.persistRetryBaseDelayMs, mBean.persistRetryMaxDelayMs, retryExecutor) {
+			@Override
+			protected void persist(final SessionSerializationData ssd, final long timeQueued) throws IOException {
+				persistQueuedSession(ssd, timeQueued);
+			}
+
+			@Override
+			protected void persistFailed(final SessionSerializationData ssd, final IOException cause) {
+				AsyncFoundationSessionStoreWrapper.this.persistFailed(ssd, cause);
+			}
+		};
 	}
 
 	@Override
 	protected synchronized void stopInternal() throws LifecycleException {
 		super.stopInternal();
+		final ScheduledExecutorService debouncer = debounceExecutor;
+		debounceExecutor = null;
+		if (debouncer != null)
+			debouncer.shutdownNow();
+		// held back changes go into the lanes, to be written with the rest of the backlog
+		flushDebouncedSaves();
+		final ScheduledExecutorService touches = touchExecutor;
+		touchExecutor = null;
+		if (touches != null) {
+			touches.shutdownNow();
+			// last batch, cheap enough to write on the way down
+			flushTouches();
+		}
+		drainPersistenceLanes();
 		final ExecutorService executor = persistenceExecutor;
 		persistenceExecutor = null;
 		persistenceExecutorQueue = null;
+		persistenceLanes = null;
 		if (executor != null) {
 			executor.shutdownNow();
 		}
+		final ScheduledExecutorService retries = retryExecutor;
+		retryExecutor = null;
+		if (retries != null)
+			retries.shutdownNow();
+		final ScheduledExecutorService probe = healthProbeExecutor;
+		healthProbeExecutor = null;
+		if (probe != null)
+			probe.shutdownNow();
+		final ScheduledExecutorService idScan = sessionIdScanExecutor;
+		sessionIdScanExecutor = null;
+		if (idScan != null)
+			idScan.shutdownNow();
+		sessionIdFilter = null;
+		final ScheduledExecutorService ownership = ownershipExecutor;
+		ownershipExecutor = null;
+		if (ownership != null) {
+			ownership.shutdownNow();
+			flushAdoptions();
+		}
+		final ExecutorService warmUp = warmUpExecutor;
+		warmUpExecutor = null;
+		if (warmUp != null)
+			warmUp.shutdownNow();
+		nodesWarmingUp.clear();
+		prefetched.clear();
+		final SessionSwapFile swap = swapFile;
+		swapFile = null;
+		if (swap != null)
+			swap.close();
+	}
+
+	/**
+	 * Write everything queued for persistence before the store goes down, on all workers, for at most the shutdown
+	 * drain timeout; report what was written and what is given up.
+	 */
+	protected void drainPersistenceLanes() {
+		final ThreadPoolExecutor executor = persistenceExecutor;
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		if (executor == null || lanes == null)
+			return;
+		final long start = System.currentTimeMillis();
+		final long persistedBefore = lanes.getTotalSessionsPersisted();
+		final long deadLetteredBefore = mBean.totalSessionsDeadLettered.get();
+		draining = true;
+		try {
+			// every lane gets a worker, whatever the adaptive limit had settled on
+			executor.setMaximumPoolSize(Math.max(mBean.maxPoolSize, lanes.getLaneCount()));
+			executor.setCorePoolSize(Math.max(mBean.maxPoolSize, lanes.getLaneCount()));
+			final int abandoned = lanes.drain(start + mBean.shutdownDrainTimeoutMs);
+			final long flushed = lanes.getTotalSessionsPersisted() - persistedBefore;
+			final long failed = mBean.totalSessionsDeadLettered.get() - deadLetteredBefore;
+			mBean.shutdownSessionsFlushed = flushed;
+			mBean.shutdownSessionsAbandoned = abandoned + getDeadLetterCount();
+			mBean.shutdownDrainTime = System.currentTimeMillis() - start;
+			log.info("Shutdown drain wrote " + flushed + " session(s) in " + mBean.shutdownDrainTime + "ms" + (failed > 0 ? ", " + failed + " failed" : ""));
+			if (abandoned > 0)
+				log.severe("Shutdown drain timed out after " + mBean.shutdownDrainTimeoutMs + "ms, the changes of " + abandoned
+						+ " queued session(s) are lost");
+			synchronized (deadLetters) {
+				if (!deadLetters.isEmpty())
+					log.severe("The changes of " + deadLetters.size() + " session(s) could not be saved and are lost: " + deadLetters.keySet());
+			}
+		} finally {
+			draining = false;
+		}
 	}
 
 	protected void queueDirtySession(final StandardSession session, final SessionSerializationData ssd) throws IOException {
+		queueDirtySession(ssd);
+	}
+
+	protected void queueDirtySession(final SessionSerializationData ssd) throws IOException {
 		// assume we will end up queuing the session, then flag it false when we see a reason it shouldn't be
 		boolean queueSession = true;
-		final String sessionID = session.getIdInternal();
+		final String sessionID = ssd.getId();
 
 		//ssd wait lock time
 		if (mBean.processChangesMaxWaitLockTime < ssd.getWaitLockTime())
@@ -137,9 +1463,10 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 		} else {
 			// the session is not queued, but therefore could be PERSISTING, after which it will end up as CLEAN again,
 			// so we need to try and lock it, check again to see if it has been re-QUEUED, and if not, flag it as QUEUED
-			// (note that we should already have the lock under normal circumstances anyway)
+			// (note that we should already have the lock under normal circumstances anyway); no need to wait for the lock,
+			// the store fences stale writes on the session version
 			try {
-				ssd.tryLock(100, TimeUnit.MILLISECONDS);
+				ssd.tryLock(0, TimeUnit.MILLISECONDS);
 				try {
 					if (PersistenceQueueState.QUEUED.equals(ssd.getPersistenceQueueState())) {
 						// some other thread beat us to it, so no need to re-queue it
@@ -168,12 +1495,10 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 			// we've determined that this is a session we want to save, so queue or save it as needed
 			final ExecutorService executor = persistenceExecutor;
 			if (executor != null && !executor.isTerminated()) {
-				// we're good to queue this session in the ExecutorService's queue for later processing
-				final SessionPersistenceRunnable persistor = new SessionPersistenceRunnable(ssd);
-				mBean.queueSize = queueAsynchronousSave(persistor, mBean.totalSessionsQueued);
-				if (mBean.queueSize > mBean.queueSizeMax)
-					mBean.queueSizeMax = mBean.queueSize;				
-					log.info("Queued async persistence event for session " + sessionID + ", queueSize/queueSizeMax == " + mBean.queueSize + "/" + mBean.queueSizeMax);
+				// we're good to queue this session in its lane for later processing (queue statistics and the
+				// thread pool size are maintained by the workers, off the request thread)
+				queueAsynchronousSave(ssd, mBean.totalSessionsQueued);
+				log.info("Queued async persistence event for session " + sessionID);
 			} else {
 				// no executor available, so save immediately
 				log.info("Performing save of dirty session synchronously due to no executor configured for " + sessionID);
@@ -182,17 +1507,58 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 		}
 	}
 
-	private int queueAsynchronousSave(final Runnable runnable, final AtomicInteger counter) {
-		final ThreadPoolExecutor executor = persistenceExecutor;
-		if (executor == null || executor.isTerminated())
+	private void queueAsynchronousSave(final SessionSerializationData ssd, final AtomicInteger counter) {
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		if (lanes == null)
 			throw new IllegalStateException("Executor service is null or terminated - cannot queue event");
-		executor.execute(runnable);
-		counter.incrementAndGet();
-		final int queueSize = persistenceExecutorQueue != null ? persistenceExecutorQueue.size() : 0;
+		if (lanes.submit(ssd)) {
+			counter.incrementAndGet();
+		} else {
+			rejectedSessionPersistence(ssd);
+		}
+	}
+
+	/**
+	 * Update the queue statistics and the thread pool size from the backlog of the lanes (on a worker thread).
+	 */
+	private void recordQueueSize() {
+		final ThreadPoolExecutor executor = persistenceExecutor;
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		if (executor == null || lanes == null || draining)
+			return;
+		final int queueSize = lanes.getQueueSize();
+		mBean.queueSize = queueSize;
+		if (queueSize > mBean.queueSizeMax)
+			mBean.queueSizeMax = queueSize;
 		if (queueSize > mBean.executorQueueMaxSize)
 			mBean.executorQueueMaxSize = queueSize;
-		adjustExecutorThreads(executor, queueSize);
-		return queueSize;
+		if (concurrencyLimit != null) {
+			applyConcurrencyLimit(executor, concurrencyLimit.getLimit());
+		} else {
+			adjustExecutorThreads(executor, queueSize);
+		}
+	}
+
+	/**
+	 * Run as many workers as the adaptive limit allows; the pool never grows past it, not even when its queue is full.
+	 */
+	private void applyConcurrencyLimit(final ThreadPoolExecutor executor, final int limit) {
+		if (executor.getCorePoolSize() == limit && executor.getMaximumPoolSize() == limit)
+			return;
+		if (executorThreadPoolAdjusterLock.tryLock()) {
+			try {
+				// core may never exceed max, so the order depends on the direction
+				if (limit > executor.getMaximumPoolSize()) {
+					executor.setMaximumPoolSize(limit);
+					executor.setCorePoolSize(limit);
+				} else {
+					executor.setCorePoolSize(limit);
+					executor.setMaximumPoolSize(limit);
+				}
+			} finally {
+				executorThreadPoolAdjusterLock.unlock();
+			}
+		}
 	}
 
 	private void resetExecutorThreadPoolQueueSizeThresholds() {
@@ -261,13 +1627,35 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 
 	@Override
 	public boolean isStoreAvailable() {
-		final boolean result = target.isStoreAvailable();
+		// cached: while the circuit is open the manager keeps to the sessions in memory instead of waiting on the store
+		final boolean result = (circuitBreaker == null || circuitBreaker.isClosed()) && target.isStoreAvailable();
 		return result;
 	}
 
 	@Override
 	public StandardSession load(final String id) throws ClassNotFoundException, IOException {
-		final StandardSession result = target.load(id);
+		// unknown or forged ids, stale cookies: answered here, even while the circuit is open
+		if (isKnownAbsent(id) || pendingRemovals.contains(id))
+			return null;
+		checkCircuit();
+		StandardSession result = takePrefetched(id);
+		if (result != null)
+			return result;
+		result = takePassivated(id);
+		if (result != null)
+			return result;
+		try {
+			result = target.load(id);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			throw e;
+		}
+		recordStoreSuccess();
+		if (result != null) {
+			recordLoadedFrom(result);
+		} else {
+			recordAbsent(id);
+		}
 		return result;
 	}
 
@@ -291,46 +1679,114 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 
 	@Override
 	public void remove(final String id) throws IOException {
-		target.remove(id);
+		pendingTouches.remove(id);
+		prefetched.remove(id);
+		pendingAdoptions.remove(id);
+		final SessionSwapFile swap = swapFile;
+		if (swap != null)
+			swap.remove(id);
+		takeDeadLetter(id);
+		final DebouncedSave pending = pendingSaves.remove(id);
+		if (pending != null) {
+			synchronized (pending) {
+				pending.done = true;
+			}
+		}
+		if (circuitBreaker != null && !circuitBreaker.isClosed()) {
+			deferRemoval(id);
+			return;
+		}
+		try {
+			target.remove(id);
+		} catch (final IOException e) {
+			recordStoreFailure(e);
+			if (circuitBreaker == null || !StoreCircuitBreaker.isStoreFailure(e))
+				throw e;
+			deferRemoval(id);
+			return;
+		}
+		recordStoreSuccess();
+		pendingRemovals.remove(id);
 		sessionCache().remove(id);
+		// a stale cookie of the removed session should not reach the store again
+		recordAbsent(id);
 		log.info("remove(): Removed the session from Session Cache: " + id);
 	}
 
+	/**
+	 * The store is down: remove the session once it answers again, the row would otherwise bring a logged out session
+	 * back with the next request carrying its cookie.
+	 */
+	private void deferRemoval(final String id) {
+		pendingRemovals.add(id);
+		sessionCache().remove(id);
+		mBean.totalDeferredRemovals.incrementAndGet();
+		log.info("remove(): Store unavailable, session " + id + " is removed from the store once it is back");
+	}
+
 	@Override
 	public void clear() throws IOException {
+		final SessionSwapFile swap = swapFile;
+		if (swap != null)
+			swap.clear();
 		target.clear();
 	}
 
-	@Override
-	public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
-		if (r instanceof SessionPersistenceRunnable) {
-			final SessionPersistenceRunnable spr = (SessionPersistenceRunnable) r;
-			final String sessionID = spr.getSessionId();
-
-			// reset the status back to not QUEUED
-			//final StandardSession session = spr.getSession();
-			//final SessionSerializationData ssd = getSessionSerializationDataForSession(session);
-			final SessionSerializationData ssd = spr.getSessionSerializationData();
+	/**
+	 * The lane of the session is full: forget the snapshot, the session will likely be hit again and saved later.
+	 */
+	protected void rejectedSessionPersistence(final SessionSerializationData ssd) {
+		final String sessionID = ssd.getId();
+
+		// reset the status back to not QUEUED
+		try {
+			ssd.tryLock(100, TimeUnit.MILLISECONDS);
 			try {
-				ssd.tryLock(100, TimeUnit.MILLISECONDS);
-				try {
-					ssd.setPersistenceQueueState(null);
-				} finally {
-					ssd.unlock();
-				}
-			} catch (final CouldNotObtainLockException e) {
-				// session is being handled by some other thread, so let it go
-			} catch (final InterruptedException e) {
-				// this is not expected, so let's log it and move on
-				log.severe("Unexpected InterruptedException while trying to restore session state to null for session " + sessionID);
+				ssd.setPersistenceQueueState(null);
+			} finally {
+				ssd.unlock();
 			}
+		} catch (final CouldNotObtainLockException e) {
+			// session is being handled by some other thread, so let it go
+		} catch (final InterruptedException e) {
+			// this is not expected, so let's log it and move on
+			log.severe("Unexpected InterruptedException while trying to restore session state to null for session " + sessionID);
+		}
 
-			// if we're here it is because we were unable to queue a job - the executor queue is full
-			// forget the job/skip it, consider it a casualty of scalability; the session will likely be hit again and saved later
-			log.severe("Could not queue asynchronous save event - queue was full; session data not persisted for session " + sessionID);
-		} else {
-			//log.severe("Unexpected runnable type rejected from queue: " + r.getClass());
-			log.severe("Unexpected runnable type rejected from queue: ");
+		// if we're here it is because we were unable to queue a job - the lane queue is full
+		// forget the job/skip it, consider it a casualty of scalability; the session will likely be hit again and saved later
+		log.severe("Could not queue asynchronous save event - queue was full; session data not persisted for session " + sessionID);
+	}
+
+	/**
+	 * A session fetched ahead of its first request, with the baseline cached for it.
+	 */
+	private static final class PrefetchedSession {
+		private final StandardSession session;
+		private final SessionSerializationData ssd;
+		private final long time;
+
+		PrefetchedSession(final StandardSession session, final SessionSerializationData ssd, final long time) {
+			this.session = session;
+			this.ssd = ssd;
+			this.time = time;
+		}
+	}
+
+	/**
+	 * A save held back by the minimum persist interval.
+	 */
+	private static final class DebouncedSave {
+		private final long firstChange;
+		// guarded by this
+		private SessionSerializationData ssd;
+		private long due;
+		private boolean done;
+
+		DebouncedSave(final SessionSerializationData ssd, final long firstChange) {
+			this.ssd = ssd;
+			this.firstChange = firstChange;
+			this.due = firstChange;
 		}
 	}
 
@@ -347,39 +1803,49 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 
 	}
 
-	private class SessionPersistenceRunnable implements Runnable {
-		private final SessionSerializationData ssd;
-		private final long timeQueued;
-
-		public SessionPersistenceRunnable(final SessionSerializationData ssd) {
-			super();
-			this.ssd = ssd;
-			this.timeQueued = System.currentTimeMillis();
+	/**
+	 * Store a snapshot taken off its lane (on a worker thread); a failure is retried by the lane.
+	 */
+	protected void persistQueuedSession(final SessionSerializationData ssd, final long timeQueued) throws IOException {
+		recordQueueTime(timeQueued);
+		recordQueueSize();
+
+		final String sessionID = ssd.getId();
+		// the lane stores the saves of a session in order, so changes given up on earlier are older than this save
+		final SessionSerializationData deadLetter = takeDeadLetter(sessionID);
+		if (deadLetter != null)
+			ssd.mergeFrom(deadLetter);
+		try {
+			log.info("Starting asynchronous flush of session " + sessionID);
+			flush(ssd);
+		} catch (final IOException e) {
+			log.severe("Could not complete asynchronous session persist for sessionID " + sessionID + ": " + e.getMessage());
+			throw e;
+		} finally {
+			log.info("Async persistence event for session " + sessionID + " completed, queue.size() == " + getExecutorQueueSize());
 		}
+		// every save of the old id queued before the change is stored now
+		final SessionIdChange change = ssd.getIdChange();
+		if (change != null)
+			changeStoredSessionId(change);
+	}
 
-		@Override
-		public void run() {
-			recordQueueTime(timeQueued);
-
-			final String sessionID = ssd.getId();
-			try {
-				log.info("Starting asynchronous flush of session " + sessionID);
-				flush(ssd);
-			} catch (final IOException e) {
-				log.severe("Could not complete asynchronous session persist for sessionID " + sessionID);
-			} finally {
-				if ( persistenceExecutorQueue != null)
-					log.info("Async persistence event for session " + sessionID + " completed, queue.size() == " + persistenceExecutorQueue.size());
+	/**
+	 * Move the stored session to its new id, or, if the change was given up on, remove what is stored under the old id.
+	 */
+	private void changeStoredSessionId(final SessionIdChange change) {
+		boolean moved = false;
+		try {
+			if (change.start()) {
+				moved = target.rekeySession(change.getOldId(), change.getNewId());
+			} else {
+				// the session is saved in full under its new id, the rows of the old id are garbage
+				target.remove(change.getOldId());
 			}
-		}
-
-		public String getSessionId() {
-			final String result = ssd.getId();
-			return result;
-		}
-
-		public SessionSerializationData getSessionSerializationData() {
-			return ssd;
+		} catch (final IOException e) {
+			log.severe("Could not move session " + change.getOldId() + " to its new id: " + e.getMessage());
+		} finally {
+			change.finish(moved);
 		}
 	}
 
@@ -411,8 +1877,12 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 
 
 	public void setExecutorMaxPoolSize(final int maxPoolSize) {
-		if (persistenceExecutor != null)
+		if (concurrencyLimit != null) {
+			// the ceiling of the adaptive limit, the pool follows the limit
+			concurrencyLimit.setMaxLimit(maxPoolSize);
+		} else if (persistenceExecutor != null) {
 			persistenceExecutor.setMaximumPoolSize(maxPoolSize);
+		}
 		resetExecutorThreadPoolQueueSizeThresholds();
 	}
 
@@ -439,14 +1909,27 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 
 
 	public int getExecutorQueueSize() {
-		final int result = persistenceExecutorQueue == null ? 0 : persistenceExecutorQueue.size();
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		final int result = lanes == null ? 0 : lanes.getQueueSize();
 		return result;
 	}
 
+	public PartitionedPersistenceExecutor getPersistenceLanes() {
+		return persistenceLanes;
+	}
+
 	public int getCacheSize() {
 		return sessionCache().getSize();
 	}
 
+	public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	public int getInflightSaves() {
+		return inflightSaves.get();
+	}
+
 	public void setExecutorThreadPoolQueuePercentageSizeThresholds(final String commaDelimitedList) {
 		final int[] values = FoundationUtil.getIntArrayFromCommaDelimitedString(commaDelimitedList);
 		setExecutorThreadPoolQueuePercentageSizeThresholds(values);
@@ -454,8 +1937,11 @@ public class AsyncFoundationSessionStoreWrapper extends BaseFoundationSessionSto
 
 
 	public void resetExecutor() {
+		final PartitionedPersistenceExecutor lanes = persistenceLanes;
+		if (lanes != null)
+			lanes.resetCounters();
 		final ThreadPoolExecutor executor = persistenceExecutor;
-		if (executor != null) {
+		if (executor != null && concurrencyLimit == null) {
 			// attempt to prune off non-core threads
 			executor.setMaximumPoolSize(mBean.corePoolSize);
 			executor.setMaximumPoolSize(mBean.maxPoolSize);
@@ -1,7 +1,14 @@
 package org.apache.catalina.session;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.io.BufferedOutputStream;
@@ -12,16 +19,17 @@ import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 
 import javax.servlet.http.HttpSessionActivationListener;
+import javax.servlet.http.HttpSessionEvent;
 
 import org.apache.catalina.Container;
 import org.apache.catalina.Session;
 import org.apache.catalina.connector.Request;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.session.SessionSerializationData.CouldNotObtainLockException;
-import org.apache.catalina.session.ReflectionUtils;
 import org.apache.catalina.session.StandardSession;
 import org.apache.catalina.session.StoreBase;
 import org.apache.catalina.util.CustomObjectInputStream;
+import org.apache.tomcat.util.ExceptionUtils;
 
 import java.util.logging.Logger;
 
@@ -37,6 +45,17 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 
 	private static final String SESSION_SERIALIZATION_DATA_KEY = "SessionSerializationData";
 
+	/** note on a loaded session naming the node that stored it last, or null if unknown */
+	public static final String LOADED_FROM_NODE_NOTE = "FoundationSessionLoadedFromNode";
+
+	// whether instances of an attribute class need passivating, so that sessions without such attributes cost one lookup per attribute
+	private static final ClassValue<Boolean> isActivationListenerType = new ClassValue<Boolean>() {
+		@Override
+		protected Boolean computeValue(final Class<?> type) {
+			return Boolean.valueOf(HttpSessionActivationListener.class.isAssignableFrom(type));
+		}
+	};
+
 	private final String nodeID;
 
 	protected SessionCache sessionCache;
@@ -107,20 +126,32 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 		sessionCache().put(session.getId(), ssd);
 	}
 
+	/**
+	 * Cache the baseline of a session fetched ahead of time, unless a baseline is cached already (the session was
+	 * loaded meanwhile, and that one is in use).
+	 *
+	 * @return true if cached
+	 */
+	protected boolean cacheSessionSerializationDataIfAbsent(final StandardSession session, final SessionSerializationData ssd) {
+		ssd.setLastAccessTime(session.getThisAccessedTimeInternal());
+		ssd.wipeAttributeData();
+		return sessionCache().putIfAbsent(session.getId(), ssd) == null;
+	}
+
 
 	protected StandardSession createSessionFromData(final String id, final byte[] data) throws IOException {
 		if (data == null) {
 			return null;
 		}
 
-		final StandardSession result = (StandardSession) manager.createEmptySession();
+		final FoundationSession result = (FoundationSession) manager.createEmptySession();
 		result.setNew(false);
 		result.setValid(true);
 		result.setCreationTime(System.currentTimeMillis());
 		result.setMaxInactiveInterval(manager.getMaxInactiveInterval());
 		/* -- result.setId(c);*/
-		//set id add this session to the sessions cache !
-		ReflectionUtils.setFieldValue(StandardSession.class, result, "id", id);
+		//set the id without adding this session to the sessions cache !
+		result.setIdInternal(id);
 
 		try {
 			ClassLoader loader = Thread.currentThread().getContextClassLoader();
@@ -178,21 +209,9 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 		final StandardSession actualSession = (StandardSession) session; // keep a reference to the original session since the notes won't survive the cloning process, and we need the notes
 		StandardSession currentSession = actualSession;
 		if (hasHttpSessionActivationListener(currentSession)) { // give the HttpActivationListener a chance to mutate the copy of the session before persisting
-			try {
-				final byte[] data = serializeFrom(currentSession);
-				final StandardSession sessionClone = createSessionFromData(sessionID, data);
-				currentSession = sessionClone;
-			} catch (final Exception e) {
-			  //TODO we need handle Session passivate 
-			  //here need take some actions to desrialize the data
-		      //log.error("Problem cloning session: " + sessionID, e);
-			}
-			currentSession.passivate();
+			currentSession = createPassivatedCopy(actualSession);
 		}
-	    //need to use reflection because the package is v2 now and the attributes is protected in StandardSession
-		//todo after v2 is stable after a release or so,m we'll remove v1 and move v2 to the  org.apache.catalina.session package.
-		//then such reflection will no lonber be needed.
-		Map<String, Object> attributes = ReflectionUtils.getSessionAttributes(currentSession);
+		Map<String, Object> attributes = FoundationSession.attributesOf(currentSession);
 		if (attributes.isEmpty()) { // if there are no attributes, then there is nothing to save
 			return;
 		}
@@ -213,8 +232,16 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 				final String nodeID = getNodeID();
 				final String webApp = getWebapp();
 
+				// keys set or removed since the last capture (taken under the lock so that no capture misses them), null if untracked
+				final Set<String> drainedKeys = actualSession instanceof FoundationSession && manager instanceof FoundationSessionManager
+						&& ((FoundationSessionManager) manager).isSessionAttributeWriteTrackingEnabled()
+						? ((FoundationSession) actualSession).drainWrittenKeys() : null;
+				// outside a request (unload, eviction) nothing comes after this capture to pick up attributes mutated in
+				// place on read-only requests, so it examines them all
+				final Set<String> writtenKeys = request == null ? null : drainedKeys;
+
 				//capture the deltas between ssdLastSnapshot attributes and the  currentSession attributes.
-				ssdLastSnapshot.captureSessionData(currentSession, request, nodeID, webApp);
+				ssdLastSnapshot.captureSessionData(currentSession, request, nodeID, webApp, writtenKeys);
 
 				//save the snapshot to cache
 				//don't need to actually attr data within to save memory.
@@ -234,6 +261,9 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 					} catch (ClassNotFoundException e) {
 						throw new RuntimeException("cloneSessionSerializationData() failed for sessionId="+ sessionID, e);
 					}
+					// whether the user changed is only known to the baseline
+					cloneSSD.setPersistencePriority(ssdLastSnapshot.getPersistencePriority());
+					cloneSSD.setCaptureSequence(ssdLastSnapshot.getCaptureSequence());
 					//handleDirtySession
 					sendChangedSessionDataToPersist(actualSession, cloneSSD);
 					//if (log.isDebugEnabled()) {
@@ -245,6 +275,11 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 					//}
 
 				}
+				else if (ssdLastSnapshot.isTouched()) {
+					// only the access times moved (beyond the skew), no need for a full header and attribute save
+					sendTouchedSessionToPersist(sessionID, ssdLastSnapshot.getHeader());
+					log.info("\tSSD is not dirty. session access time update sent for this request.");
+				}
 				else {
 					log.info("\tSSD is not dirty. session not changed for this request.");
 				}
@@ -280,6 +315,23 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 
 	protected abstract void sendChangedSessionDataToPersist(final StandardSession session, final SessionSerializationData ssd) throws IOException;
 
+	/**
+	 * Hand off a session whose only change is its access times. By default the times are written right away.
+	 *
+	 * @param sessionId id of the touched session
+	 * @param header header holding the new access times; headers are replaced, never mutated, once captured
+	 */
+	protected void sendTouchedSessionToPersist(final String sessionId, final SessionSerializationHeaderData header) throws IOException {
+		persistSessionTouches(Collections.singletonMap(sessionId, header));
+	}
+
+	/**
+	 * Write the access times (last accessed, this accessed, expiration, request count) of the given sessions.
+	 *
+	 * @param touches header holding the access times to write, per session id
+	 */
+	protected abstract void persistSessionTouches(final Map<String, SessionSerializationHeaderData> touches) throws IOException;
+
 	@Override
 	public void flush(final String  sessionId) throws IOException {
 		SessionSerializationData ssd = getSessionSerializationDataForSession(sessionId);
@@ -287,7 +339,77 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 	}
 
 
-		@Override
+	@Override
+	public Set<String> flush(final Collection<String> sessionIds) {
+		final Set<String> result = new HashSet<String>();
+		for (final String sessionId : sessionIds) {
+			try {
+				flush(sessionId);
+				result.add(sessionId);
+			} catch (final IOException | RuntimeException e) {
+				log.severe("Unable to save session: " + sessionId + ": " + e.getMessage());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Drop the baseline of the session, it is loaded with the session again.
+	 */
+	@Override
+	public void evict(final String sessionId) {
+		sessionCache().remove(sessionId);
+	}
+
+	/**
+	 * Evicted sessions are loaded from the store again, unless overridden.
+	 */
+	@Override
+	public boolean passivate(final StandardSession session) {
+		return false;
+	}
+
+	/**
+	 * Store what is pending for the old id, then have the store move the session; a store that cannot is left with a
+	 * full save of the session under its new id.
+	 */
+	@Override
+	public void changeSessionId(final String oldId, final String newId) throws IOException {
+		flush(sessionCache().get(oldId));
+		if (rekeySession(oldId, newId)) {
+			moveSessionSerializationData(oldId, newId);
+		} else {
+			sessionCache().remove(oldId);
+			remove(oldId);
+		}
+	}
+
+	/**
+	 * Move the stored session to its new id; by default the store cannot.
+	 *
+	 * @return true if the store held the session and moved it
+	 */
+	protected boolean rekeySession(final String oldId, final String newId) throws IOException {
+		return false;
+	}
+
+	/**
+	 * Cache the baseline of a session that was moved to its new id under the new id.
+	 */
+	protected void moveSessionSerializationData(final String oldId, final String newId) {
+		final SessionSerializationData ssd = sessionCache().get(oldId);
+		if (ssd != null && sessionCache().remove(oldId, ssd)) {
+			ssd.lock();
+			try {
+				ssd.changeId(newId);
+			} finally {
+				ssd.unlock();
+			}
+			sessionCache().put(newId, ssd);
+		}
+	}
+
+	@Override
 	public void flush( final SessionSerializationData ssd) throws IOException {
 
 		if (ssd == null) { // no session, nothing to save
@@ -314,21 +436,35 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 		final String session_id = ssd.getId();
 
 		try {
-			if (ssd.tryLockIfDirty(100, TimeUnit.MILLISECONDS)) {
+			// do not wait for a busy snapshot: concurrent writers are fenced by the session version in the store
+			if (ssd.tryLockIfDirty(0, TimeUnit.MILLISECONDS)) {
 				// set the persistence queue state to PERSISTING
 				ssd.setPersistenceQueueState(PersistenceQueueState.STORING);
 
+				IOException failure = null;
 				try {
 					persistSession(ssd);
-				} catch (Exception e) {
-				  //log.error(e);
+				} catch (final IOException e) {
+					failure = e;
+				} catch (final RuntimeException e) {
+					failure = new IOException("Could not save session " + session_id, e);
 				}
 				finally {
 					// set the persistence queue state to CLEAN
 					ssd.setPersistenceQueueState(PersistenceQueueState.STORED);
+					if (failure != null) {
+						// still dirty: queued again, for a retry or the next save of the session
+						ssd.setPersistenceQueueState(PersistenceQueueState.NONE);
+						ssd.setPersistenceQueueState(PersistenceQueueState.QUEUED);
+					}
 
 					ssd.unlock();
 				}
+				if (failure != null)
+					throw failure;
+				final SessionSerializationData baseline = sessionCache().get(session_id);
+				if (baseline != null && baseline != ssd)
+					baseline.markStored(ssd.getCaptureSequence());
 			}
 		} catch (final InterruptedException e) {
 			throw new IOException("Could not save session " + session_id, e);
@@ -342,11 +478,93 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 			//log.warn("[flush]Unable to save session data for persistence for session " + session_id
 			//		+ " due to lock contention on the session serialization data token\nThread " + owner + " holds the lock.  Thread stack trace:\n"
 			//		+ stackTrace);
+			// not saved: the caller keeps the session (and its changes) rather than take it for stored
+			throw new IOException("Could not save session " + session_id + " due to lock contention, thread " + owner + " holds the lock", e);
 		}
 	}
 
 	protected abstract void persistSession(final SessionSerializationData ssd) throws IOException;
 
+	/**
+	 * Check that the store answers, for the health probe; by default the store is assumed to be there.
+	 *
+	 * @throws IOException if the store cannot be reached
+	 */
+	protected void probeStore() throws IOException {
+	}
+
+	/**
+	 * Ids of the most recently accessed live sessions another node stored last, for warming up after it left; by default
+	 * the store cannot tell.
+	 */
+	protected List<String> findRecentSessionIds(final String nodeID, final int limit) throws IOException {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * Load several sessions ahead of their first request; sessions whose baseline is cached already are left out. By
+	 * default one by one.
+	 *
+	 * @return the sessions loaded, by id
+	 */
+	protected Map<String, StandardSession> loadSessions(final Collection<String> ids) throws IOException {
+		final Map<String, StandardSession> result = new LinkedHashMap<String, StandardSession>();
+		for (final String id : ids) {
+			if (sessionCache().get(id) != null)
+				continue;
+			try {
+				final StandardSession session = load(id);
+				if (session != null)
+					result.put(id, session);
+			} catch (final ClassNotFoundException e) {
+				throw new IOException("Problem loading session with id: " + id, e);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return the version the store holds for the session, 0 if it holds none, -1 if the store cannot tell
+	 */
+	protected long getStoredVersion(final String id) throws IOException {
+		return -1;
+	}
+
+	/**
+	 * Ids of the sessions of this webapp on any node that were accessed (saved or touched) at or after the given time, 0
+	 * for all of them; by default the store cannot tell.
+	 *
+	 * @return the ids, or null if the store cannot list them
+	 */
+	protected List<String> findSessionIdsAccessedSince(final long time) throws IOException {
+		return null;
+	}
+
+	/**
+	 * Make this node the owner of sessions it restored from other nodes, so that its per node queries (expiry, size,
+	 * keys) cover them; by default ownership follows the next full save.
+	 *
+	 * @return the number of sessions that changed owner
+	 */
+	protected int adoptSessions(final Collection<String> ids) throws IOException {
+		return 0;
+	}
+
+	/**
+	 * Tell the other nodes this node is alive; by default nodes do not heartbeat.
+	 */
+	protected void heartbeat() throws IOException {
+	}
+
+	/**
+	 * Take over the sessions of nodes that stopped heartbeating for the given time, so that they are expired here.
+	 *
+	 * @return the number of sessions taken over
+	 */
+	protected int adoptOrphanedSessions(final long heartbeatTimeoutMs) throws IOException {
+		return 0;
+	}
+
 	protected String getNodeID() {
 		return nodeID;
 	}
@@ -392,12 +610,8 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 
 	protected boolean hasHttpSessionActivationListener(final StandardSession session) {
 		boolean result = false;
-		//session.keys();
-		String[] keys = (String[]) ReflectionUtils.invokeMethod(session, "keys");
-		Map<String, Object> attributes = (Map<String, Object>) ReflectionUtils.getFieldValue(StandardSession.class, session, "attributes");
-		for (int i = 0; i < keys.length; i++) {
-			final Object attribute = attributes.get(keys[i]);
-			if (attribute instanceof HttpSessionActivationListener) {
+		for (final Object attribute : FoundationSession.attributesOf(session).values()) {
+			if (attribute != null && isActivationListenerType.get(attribute.getClass())) {
 				result = true;
 				break;
 			}
@@ -406,6 +620,58 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 		return result;
 	}
 
+	/**
+	 * Copy of the session for capturing its changes with its HttpSessionActivationListener attributes passivated.
+	 * <p/>
+	 * Only the listener attributes are cloned (and told that the session will passivate); every other attribute is
+	 * shared with the live session, as the capture only serializes it.
+	 */
+	protected StandardSession createPassivatedCopy(final StandardSession session) {
+		final FoundationSession result = (FoundationSession) manager.createEmptySession();
+		result.setIdInternal(session.getIdInternal());
+		result.setCreationTime(session.getCreationTime());
+		result.setLastAccessedTimeInternal(session.getLastAccessedTimeInternal());
+		result.setThisAccessedTimeInternal(session.getThisAccessedTimeInternal());
+		result.setMaxInactiveInterval(session.getMaxInactiveInterval());
+		result.setNew(session.isNew());
+		result.setValid(true);
+		final Object requestCount = session.getNote("request_count");
+		if (requestCount != null)
+			result.setNote("request_count", requestCount);
+
+		final Map<String, Object> attributes = result.getAttributeMap();
+		final List<HttpSessionActivationListener> listeners = new ArrayList<HttpSessionActivationListener>();
+		for (final Map.Entry<String, Object> entry : FoundationSession.attributesOf(session).entrySet()) {
+			final Object value = entry.getValue();
+			if (value != null && isActivationListenerType.get(value.getClass())) {
+				try {
+					final Object clone = SerializationUtils.clone(value, manager);
+					attributes.put(entry.getKey(), clone);
+					listeners.add((HttpSessionActivationListener) clone);
+				} catch (final RuntimeException e) {
+					// not serializable, the capture will skip it anyway; never passivate the live attribute
+					//log.error("Problem cloning session attribute: " + entry.getKey(), e);
+					attributes.put(entry.getKey(), value);
+				}
+			} else {
+				attributes.put(entry.getKey(), value);
+			}
+		}
+
+		HttpSessionEvent event = null;
+		for (final HttpSessionActivationListener listener : listeners) {
+			if (event == null)
+				event = new HttpSessionEvent(result.getSession());
+			try {
+				listener.sessionWillPassivate(event);
+			} catch (final Throwable t) {
+				ExceptionUtils.handleThrowable(t);
+				//log.error("Problem passivating session attribute", t);
+			}
+		}
+		return result;
+	}
+
 	protected int getSystemPropertyIntValue(final String propertyName, final int defaultValue) {
 		int result = defaultValue;
 		final String key = this.getClass().getSimpleName() + "." + propertyName;
@@ -438,6 +704,13 @@ public abstract class BaseFoundationSessionStore extends StoreBase implements Fo
 		return result;
 	}
 
+	protected String getSystemPropertyStringValue(final String propertyName, final String defaultValue) {
+		final String key = this.getClass().getSimpleName() + "." + propertyName;
+		final String propertyValue = System.getProperty(key);
+		final String result = propertyValue != null && propertyValue.length() > 0 ? propertyValue : defaultValue;
+		return result;
+	}
+
 	protected int[] getSystemPropertyIntArrayValue(final String propertyName, final int[] defaultValues) {
 		int[] result = defaultValues;
 		final String key = this.getClass().getSimpleName() + "." + propertyName;
@@ -0,0 +1,135 @@
+package org.apache.catalina.session;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Description: compact binary diff between two versions of a serialized session attribute.
+ * <p/>
+ * Java serialization of a slowly changing object graph mostly produces the same bytes with a few values replaced, or
+ * with a single region grown or shrunk, so the diff is computed as the common prefix/suffix plus either a list of
+ * replaced runs (same length) or one replaced region (different length).
+ * <p/>
+ * Format: target length, op count, then per op: offset in the base, number of base bytes replaced, replacement bytes.
+ *
+ * @author jim631@sina.com
+ */
+public final class BinaryDelta {
+
+	// equal runs shorter than this between two changed runs are folded into one op, it is cheaper than an op header
+	private static final int MERGE_GAP = 12;
+
+	private BinaryDelta() {
+		super();
+	}
+
+	/**
+	 * Compute the delta that turns base into target.
+	 */
+	public static byte[] diff(final byte[] base, final byte[] target) throws IOException {
+		final int baseLength = base.length;
+		final int targetLength = target.length;
+		final int maxCommon = Math.min(baseLength, targetLength);
+
+		int prefix = 0;
+		while (prefix < maxCommon && base[prefix] == target[prefix])
+			prefix++;
+		int suffix = 0;
+		while (suffix < maxCommon - prefix && base[baseLength - 1 - suffix] == target[targetLength - 1 - suffix])
+			suffix++;
+
+		final int baseEnd = baseLength - suffix;
+		final int targetEnd = targetLength - suffix;
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		final DataOutputStream ops = new DataOutputStream(bos);
+		int opCount = 0;
+		if (prefix < baseEnd || prefix < targetEnd) {
+			if (baseEnd - prefix == targetEnd - prefix) {
+				// same length in the middle, emit only the runs that actually differ
+				int i = prefix;
+				while (i < baseEnd) {
+					if (base[i] == target[i]) {
+						i++;
+						continue;
+					}
+					final int start = i;
+					int end = i + 1;
+					int equalRun = 0;
+					for (int j = end; j < baseEnd && equalRun < MERGE_GAP; j++) {
+						if (base[j] == target[j]) {
+							equalRun++;
+						} else {
+							equalRun = 0;
+							end = j + 1;
+						}
+					}
+					writeOp(ops, start, end - start, target, start, end - start);
+					opCount++;
+					i = end;
+				}
+			} else {
+				writeOp(ops, prefix, baseEnd - prefix, target, prefix, targetEnd - prefix);
+				opCount++;
+			}
+		}
+		ops.flush();
+
+		final ByteArrayOutputStream result = new ByteArrayOutputStream(bos.size() + 8);
+		final DataOutputStream out = new DataOutputStream(result);
+		out.writeInt(targetLength);
+		out.writeInt(opCount);
+		bos.writeTo(out);
+		out.flush();
+		return result.toByteArray();
+	}
+
+	private static void writeOp(final DataOutputStream ops, final int offset, final int replacedLength, final byte[] target, final int targetOffset,
+			final int insertLength) throws IOException {
+		ops.writeInt(offset);
+		ops.writeInt(replacedLength);
+		ops.writeInt(insertLength);
+		ops.write(target, targetOffset, insertLength);
+	}
+
+	/**
+	 * Apply a delta produced by {@link #diff(byte[], byte[])} to the base it was computed against.
+	 *
+	 * @throws java.io.IOException if the delta is malformed or does not fit the base
+	 */
+	public static byte[] apply(final byte[] base, final byte[] delta) throws IOException {
+		final DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+		final int targetLength = in.readInt();
+		final int opCount = in.readInt();
+		if (targetLength < 0 || opCount < 0)
+			throw new IOException("Malformed delta");
+		final byte[] result = new byte[targetLength];
+		int basePosition = 0;
+		int resultPosition = 0;
+		try {
+			for (int i = 0; i < opCount; i++) {
+				final int offset = in.readInt();
+				final int replacedLength = in.readInt();
+				final int insertLength = in.readInt();
+				if (offset < basePosition || replacedLength < 0 || offset + replacedLength > base.length)
+					throw new IOException("Delta does not match its base");
+				final int copyLength = offset - basePosition;
+				System.arraycopy(base, basePosition, result, resultPosition, copyLength);
+				resultPosition += copyLength;
+				in.readFully(result, resultPosition, insertLength);
+				resultPosition += insertLength;
+				basePosition = offset + replacedLength;
+			}
+			System.arraycopy(base, basePosition, result, resultPosition, base.length - basePosition);
+			resultPosition += base.length - basePosition;
+		} catch (final IndexOutOfBoundsException e) {
+			throw new IOException("Delta does not match its base", e);
+		}
+		if (resultPosition != targetLength)
+			throw new IOException("Delta does not match its base: expected " + targetLength + " bytes but produced " + resultPosition);
+		return result;
+	}
+}
@@ -1,18 +1,24 @@
 package org.apache.catalina.session;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -46,6 +52,44 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 		return INFO;
 	}
 
+	// optional delta encoding of large, slowly changing attributes (threshold <= 0 disables it)
+	private final int deltaEncodingThreshold = getSystemPropertyIntValue("deltaEncodingThreshold", 0);
+	// number of deltas stacked on a full image before the next write rebases
+	private final int deltaMaxChainLength = getSystemPropertyIntValue("deltaMaxChainLength", 8);
+	// a delta bigger than this percentage of the full image is not worth a chain link, the full image is written instead
+	private final int deltaMaxSizePercent = getSystemPropertyIntValue("deltaMaxSizePercent", 30);
+	// images this node last persisted, bounded; a miss only costs a rebase
+	private final DeltaBaseCache deltaBases = new DeltaBaseCache(getSystemPropertyLongValue("deltaBaseCacheMaxBytes", 64L * 1024 * 1024));
+
+	// statistics, exposed through FoundationSessionStoreMonitoring
+	private static final AtomicLong deltaWriteCount = new AtomicLong();
+	private static final AtomicLong deltaRebaseCount = new AtomicLong();
+	private static final AtomicLong deltaBytesSaved = new AtomicLong();
+	private static final AtomicLong staleWriteCount = new AtomicLong();
+
+	public static long getDeltaWriteCount() {
+		return deltaWriteCount.get();
+	}
+
+	public static long getDeltaRebaseCount() {
+		return deltaRebaseCount.get();
+	}
+
+	public static long getDeltaBytesSaved() {
+		return deltaBytesSaved.get();
+	}
+
+	public static long getStaleWriteCount() {
+		return staleWriteCount.get();
+	}
+
+	public static void resetCounters() {
+		deltaWriteCount.set(0);
+		deltaRebaseCount.set(0);
+		deltaBytesSaved.set(0);
+		staleWriteCount.set(0);
+	}
+
 	private static final String countSessionSQL = //
 	"SELECT count(node_id) session_count" //
 			+ " FROM ps_foundation_session s" //
@@ -135,78 +179,168 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 		return result;
 	}
 
-	private static final String loadSessionSQL = //
-	"SELECT s.session_id, s.creation_time, s.last_accessed_time, s.max_inactive_interval, s.is_new, s.is_valid, s.this_accessed_time, s.request_count, a.attr_key, a.update_count, a.data_length, a.data_checksum, a.data_type, a.data" //
+	private static final String loadSessionColumnsSQL = //
+	"SELECT s.session_id, s.creation_time, s.last_accessed_time, s.max_inactive_interval, s.is_new, s.is_valid, s.this_accessed_time, s.request_count, s.version, s.node_id, a.attr_key, a.update_count, a.data_length, a.data_checksum, a.data_type, a.data, a.data_codec, a.delta_count" //
 			+ " FROM ps_foundation_session s, ps_foundation_session_attr a" //
-			+ " WHERE s.session_id = ?" //
-			+ " AND s.session_id = a.session_id" //
+			+ " WHERE s.session_id = a.session_id" //
+	;
+
+	private static final String loadSessionSQL = //
+	loadSessionColumnsSQL //
+			+ " AND s.session_id = ?" //
 	;
 
+	/**
+	 * @return statement loading the given number of sessions at once, rows of a session adjacent
+	 */
+	private static String loadSessionsSQL(final int count) {
+		final StringBuilder sb = new StringBuilder(loadSessionColumnsSQL).append(" AND s.session_id IN (");
+		for (int i = 0; i < count; i++) {
+			sb.append(i == 0 ? "?" : ", ?");
+		}
+		return sb.append(") ORDER BY s.session_id").toString();
+	}
+
 	@Override
 	public StandardSession load(final String id) throws ClassNotFoundException, IOException {
 		//if (log.isInfoEnabled())
 			log.info("Loading session: " + id);
 
-		final HashMap<String, SessionAttributeRecord> attributes = new HashMap<String, SessionAttributeRecord>();
 		Connection conn = null;
 		PreparedStatement ps = null;
-		ResultSet rs = null;
 		StandardSession result = null;
 		try {
 			conn = getConnection();
 			ps = conn.prepareStatement(loadSessionSQL);
 			ps.setString(1, id);
+			final LoadingSession loading = readSessions(ps).get(id);
+			ps.close();
+			ps = null;
+
+			if (loading != null)
+				result = completeLoad(conn, loading, false);
+
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem loading session with id: " + id;
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, null);
+		}
+		//if (log.isInfoEnabled()) {
+			if (result == null) {
+				log.info("Session not loaded - does not exist in store: " + id);
+			} else {
+				log.info("Loaded session: " + id);
+			}
+		//}
+		return result;
+	}
+
+	@Override
+	protected Map<String, StandardSession> loadSessions(final Collection<String> ids) throws IOException {
+		final Map<String, StandardSession> result = new LinkedHashMap<String, StandardSession>();
+		if (ids.isEmpty())
+			return result;
+		Connection conn = null;
+		PreparedStatement ps = null;
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(loadSessionsSQL(ids.size()));
+			int i = 1;
+			for (final String id : ids) {
+				ps.setString(i++, id);
+			}
+			final Map<String, LoadingSession> loaded = readSessions(ps);
+			ps.close();
+			ps = null;
+
+			for (final LoadingSession loading : loaded.values()) {
+				final StandardSession session = completeLoad(conn, loading, true);
+				if (session != null)
+					result.put(loading.id, session);
+			}
+
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem loading " + ids.size() + " sessions";
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, null);
+		}
+		log.info("Loaded " + result.size() + " of " + ids.size() + " sessions");
+		return result;
+	}
+
+	/**
+	 * Session being read from its header and attribute rows.
+	 */
+	private static final class LoadingSession {
+		final String id;
+		final FoundationSession session;
+		final HashMap<String, SessionAttributeRecord> attributes = new HashMap<String, SessionAttributeRecord>();
+		final HashMap<String, DeltaChain> deltaChains = new HashMap<String, DeltaChain>();
+		long version;
+
+		LoadingSession(final String id, final FoundationSession session) {
+			this.id = id;
+			this.session = session;
+		}
+	}
+
+	/**
+	 * Read the sessions the statement selects, attributes deserialized except those stored as delta chains.
+	 */
+	private Map<String, LoadingSession> readSessions(final PreparedStatement ps) throws SQLException {
+		final Map<String, LoadingSession> result = new LinkedHashMap<String, LoadingSession>();
+		ResultSet rs = null;
+		try {
 			rs = ps.executeQuery();
 			while (rs.next()) {
-				if (result == null) {
-					result = (StandardSession) manager.createEmptySession();
+				final String id = rs.getString("session_id");
+				LoadingSession loading = result.get(id);
+				if (loading == null) {
+					final FoundationSession session = (FoundationSession) manager.createEmptySession();
+					loading = new LoadingSession(id, session);
+					result.put(id, loading);
 					//--result.setId( rs.getString("session_id"));
-					ReflectionUtils.setFieldValue(StandardSession.class, result, "id", rs.getString("session_id"));
-
-					result.setCreationTime(rs.getTimestamp("creation_time").getTime());
-
+					session.setIdInternal(id);
 
-					//need to use reflection because the package is v2 now and the attributes is protected in StandardSession
-					//todo after v2 is stable after a release or so,m we'll remove v1 and move v2 to the  org.apache.catalina.session package.
-					//then such reflecton will no lonber be needed.
+					session.setCreationTime(rs.getTimestamp("creation_time").getTime());
 
-					//result.lastAccessedTime(rs.getTimestamp("last_accessed_time").getTime());
-					ReflectionUtils.setFieldValue(StandardSession.class, result
-							, "lastAccessedTime"
-							, Long.valueOf(rs.getTimestamp("last_accessed_time").getTime()));
+					session.setLastAccessedTimeInternal(rs.getTimestamp("last_accessed_time").getTime());
 
 
-					result.setMaxInactiveInterval( rs.getInt("max_inactive_interval"));
-					result.setNew(rs.getString("is_new").equals("Y"));
-					result.setValid(rs.getString("is_valid").equals("Y"));
+					session.setMaxInactiveInterval( rs.getInt("max_inactive_interval"));
+					session.setNew(rs.getString("is_new").equals("Y"));
+					session.setValid(rs.getString("is_valid").equals("Y"));
 
-					//result.thisAccessedTime = rs.getTimestamp("this_accessed_time").getTime();
-					ReflectionUtils.setFieldValue(StandardSession.class, result
-							, "thisAccessedTime"
-							, Long.valueOf(rs.getTimestamp("this_accessed_time").getTime()));
+					session.setThisAccessedTimeInternal(rs.getTimestamp("this_accessed_time").getTime());
 
 
-					result.setNote("request_count", rs.getString("request_count"));
+					session.setNote("request_count", Integer.valueOf(rs.getInt("request_count")));
+					session.setNote(LOADED_FROM_NODE_NOTE, rs.getString("node_id"));
+					loading.version = rs.getLong("version");
 				}
 				final String key = rs.getString("attr_key");
 				final int update_count = rs.getInt("update_count");
 				final int data_length = rs.getInt("data_length");
 				final String data_checksum = rs.getString("data_checksum");
 				final String data_type = rs.getString("data_type");
-				final byte[] data = rs.getBytes("data");
+				final int delta_count = rs.getInt("delta_count");
 				try {
-					final Object value = SerializationUtils.createObjectFromData(manager, data);
-					if (value != null) {
-						Map<String, Object> retAttributes =(Map<String, Object>) ReflectionUtils.getFieldValue(StandardSession.class, result, "attributes");
-						retAttributes.put(key, value);
-						//result.attributes.put(key, value);
-						// no need for the data here - this is just a record of what the attr looked like @ the time
-						//changed to handle it at the cache level . when put in cache, wipe it out. Before that, we need the data.
-						final SessionAttributeRecord sar = new SessionAttributeRecord(key, update_count, data_length, data_checksum, data_type, data);
-						attributes.put(key, sar);
-						log.info("\tLoaded attribute [" + key + "], value=" + value);
+					final InputStream data = SessionDataCompression.decompress(rs.getString("data_codec"), rs.getBinaryStream("data"));
+					final SessionAttributeRecord sar = new SessionAttributeRecord(key, update_count, data_length, data_checksum, data_type, null);
+					if (delta_count > 0) {
+						// base image of a delta chain, the value is reassembled once all attribute rows are read
+						loading.deltaChains.put(key, new DeltaChain(sar, delta_count, readFully(data)));
 					} else {
-						log.info("\tAttribute [" + key + "] skipped due to null value stored in DB");
+						// deserialize straight from the (possibly compressed) blob stream rather than copying it into an array first
+						addLoadedAttribute(loading.session, loading.attributes, sar, SerializationUtils.createObjectFromStream(manager, data));
 					}
 				} catch (final RuntimeException e) {
 					//if (log.isInfoEnabled())
@@ -216,38 +350,500 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 						log.info("\tSkipping problematic session attribute: [" + key + "] while loading session: " + id);
 				}
 			}
-			if (result != null) {
-				final SessionSerializationData ssd = new SessionSerializationData(log, id, attributes);
-				cacheSessionSerializationData(result, ssd);
+			rs.close();
+			rs = null;
+		} finally {
+			closeFinally(null, null, rs);
+		}
+		return result;
+	}
+
+	/**
+	 * Reassemble the delta encoded attributes of a read session and cache its baseline.
+	 *
+	 * @param ifAbsent keep a baseline cached already, and drop the session then
+	 */
+	private StandardSession completeLoad(final Connection conn, final LoadingSession loading, final boolean ifAbsent) throws SQLException {
+		final String id = loading.id;
+		final FoundationSession result = loading.session;
+		if (ifAbsent && sessionCache().get(id) != null)
+			return null;
+		// bases kept from an earlier load may be stale, another node may have rebased the chains since
+		deltaBases.remove(id);
+		final Map<String, SessionAttributeRecord> attributes = loading.attributes;
+		if (!loading.deltaChains.isEmpty()) {
+			loadAttributeDeltas(conn, id, loading.deltaChains);
+			for (final DeltaChain chain : loading.deltaChains.values()) {
+				final SessionAttributeRecord sar = chain.record;
+				if (chain.applied != chain.length || !sar.data_checksum.equals(SessionAttributeRecord.checksum(chain.image))) {
+					log.info("\tSkipping attribute: [" + sar.key + "] with incomplete delta chain while loading session: " + id);
+					continue;
+				}
+				try {
+					addLoadedAttribute(result, attributes, sar, SerializationUtils.createObjectFromData(manager, chain.image));
+					// this node can carry on the chain from here
+					deltaBases.put(id, sar.key, new DeltaBase(chain.image, chain.length));
+				} catch (final RuntimeException | IOException e) {
+					log.info("\tSkipping problematic session attribute: [" + sar.key + "] while loading session: " + id);
+				}
+			}
+		}
+
+		final SessionSerializationData ssd = new SessionSerializationData(log, id, attributes);
+		// the stored access times are current, no touch is due until they drift
+		ssd.setTouchedAccessTime(result.getThisAccessedTimeInternal());
+		ssd.initVersion(loading.version);
+		if (!ifAbsent) {
+			cacheSessionSerializationData(result, ssd);
+		} else if (!cacheSessionSerializationDataIfAbsent(result, ssd)) {
+			return null;
+		}
+		return result;
+	}
+
+	private static final String recentSessionKeysSQL = //
+	"SELECT s.session_id" //
+			+ " FROM ps_foundation_session s" //
+			+ " WHERE s.node_id = ?" //
+			+ " AND s.webapp = ?" //
+			+ " AND s.is_valid = 'Y'" //
+			+ " AND s.expiration_time > ?" //
+			+ " ORDER BY s.this_accessed_time DESC" //
+	;
+
+	@Override
+	protected List<String> findRecentSessionIds(final String node_id, final int limit) throws IOException {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		final List<String> result = new ArrayList<String>();
+		final String webapp = getWebapp();
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(recentSessionKeysSQL);
+			ps.setString(1, node_id);
+			ps.setString(2, webapp);
+			ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+			ps.setMaxRows(limit);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				result.add(rs.getString(1));
+			}
+			rs.close();
+			rs = null;
+			ps.close();
+			ps = null;
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem getting recent session IDs for node: " + node_id + " and webapp: " + webapp;
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, rs);
+		}
+		return result;
+	}
+
+	private static final String accessedSessionKeysSQL = //
+	"SELECT s.session_id" //
+			+ " FROM ps_foundation_session s" //
+			+ " WHERE s.webapp = ?" //
+			+ " AND s.this_accessed_time >= ?" //
+	;
+
+	@Override
+	protected List<String> findSessionIdsAccessedSince(final long time) throws IOException {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		final List<String> result = new ArrayList<String>();
+		final String webapp = getWebapp();
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(accessedSessionKeysSQL);
+			ps.setString(1, webapp);
+			ps.setTimestamp(2, new Timestamp(time));
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				result.add(rs.getString(1));
+			}
+			rs.close();
+			rs = null;
+			ps.close();
+			ps = null;
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem getting the IDs of sessions accessed since " + new Timestamp(time) + " for webapp: " + webapp;
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, rs);
+		}
+		return result;
+	}
+
+	private static final String sessionVersionSQL = //
+	"SELECT s.version" //
+			+ " FROM ps_foundation_session s" //
+			+ " WHERE s.session_id = ?" //
+	;
+
+	@Override
+	protected long getStoredVersion(final String id) throws IOException {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		long result = 0;
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(sessionVersionSQL);
+			ps.setString(1, id);
+			rs = ps.executeQuery();
+			if (rs.next())
+				result = rs.getLong(1);
+			rs.close();
+			rs = null;
+			ps.close();
+			ps = null;
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem getting the version of session: " + id;
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, rs);
+		}
+		return result;
+	}
+
+	private void addLoadedAttribute(final StandardSession result, final Map<String, SessionAttributeRecord> attributes, final SessionAttributeRecord sar,
+			final Object value) {
+		final String key = sar.key;
+		if (value != null) {
+			FoundationSession.attributesOf(result).put(key, value);
+			// no need for the data here - this is just a record of what the attr looked like @ the time
+			// (length and checksum are enough for the delta, and the cache wipes the data anyway)
+			attributes.put(key, sar);
+			log.info("\tLoaded attribute [" + key + "], value=" + value);
+		} else {
+			log.info("\tAttribute [" + key + "] skipped due to null value stored in DB");
+		}
+	}
+
+	private static byte[] readFully(final InputStream in) throws IOException {
+		if (in == null)
+			return new byte[0];
+		final PooledChunkedOutputStream out = new PooledChunkedOutputStream();
+		try {
+			final byte[] buffer = new byte[8192];
+			int count;
+			while ((count = in.read(buffer)) != -1) {
+				out.write(buffer, 0, count);
+			}
+			return out.toByteArray();
+		} finally {
+			out.release();
+			in.close();
+		}
+	}
+
+	private static final String loadSessionAttributeDeltasSQL = //
+	"SELECT d.attr_key, d.delta_seq, d.data" //
+			+ " FROM ps_foundation_session_attr_delta d" //
+			+ " WHERE d.session_id = ?" //
+			+ " ORDER BY d.attr_key, d.delta_seq" //
+	;
+
+	/**
+	 * Apply the stored deltas, in sequence, to the base images read from the attribute rows.
+	 */
+	private void loadAttributeDeltas(final Connection conn, final String id, final Map<String, DeltaChain> deltaChains) throws SQLException {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			ps = conn.prepareStatement(loadSessionAttributeDeltasSQL);
+			ps.setString(1, id);
+			rs = ps.executeQuery();
+			while (rs.next()) {
+				final DeltaChain chain = deltaChains.get(rs.getString("attr_key"));
+				final int delta_seq = rs.getInt("delta_seq");
+				// rows beyond the recorded chain length are leftovers of an older chain and are ignored
+				if (chain == null || chain.image == null || delta_seq != chain.applied + 1 || delta_seq > chain.length)
+					continue;
+				try {
+					chain.image = BinaryDelta.apply(chain.image, rs.getBytes("data"));
+					chain.applied = delta_seq;
+				} catch (final IOException e) {
+					log.info("\tCould not apply delta " + delta_seq + " of attribute: [" + chain.record.key + "] while loading session: " + id);
+					chain.image = null;
+				}
+			}
+			rs.close();
+			rs = null;
+			ps.close();
+			ps = null;
+		} finally {
+			closeFinally(null, ps, rs);
+		}
+	}
+
+	/**
+	 * @return statement moving the given number of sessions of this webapp to a node
+	 */
+	private static String adoptSessionsSQL(final int count) {
+		final StringBuilder sb = new StringBuilder("UPDATE ps_foundation_session SET" //
+				+ /**/" node_id = ?" //
+				+ " WHERE webapp = ?" //
+				+ " AND node_id <> ?" //
+				+ " AND session_id IN (");
+		for (int i = 0; i < count; i++) {
+			sb.append(i == 0 ? "?" : ", ?");
+		}
+		return sb.append(")").toString();
+	}
+
+	@Override
+	protected int adoptSessions(final Collection<String> ids) throws IOException {
+		if (ids.isEmpty())
+			return 0;
+		Connection conn = null;
+		PreparedStatement ps = null;
+		int result = 0;
+		final String node_id = getNodeID();
+		final String webapp = getWebapp();
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(adoptSessionsSQL(ids.size()));
+			ps.setString(1, node_id);
+			ps.setString(2, webapp);
+			ps.setString(3, node_id);
+			int i = 4;
+			for (final String id : ids) {
+				ps.setString(i++, id);
+			}
+			// the version stays, the data did not change
+			result = ps.executeUpdate();
+			ps.close();
+			ps = null;
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem adopting " + ids.size() + " sessions for node: " + node_id + " and webapp: " + webapp;
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, null);
+		}
+		log.info("Adopted " + result + " of " + ids.size() + " sessions");
+		return result;
+	}
+
+	private static final String heartbeatSQL = //
+	"INSERT INTO ps_foundation_node (node_id, webapp, heartbeat_time)" //
+			+ " VALUES (?, ?, ?)" //
+			+ " ON DUPLICATE KEY UPDATE heartbeat_time = VALUES(heartbeat_time)" //
+	;
+
+	@Override
+	protected void heartbeat() throws IOException {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		final String node_id = getNodeID();
+		final String webapp = getWebapp();
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(heartbeatSQL);
+			ps.setString(1, node_id);
+			ps.setString(2, webapp);
+			ps.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
+			ps.executeUpdate();
+			ps.close();
+			ps = null;
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem recording the heartbeat of node: " + node_id + " and webapp: " + webapp;
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, null);
+		}
+	}
+
+	private static final String deadNodesSQL = //
+	"SELECT node_id" //
+			+ " FROM ps_foundation_node" //
+			+ " WHERE webapp = ?" //
+			+ " AND node_id <> ?" //
+			+ " AND heartbeat_time < ?" //
+	;
+
+	private static final String claimDeadNodeSQL = //
+	"DELETE FROM ps_foundation_node" //
+			+ " WHERE node_id = ?" //
+			+ " AND webapp = ?" //
+			+ " AND heartbeat_time < ?" //
+	;
+
+	private static final String adoptNodeSessionsSQL = //
+	"UPDATE ps_foundation_session SET" //
+			+ /**/" node_id = ?" //
+			+ " WHERE node_id = ?" //
+			+ " AND webapp = ?" //
+	;
+
+	@Override
+	protected int adoptOrphanedSessions(final long heartbeatTimeoutMs) throws IOException {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		int result = 0;
+		final String node_id = getNodeID();
+		final String webapp = getWebapp();
+		final Timestamp cutoff = new Timestamp(System.currentTimeMillis() - heartbeatTimeoutMs);
+		try {
+			conn = getConnection();
+			ps = conn.prepareStatement(deadNodesSQL);
+			ps.setString(1, webapp);
+			ps.setString(2, node_id);
+			ps.setTimestamp(3, cutoff);
+			rs = ps.executeQuery();
+			final List<String> deadNodes = new ArrayList<String>();
+			while (rs.next()) {
+				deadNodes.add(rs.getString(1));
+			}
+			rs.close();
+			rs = null;
+			ps.close();
+			ps = null;
+
+			for (final String dead_node_id : deadNodes) {
+				conn.setAutoCommit(false);
+				// whichever node removes the dead node's heartbeat takes its sessions, the others find nothing to claim
+				ps = conn.prepareStatement(claimDeadNodeSQL);
+				ps.setString(1, dead_node_id);
+				ps.setString(2, webapp);
+				ps.setTimestamp(3, cutoff);
+				final boolean claimed = ps.executeUpdate() > 0;
+				ps.close();
+				ps = null;
+				if (claimed) {
+					ps = conn.prepareStatement(adoptNodeSessionsSQL);
+					ps.setString(1, node_id);
+					ps.setString(2, dead_node_id);
+					ps.setString(3, webapp);
+					final int adopted = ps.executeUpdate();
+					ps.close();
+					ps = null;
+					result += adopted;
+					log.info("Node " + dead_node_id + " stopped heartbeating, adopted its " + adopted + " sessions");
+				}
+				conn.commit();
+				conn.setAutoCommit(true);
+			}
+
+			conn.close();
+			conn = null;
+		} catch (final SQLException e) {
+			final String message = "Problem adopting orphaned sessions for node: " + node_id + " and webapp: " + webapp;
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, rs);
+		}
+		return result;
+	}
+
+	private static final String changeSessionIdSQL = //
+	"UPDATE ps_foundation_session" //
+			+ " SET session_id = ?" //
+			+ " WHERE session_id = ?";
+
+	private static final String changeSessionAttributesIdSQL = //
+	"UPDATE ps_foundation_session_attr" //
+			+ " SET session_id = ?" //
+			+ " WHERE session_id = ?";
+
+	private static final String changeSessionAttributeDeltasIdSQL = //
+	"UPDATE ps_foundation_session_attr_delta" //
+			+ " SET session_id = ?" //
+			+ " WHERE session_id = ?";
+
+	/**
+	 * Move the header, attribute and delta rows of the session to its new id, one statement each in one transaction;
+	 * the version is kept, so the cached baseline stays valid.
+	 */
+	@Override
+	protected boolean rekeySession(final String oldId, final String newId) throws IOException {
+		Connection conn = null;
+		PreparedStatement ps = null;
+		boolean result = false;
+		try {
+			conn = getConnection();
+			conn.setAutoCommit(false);
+			ps = conn.prepareStatement(changeSessionIdSQL);
+			ps.setString(1, newId);
+			ps.setString(2, oldId);
+			result = ps.executeUpdate() > 0;
+			ps.close();
+			ps = null;
+			if (result) {
+				ps = conn.prepareStatement(changeSessionAttributesIdSQL);
+				ps.setString(1, newId);
+				ps.setString(2, oldId);
+				ps.executeUpdate();
+				ps.close();
+				ps = null;
+				// chains may be left from a time delta encoding was on, they move with their attributes regardless
+				ps = conn.prepareStatement(changeSessionAttributeDeltasIdSQL);
+				ps.setString(1, newId);
+				ps.setString(2, oldId);
+				ps.executeUpdate();
+				ps.close();
+				ps = null;
 			}
-
-			rs.close();
-			rs = null;
-			ps.close();
-			ps = null;
+			conn.commit();
+			conn.setAutoCommit(true);
 			conn.close();
 			conn = null;
 		} catch (final SQLException e) {
-			final String message = "Problem loading session with id: " + id;
+			result = false;
+			final String message = "Problem changing session id: " + oldId + " to: " + newId;
 			//log.error(message, e);
 			throw new IOException(message, e);
 		} finally {
-			closeFinally(conn, ps, rs);
-		}
-		//if (log.isInfoEnabled()) {
-			if (result == null) {
-				log.info("Session not loaded - does not exist in store: " + id);
+			closeFinally(conn, ps, null);
+			if (result) {
+				deltaBases.rename(oldId, newId);
 			} else {
-				log.info("Loaded session: " + id);
+				deltaBases.remove(oldId);
 			}
-		//}
+		}
+		//if (log.isDebugEnabled())
+			log.info("Changed session id " + oldId + " to " + newId + (result ? "" : ", no session stored"));
 		return result;
 	}
 
+	/**
+	 * Also drop the delta bases of the session, the chains may be rebased by another node before it is loaded again.
+	 */
+	@Override
+	public void evict(final String sessionId) {
+		super.evict(sessionId);
+		deltaBases.remove(sessionId);
+	}
+
 	private static final String removeSessionSQL = //
 	"DELETE FROM ps_foundation_session" //
 			+ " WHERE session_id = ?";
 
+	private static final String removeSessionAttributeDeltasSQL = //
+	"DELETE FROM ps_foundation_session_attr_delta" //
+			+ " WHERE session_id = ?";
+
 	@Override
 	public void remove(final String id) throws IOException {
 		//if (log.isDebugEnabled())
@@ -261,6 +857,12 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			ps.executeUpdate();
 			ps.close();
 			ps = null;
+			// chains may be left from a time delta encoding was on, they go with the session regardless
+			ps = conn.prepareStatement(removeSessionAttributeDeltasSQL);
+			ps.setString(1, id);
+			ps.executeUpdate();
+			ps.close();
+			ps = null;
 			conn.close();
 			conn = null;
 		} catch (final SQLException e) {
@@ -269,6 +871,7 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			throw new IOException(message, e);
 		} finally {
 			closeFinally(conn, ps, null);
+			deltaBases.remove(id);
 		}
 		//if (log.isDebugEnabled())
 			log.info("Removed session " + id);
@@ -331,6 +934,7 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			+ /**/", remote_addr" //
 			+ /**/", remote_port" //
 			+ /**/", remote_user" //
+			+ /**/", version" //
 			+ /**/") VALUES" //
 			+ /**/" (?" //
 			+ /**/", ?" //
@@ -352,6 +956,7 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			+ /**/", ?" //
 			+ /**/", ?" //
 			+ /**/", ?" //
+			+ /**/", 1" //
 			+ /**/")"; //
 
 	private static final String updateSessionSQL = //
@@ -375,9 +980,10 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			+ /**/", remote_addr = ?" //
 			+ /**/", remote_port = ?" //
 			+ /**/", remote_user = ?" //
-			+ " where session_id = ?";
-
-	private static final String getSessionSQL = " SELECT * from ps_foundation_session where session_id = ?";
+			+ /**/", version = ?" //
+			+ " where session_id = ?" //
+			// fencing: only the writer that saw the current version may write the next one
+			+ " and version = ?";
 
 	/*	private static final String saveSessionSQL = //
 		"MERGE INTO ps_foundation_session s" //
@@ -481,6 +1087,7 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			+ /**/", data_checksum" //
 			+ /**/", data_type" //
 			+ /**/", data" //
+			+ /**/", data_codec" //
 			+ /**/") VALUES" //
 			+ /**/" (?" //
 			+ /**/", ?" //
@@ -490,6 +1097,7 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			+ /**/", ?" //
 			+ /**/", ?" //
 			+ /**/", ?" //
+			+ /**/", ?" //
 			+ /**/")"; //
 	private static final String updateSessionAttributeSQL = //
 	" UPDATE ps_foundation_session_attr SET" //
@@ -499,7 +1107,34 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			+ /**/", data_checksum = ?" //
 			+ /**/", data_type = ?" //
 			+ /**/", data =? " //
+			+ /**/", data_codec = ?" //
+			+ /**/", delta_count = 0" //
+			+ /**/" WHERE (session_id = ? AND attr_key = ?)"; //
+	private static final String updateSessionAttributeDeltaSQL = //
+	" UPDATE ps_foundation_session_attr SET" //
+			+ /**/" last_updated_time = ?" //
+			+ /**/", update_count = ?" //
+			+ /**/", data_length = ?" //
+			+ /**/", data_checksum = ?" //
+			+ /**/", data_type = ?" //
+			+ /**/", delta_count = ?" //
 			+ /**/" WHERE (session_id = ? AND attr_key = ?)"; //
+	private static final String insertSessionAttributeDeltaSQL = //
+	" INSERT INTO ps_foundation_session_attr_delta " //
+			+ /**/" (session_id" //
+			+ /**/", attr_key" //
+			+ /**/", delta_seq" //
+			+ /**/", data" //
+			+ /**/") VALUES" //
+			+ /**/" (?" //
+			+ /**/", ?" //
+			+ /**/", ?" //
+			+ /**/", ?" //
+			+ /**/")"; //
+	private static final String deleteSessionAttributeDeltasSQL = //
+	"DELETE FROM ps_foundation_session_attr_delta" //
+			+ " WHERE session_id = ?" //
+			+ " AND attr_key = ?";
 	private static final String getSessionAttributeSQL = //
 	" select * from ps_foundation_session_attr where session_id=? and attr_key=?";
 
@@ -576,89 +1211,116 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 
 		if (header != null) {
 			// if header wasn't there, there's nothing to save anyway
-			Connection conn = null;
-			try {
-				conn = getConnection();
-				conn.setAutoCommit(false);
-
-				persistSessionHeader(conn, session_id, ssd);
-				persistSessionModifiedAttributes(conn, session_id, ssd);
-				persistSessionRemovedAttributes(conn, session_id, ssd);
-
-				conn.commit();
-
-				conn.setAutoCommit(true);
-				conn.close();
-				conn = null;
-
-				// record save metrics
-				final long end = System.currentTimeMillis();
-				final long duration = end - start;
-
-				//if (log.isDebugEnabled()) {
-					log.info("Saved session: " + session_id + ", attributes_size=" + ssd.getAttributes_size() + " time=" + duration +"ms");
-					log.info("\tmodified attributes:" + ssd.getModifiedSessionAttributeRecords().size());
-					log.info("\tremoved attributes:" + ssd.getRemovedSessionAttributes().size());
+			// writes of the same session are serialized within this node, across nodes the version column fences them
+			final SessionSerializationData baseline = sessionCache().get(session_id);
+			synchronized (baseline != null ? baseline : ssd) {
+				// a snapshot taken before the baseline was (re)loaded keeps the version it was taken at and will be fenced
+				// off if the session moved on since
+				final boolean sameLineage = baseline != null && ssd.getVersion() >= baseline.getBaseVersion();
+				final long expectedVersion = sameLineage ? baseline.getVersion() : ssd.getVersion();
+				Connection conn = null;
+				// delta bases only move forward once the transaction that wrote them is committed
+				final Map<String, DeltaBase> deltaBaseUpdates = new HashMap<String, DeltaBase>();
+				boolean committed = false;
+				try {
+					conn = getConnection();
+					conn.setAutoCommit(false);
+
+					final long version = persistSessionHeader(conn, session_id, ssd, expectedVersion);
+					persistSessionModifiedAttributes(conn, session_id, ssd, deltaBaseUpdates);
+					persistSessionRemovedAttributes(conn, session_id, ssd);
+					if (deltaEncodingThreshold > 0) {
+						for (final String key : ssd.getRemovedSessionAttributes()) {
+							deltaBaseUpdates.put(key, null);
+						}
+					}
 
-				//}
-				ssd.clear();
-			} catch (final SQLException e) {
-				final int errorCode = e.getErrorCode();
-				if (errorCode == 1) { // ORA-00001: unique constraint (PS_FOUNDATION_SESSION_PK) violated
-					// Ignore this exception. Another thread already inserted the session but its row was not committed at the time this merge statement fired.
-					// We can safely ignore this condition because the other thread already wrote the session (and it was most likely just milliseconds ago, and doesn't need to be written again).
-					// Also, if we move saving into an asynchronous background queue and let the background processing thread write them out serially, we won't have to worry about this condition anymore.
-				} else {
-					final String message = "Problem saving session: " + session_id;
-					//log.error(message, e);
-					throw new IOException(message, e);
+					conn.commit();
+					committed = true;
+					ssd.setVersion(version);
+					if (sameLineage)
+						baseline.setVersion(version);
+
+					conn.setAutoCommit(true);
+					conn.close();
+					conn = null;
+
+					// record save metrics
+					final long end = System.currentTimeMillis();
+					final long duration = end - start;
+
+					//if (log.isDebugEnabled()) {
+						log.info("Saved session: " + session_id + ", attributes_size=" + ssd.getAttributes_size() + " time=" + duration +"ms");
+						log.info("\tmodified attributes:" + ssd.getModifiedSessionAttributeRecords().size());
+						log.info("\tremoved attributes:" + ssd.getRemovedSessionAttributes().size());
+
+					//}
+					ssd.clear();
+				} catch (final StaleSessionException e) {
+					// another node owns the session now: drop this snapshot and the local copy, the next request loads the winner
+					staleWriteCount.incrementAndGet();
+					log.info(e.getMessage() + " - dropping the snapshot and evicting the local copy");
+					ssd.clear();
+					evictStaleSession(session_id);
+				} catch (final SQLException e) {
+					final int errorCode = e.getErrorCode();
+					if (errorCode == 1) { // ORA-00001: unique constraint (PS_FOUNDATION_SESSION_PK) violated
+						// Ignore this exception. Another thread already inserted the session but its row was not committed at the time this merge statement fired.
+						// We can safely ignore this condition because the other thread already wrote the session (and it was most likely just milliseconds ago, and doesn't need to be written again).
+						// Also, if we move saving into an asynchronous background queue and let the background processing thread write them out serially, we won't have to worry about this condition anymore.
+					} else {
+						final String message = "Problem saving session: " + session_id;
+						//log.error(message, e);
+						throw new IOException(message, e);
+					}
+				} finally {
+					closeFinally(conn, null, null);
+					updateDeltaBases(session_id, deltaBaseUpdates, committed);
 				}
-			} finally {
-				closeFinally(conn, null, null);
 			}
 		} else {
 			log.info("Skipping the save of session " + session_id + " due to no attribute changes");
 		}
 	}
 
-	protected void persistSessionHeader(final Connection conn, final String session_id, final SessionSerializationData ssd) throws SQLException {
-		final SessionSerializationHeaderData header = ssd.getHeader();
-		if (header != null) {
-			if (isSessionHeaderExists(conn, session_id, ssd)) {
-				updateSessionHeader(conn, session_id, ssd);
-			} else {
-				insertSessionHeader(conn, session_id, ssd);
-			}
-		}
+	/**
+	 * Write the header row, fenced by the session version.
+	 *
+	 * @param expectedVersion version of the stored session the snapshot is based on, 0 if this node never saw it stored
+	 * @return the new version of the stored session
+	 * @throws StaleSessionException if the stored version moved on (or the row is gone), i.e. this writer is stale
+	 */
+	protected long persistSessionHeader(final Connection conn, final String session_id, final SessionSerializationData ssd, final long expectedVersion)
+			throws SQLException {
+		if (expectedVersion == 0 && insertSessionHeader(conn, session_id, ssd))
+			return 1;
+		// an existing row this node has no version for can only be taken over if it was written before versioning (version 0)
+		if (updateSessionHeader(conn, session_id, ssd, expectedVersion) == 0)
+			throw new StaleSessionException("Session " + session_id + " is no longer at version " + expectedVersion + ", it was written or removed elsewhere");
+		return expectedVersion + 1;
 	}
 
-	private boolean isSessionHeaderExists(final Connection conn, final String session_id, final SessionSerializationData ssd) throws SQLException {
-		final SessionSerializationHeaderData header = ssd.getHeader();
-		boolean result = false;
-		if (header != null) {
-			PreparedStatement ps = null;
-			ResultSet rs = null;
-			try {
-				ps = conn.prepareStatement(getSessionSQL);
-				ps.setString(1, session_id);
-				rs = ps.executeQuery();
-				while (rs.next()) {
-					result = true;
-					break;
-				}
-				rs.close();
-				rs = null;
-				ps.close();
-				ps = null;
-			} finally {
-				closeFinally(null, ps, rs);
-			}
+	private void evictStaleSession(final String session_id) {
+		deltaBases.remove(session_id);
+		if (manager instanceof FoundationSessionManager) {
+			((FoundationSessionManager) manager).evict(session_id);
+		} else {
+			sessionCache().remove(session_id);
 		}
-		return result;
 	}
 
-	private void insertSessionHeader(final Connection conn, final String session_id, final SessionSerializationData ssd) throws SQLException {
+	private static boolean isDuplicateKey(final SQLException e) {
+		final String sqlState = e.getSQLState();
+		// ORA-00001 / SQL state class 23 (integrity constraint violation)
+		return e.getErrorCode() == 1 || e instanceof SQLIntegrityConstraintViolationException || (sqlState != null && sqlState.startsWith("23"));
+	}
+
+	/**
+	 * @return false if the row already exists
+	 */
+	private boolean insertSessionHeader(final Connection conn, final String session_id, final SessionSerializationData ssd) throws SQLException {
 		final SessionSerializationHeaderData header = ssd.getHeader();
+		boolean result = false;
 		if (header != null) {
 			PreparedStatement ps = null;
 			try {
@@ -686,14 +1348,24 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 				ps.executeUpdate();
 				ps.close();
 				ps = null;
+				result = true;
+			} catch (final SQLException e) {
+				if (!isDuplicateKey(e))
+					throw e;
 			} finally {
 				closeFinally(null, ps, null);
 			}
 		}
+		return result;
 	}
 
-	private void updateSessionHeader(final Connection conn, final String session_id, final SessionSerializationData ssd) throws SQLException {
+	/**
+	 * @return number of rows updated, 0 if the stored version is not the expected one
+	 */
+	private int updateSessionHeader(final Connection conn, final String session_id, final SessionSerializationData ssd, final long expectedVersion)
+			throws SQLException {
 		final SessionSerializationHeaderData header = ssd.getHeader();
+		int result = 0;
 		if (header != null) {
 			PreparedStatement ps = null;
 			try {
@@ -717,18 +1389,69 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 				ps.setString(17, header.remote_addr);
 				ps.setString(18, header.remote_port);
 				ps.setString(19, header.remote_user);
-				ps.setString(20, session_id);
-				ps.executeUpdate();
+				ps.setLong(20, expectedVersion + 1);
+				ps.setString(21, session_id);
+				ps.setLong(22, expectedVersion);
+				result = ps.executeUpdate();
 				ps.close();
 				ps = null;
 			} finally {
 				closeFinally(null, ps, null);
 			}
 		}
+		return result;
+	}
+
+	private static final String touchSessionSQL = //
+	" UPDATE ps_foundation_session SET" //
+			+ /**/" last_accessed_time = ?" //
+			+ /**/", expiration_time = ?" //
+			+ /**/", this_accessed_time = ?" //
+			+ /**/", request_count = ?" //
+			+ " WHERE session_id = ?" //
+			// never move the access times backwards over a full save that went out after this touch was captured
+			+ " AND this_accessed_time < ?";
+
+	@Override
+	protected void persistSessionTouches(final Map<String, SessionSerializationHeaderData> touches) throws IOException {
+		if (touches.isEmpty())
+			return;
+		Connection conn = null;
+		PreparedStatement ps = null;
+		try {
+			conn = getConnection();
+			conn.setAutoCommit(false);
+			ps = conn.prepareStatement(touchSessionSQL);
+			for (final Map.Entry<String, SessionSerializationHeaderData> entry : touches.entrySet()) {
+				final SessionSerializationHeaderData header = entry.getValue();
+				ps.setTimestamp(1, header.last_accessed_time);
+				ps.setTimestamp(2, header.expiration_time);
+				ps.setTimestamp(3, header.this_accessed_time);
+				ps.setInt(4, header.request_count);
+				ps.setString(5, entry.getKey());
+				ps.setTimestamp(6, header.this_accessed_time);
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			ps.close();
+			ps = null;
+			conn.commit();
+			conn.setAutoCommit(true);
+			conn.close();
+			conn = null;
+			log.info("Saved access times of " + touches.size() + " sessions");
+		} catch (final SQLException e) {
+			final String message = "Problem saving access times of " + touches.size() + " sessions";
+			//log.error(message, e);
+			throw new IOException(message, e);
+		} finally {
+			closeFinally(conn, ps, null);
+		}
 	}
 
 	private void insertSessionModifiedAttributes(final Connection conn, final String session_id, final SessionAttributeRecord r) throws SQLException {
 		PreparedStatement ps = null;
+		PooledChunkedOutputStream compressed = null;
 		try {
 			final Timestamp now = new Timestamp(System.currentTimeMillis());
 			ps = conn.prepareStatement(insertSessionAttributeSQL);
@@ -739,14 +1462,8 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			ps.setInt(5, r.data_length);
 			ps.setString(6, r.data_checksum);
 			ps.setString(7, r.data_type);
-			int blobLength = 0;
-			final byte[] blob = r.data;
-			blobLength = blob.length;
-			if (blobLength > 0) {
-				ps.setBytes(8, blob);
-			} else {
-				ps.setBytes(8, null);
-			}
+			compressed = compress(r);
+			ps.setString(9, setBlob(ps, 8, r.data, compressed));
 			ps.executeUpdate();
 			log.info("Adding attribute [" + r.key + "] for " + r.data_length + " bytes");
 			ps.executeBatch();
@@ -754,29 +1471,26 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			ps = null;
 		} finally {
 			closeFinally(null, ps, null);
+			if (compressed != null)
+				compressed.release();
 		}
 	}
 
 	private void updateSessionModifiedAttributes(final Connection conn, final String session_id, final SessionAttributeRecord r) throws SQLException {
 		PreparedStatement ps = null;
+		PooledChunkedOutputStream compressed = null;
 		try {
 			final Timestamp now = new Timestamp(System.currentTimeMillis());
 			ps = conn.prepareStatement(updateSessionAttributeSQL);
-			ps.setString(7, session_id);
-			ps.setString(8, r.key);
+			ps.setString(8, session_id);
+			ps.setString(9, r.key);
 			ps.setTimestamp(1, now);
 			ps.setInt(2, r.update_count);
 			ps.setInt(3, r.data_length);
 			ps.setString(4, r.data_checksum);
 			ps.setString(5, r.data_type);
-			int blobLength = 0;
-			final byte[] blob = r.data;
-			blobLength = blob.length;
-			if (blobLength > 0) {
-				ps.setBytes(6, blob);
-			} else {
-				ps.setBytes(6, null);
-			}
+			compressed = compress(r);
+			ps.setString(7, setBlob(ps, 6, r.data, compressed));
 			ps.addBatch();
 			log.info("Update attribute [" + r.key + "] for " + r.data_length + " bytes");
 			ps.executeBatch();
@@ -785,6 +1499,8 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 			//b.free();
 		} finally {
 			closeFinally(null, ps, null);
+			if (compressed != null)
+				compressed.release();
 		}
 	}
 
@@ -808,19 +1524,155 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 		return result;
 	}
 
-	protected void persistSessionModifiedAttributes(final Connection conn, final String session_id, final SessionSerializationData ssd) throws SQLException {
+	private PooledChunkedOutputStream compress(final SessionAttributeRecord r) throws SQLException {
+		try {
+			return SessionDataCompression.compress(r.data);
+		} catch (final IOException e) {
+			throw new SQLException("Problem compressing attribute [" + r.key + "]", e);
+		}
+	}
+
+	/**
+	 * Bind the attribute data, compressed if a compressed form is given.
+	 *
+	 * @return the codec the bound data is encoded with
+	 */
+	private String setBlob(final PreparedStatement ps, final int parameterIndex, final byte[] blob, final PooledChunkedOutputStream compressed)
+			throws SQLException {
+		final String result;
+		if (compressed != null) {
+			ps.setBinaryStream(parameterIndex, compressed.getInputStream(), compressed.size());
+			result = SessionDataCompression.getCompressionCodec();
+		} else {
+			// the array is bound as it is, wrapping it in a stream would not spare a copy
+			ps.setBytes(parameterIndex, blob != null && blob.length > 0 ? blob : null);
+			result = SessionDataCompression.CODEC_NONE;
+		}
+		return result;
+	}
+
+	/**
+	 * Write the modified attributes. In delta mode, attributes at or above the threshold are written as a diff against the
+	 * image this node last persisted, until the chain reaches its maximum length, the diff stops paying off, or the base
+	 * is no longer cached; then the full image is written again and the chain restarts (rebase).
+	 *
+	 * @param deltaBaseUpdates receives the new delta base per written attribute key (null to forget it), to be applied
+	 *            once the transaction commits
+	 */
+	protected void persistSessionModifiedAttributes(final Connection conn, final String session_id, final SessionSerializationData ssd,
+			final Map<String, DeltaBase> deltaBaseUpdates) throws SQLException {
 		final Collection<SessionAttributeRecord> modifiedSessionAttributeRecords = ssd.getModifiedSessionAttributeRecords();
 		if (!modifiedSessionAttributeRecords.isEmpty()) {
 			for (final SessionAttributeRecord r : modifiedSessionAttributeRecords) {
-				if (isSessionModifiedAttributeExists(conn, session_id, r)) {
+				final boolean exists = isSessionModifiedAttributeExists(conn, session_id, r);
+				if (isDeltaCandidate(r)) {
+					final DeltaBase base = exists ? deltaBases.get(session_id, r.key) : null;
+					final byte[] delta = base != null && base.chainLength < deltaMaxChainLength ? diff(base, r) : null;
+					if (delta != null) {
+						final int delta_seq = base.chainLength + 1;
+						insertSessionAttributeDelta(conn, session_id, r, delta_seq, delta);
+						deltaBaseUpdates.put(r.key, new DeltaBase(r.data, delta_seq));
+						deltaWriteCount.incrementAndGet();
+						deltaBytesSaved.addAndGet(r.data.length - delta.length);
+						continue;
+					}
+					if (exists)
+						deleteSessionAttributeDeltas(conn, session_id, r);
+					deltaBaseUpdates.put(r.key, new DeltaBase(r.data, 0));
+					deltaRebaseCount.incrementAndGet();
+				} else if (deltaEncodingThreshold > 0) {
+					deltaBaseUpdates.put(r.key, null);
+				}
+				if (exists) {
 					updateSessionModifiedAttributes(conn, session_id, r);
 				} else {
+					if (deltaEncodingThreshold > 0) {
+						// a chain left behind by an earlier value of the key would collide with the new one
+						deleteSessionAttributeDeltas(conn, session_id, r);
+					}
 					insertSessionModifiedAttributes(conn, session_id, r);
 				}
 			}
 		}
 	}
 
+	private boolean isDeltaCandidate(final SessionAttributeRecord r) {
+		return deltaEncodingThreshold > 0 && r.data != null && r.data.length >= deltaEncodingThreshold;
+	}
+
+	/**
+	 * @return the delta from the base to the record data, or null if it is not small enough to be worth a chain link
+	 */
+	private byte[] diff(final DeltaBase base, final SessionAttributeRecord r) throws SQLException {
+		final byte[] result;
+		try {
+			result = BinaryDelta.diff(base.image, r.data);
+		} catch (final IOException e) {
+			throw new SQLException("Problem computing delta for attribute [" + r.key + "]", e);
+		}
+		if ((long) result.length * 100 > (long) r.data.length * deltaMaxSizePercent)
+			return null;
+		return result;
+	}
+
+	private void insertSessionAttributeDelta(final Connection conn, final String session_id, final SessionAttributeRecord r, final int delta_seq,
+			final byte[] delta) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = conn.prepareStatement(insertSessionAttributeDeltaSQL);
+			ps.setString(1, session_id);
+			ps.setString(2, r.key);
+			ps.setInt(3, delta_seq);
+			ps.setBytes(4, delta);
+			ps.executeUpdate();
+			ps.close();
+			ps = null;
+
+			ps = conn.prepareStatement(updateSessionAttributeDeltaSQL);
+			ps.setTimestamp(1, new Timestamp(System.currentTimeMillis()));
+			ps.setInt(2, r.update_count);
+			ps.setInt(3, r.data_length);
+			ps.setString(4, r.data_checksum);
+			ps.setString(5, r.data_type);
+			ps.setInt(6, delta_seq);
+			ps.setString(7, session_id);
+			ps.setString(8, r.key);
+			ps.executeUpdate();
+			log.info("Update attribute [" + r.key + "] with delta " + delta_seq + " for " + delta.length + " of " + r.data_length + " bytes");
+			ps.close();
+			ps = null;
+		} finally {
+			closeFinally(null, ps, null);
+		}
+	}
+
+	private void deleteSessionAttributeDeltas(final Connection conn, final String session_id, final SessionAttributeRecord r) throws SQLException {
+		PreparedStatement ps = null;
+		try {
+			ps = conn.prepareStatement(deleteSessionAttributeDeltasSQL);
+			ps.setString(1, session_id);
+			ps.setString(2, r.key);
+			ps.executeUpdate();
+			ps.close();
+			ps = null;
+		} finally {
+			closeFinally(null, ps, null);
+		}
+	}
+
+	private void updateDeltaBases(final String session_id, final Map<String, DeltaBase> deltaBaseUpdates, final boolean committed) {
+		if (deltaEncodingThreshold <= 0)
+			return;
+		for (final Map.Entry<String, DeltaBase> entry : deltaBaseUpdates.entrySet()) {
+			if (committed && entry.getValue() != null) {
+				deltaBases.put(session_id, entry.getKey(), entry.getValue());
+			} else {
+				// not written, or no longer a delta candidate: the next large write of this key starts with a full image
+				deltaBases.remove(session_id, entry.getKey());
+			}
+		}
+	}
+
 	protected void persistSessionRemovedAttributes(final Connection conn, final String session_id, final SessionSerializationData ssd) throws SQLException {
 		PreparedStatement ps = null;
 		try {
@@ -836,6 +1688,17 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 				ps.executeBatch();
 				ps.close();
 				ps = null;
+
+				// the delta chains of the removed attributes go with them, a later value of the key starts a chain of its own
+				ps = conn.prepareStatement(deleteSessionAttributeDeltasSQL);
+				ps.setString(1, session_id);
+				for (final String key : removedSessionAttributes) {
+					ps.setString(2, key);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				ps.close();
+				ps = null;
 			}
 		} finally {
 			closeFinally(null, ps, null);
@@ -930,17 +1793,24 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 	private volatile DataSource dataSource;
 	private final Object lock = new Object();
 
+	// how long a caller waits for a pooled connection, and for the health probe's validity check
+	private static final long CONNECTION_MAX_WAIT_MS = FoundationUtil.getInteger("catalina.sessionStoreConnectionMaxWaitMs", 2000);
+	private static final int PROBE_TIMEOUT_SECONDS = FoundationUtil.getInteger("catalina.sessionStoreProbeTimeoutSeconds", 2);
+
 	private DataSource getDataSource() throws SQLException {
-		BasicDataSource result = null;				
+		// one pool for the store, not one per call
+		DataSource result = dataSource;
 		if (result == null) {
 			synchronized (lock) {
+				result = dataSource;
 				if (result == null) {
-					result = new BasicDataSource();
-					result.setDriverClassName("org.mariadb.jdbc.Driver");
-					result.setUrl("jdbc:mariadb://localhost:3306/sadb");
-					result.setUsername("root");
-					result.setPassword("root");        
-					return result;
+					final BasicDataSource ds = new BasicDataSource();
+					ds.setDriverClassName("org.mariadb.jdbc.Driver");
+					ds.setUrl("jdbc:mariadb://localhost:3306/sadb");
+					ds.setUsername("root");
+					ds.setPassword("root");
+					ds.setMaxWait(CONNECTION_MAX_WAIT_MS);
+					dataSource = result = ds;
 				}
 			}
 		}
@@ -953,6 +1823,20 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 		return result;
 	}
 
+	@Override
+	protected void probeStore() throws IOException {
+		Connection conn = null;
+		try {
+			conn = getConnection();
+			if (!conn.isValid(PROBE_TIMEOUT_SECONDS))
+				throw new SQLException("Connection did not answer within " + PROBE_TIMEOUT_SECONDS + "s");
+		} catch (final SQLException e) {
+			throw new IOException("Session store did not answer the health probe", e);
+		} finally {
+			closeFinally(conn, null, null);
+		}
+	}
+
 	@Override
 	public boolean isStoreAvailable() {
 		boolean result;
@@ -965,6 +1849,105 @@ public class DBFoundationSessionStore extends BaseFoundationSessionStore {
 		return result;
 	}
 	
+	/**
+	 * Last persisted full image of an attribute and the number of deltas stored on top of the row holding its base.
+	 */
+	static final class DeltaBase {
+		final byte[] image;
+		final int chainLength;
+
+		DeltaBase(final byte[] image, final int chainLength) {
+			this.image = image;
+			this.chainLength = chainLength;
+		}
+	}
+
+	/**
+	 * Attribute being reassembled from its base row and delta rows during load.
+	 */
+	private static final class DeltaChain {
+		final SessionAttributeRecord record;
+		final int length;
+		byte[] image;
+		int applied;
+
+		DeltaChain(final SessionAttributeRecord record, final int length, final byte[] image) {
+			this.record = record;
+			this.length = length;
+			this.image = image;
+		}
+	}
+
+	/**
+	 * Delta bases per session, least recently used sessions are dropped once the total image size exceeds the bound.
+	 */
+	private static final class DeltaBaseCache {
+		private final long maxBytes;
+		private final LinkedHashMap<String, Map<String, DeltaBase>> sessions = new LinkedHashMap<String, Map<String, DeltaBase>>(16, 0.75f, true);
+		private long bytes;
+
+		DeltaBaseCache(final long maxBytes) {
+			this.maxBytes = maxBytes;
+		}
+
+		synchronized DeltaBase get(final String session_id, final String key) {
+			final Map<String, DeltaBase> bases = sessions.get(session_id);
+			return bases == null ? null : bases.get(key);
+		}
+
+		synchronized void put(final String session_id, final String key, final DeltaBase base) {
+			Map<String, DeltaBase> bases = sessions.get(session_id);
+			if (bases == null) {
+				bases = new HashMap<String, DeltaBase>();
+				sessions.put(session_id, bases);
+			}
+			final DeltaBase previous = bases.put(key, base);
+			if (previous != null)
+				bytes -= previous.image.length;
+			bytes += base.image.length;
+
+			final Iterator<Map<String, DeltaBase>> it = sessions.values().iterator();
+			while (bytes > maxBytes && it.hasNext()) {
+				final Map<String, DeltaBase> eldest = it.next();
+				if (eldest == bases)
+					continue;
+				bytes -= size(eldest);
+				it.remove();
+			}
+		}
+
+		synchronized void remove(final String session_id, final String key) {
+			final Map<String, DeltaBase> bases = sessions.get(session_id);
+			if (bases != null) {
+				final DeltaBase previous = bases.remove(key);
+				if (previous != null)
+					bytes -= previous.image.length;
+				if (bases.isEmpty())
+					sessions.remove(session_id);
+			}
+		}
+
+		synchronized void remove(final String session_id) {
+			final Map<String, DeltaBase> bases = sessions.remove(session_id);
+			if (bases != null)
+				bytes -= size(bases);
+		}
+
+		synchronized void rename(final String old_session_id, final String new_session_id) {
+			final Map<String, DeltaBase> bases = sessions.remove(old_session_id);
+			if (bases != null)
+				sessions.put(new_session_id, bases);
+		}
+
+		private static long size(final Map<String, DeltaBase> bases) {
+			long result = 0;
+			for (final DeltaBase base : bases.values()) {
+				result += base.image.length;
+			}
+			return result;
+		}
+	}
+
 	public static void main(String[] args){
 		DBFoundationSessionStore s = new DBFoundationSessionStore();
 		try {
@@ -0,0 +1,104 @@
+package org.apache.catalina.session;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.catalina.Manager;
+
+/**
+ * Description: the session created by {@link FoundationSessionManager}.
+ * <p/>
+ * Gives the store direct access to the attribute map and the timestamps it has to restore on load, which a plain
+ * {@link StandardSession} only exposes through reflection, and records which attribute keys were set or removed since
+ * the changes were last captured, so that the capture only needs to examine those keys (plus attributes that may have
+ * been mutated in place).
+ *
+ * @author jim631@sina.com
+ */
+public class FoundationSession extends StandardSession {
+
+	private static final long serialVersionUID = 1L;
+
+	// keys set or removed since the last drainWrittenKeys(), written by request threads and drained by the capture
+	private final transient Set<String> writtenKeys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	public FoundationSession(final Manager manager) {
+		super(manager);
+	}
+
+	/**
+	 * @return the live attribute map of the session
+	 */
+	public Map<String, Object> getAttributeMap() {
+		return attributes;
+	}
+
+	/**
+	 * Set the id without registering the session with the manager or firing session events, as a session that is
+	 * restored from the store must not be announced as new.
+	 */
+	public void setIdInternal(final String id) {
+		this.id = id;
+	}
+
+	public void setLastAccessedTimeInternal(final long lastAccessedTime) {
+		this.lastAccessedTime = lastAccessedTime;
+	}
+
+	public void setThisAccessedTimeInternal(final long thisAccessedTime) {
+		this.thisAccessedTime = thisAccessedTime;
+	}
+
+	@Override
+	public void setMaxInactiveInterval(final int interval) {
+		super.setMaxInactiveInterval(interval);
+		// a shorter interval has to move the session up in the expiry index, a longer one is picked up lazily
+		if (manager instanceof FoundationSessionManager)
+			((FoundationSessionManager) manager).scheduleExpiryCheck(this);
+	}
+
+	@Override
+	public void setAttribute(final String name, final Object value, final boolean notify) {
+		super.setAttribute(name, value, notify);
+		if (name != null)
+			writtenKeys.add(name);
+	}
+
+	@Override
+	public void removeAttribute(final String name, final boolean notify) {
+		super.removeAttribute(name, notify);
+		if (name != null)
+			writtenKeys.add(name);
+	}
+
+	/**
+	 * Take the keys written on the session since the last call. A key written concurrently is either returned now or
+	 * kept for the next call, never lost.
+	 *
+	 * @return the written keys, empty if the session was only read
+	 */
+	public Set<String> drainWrittenKeys() {
+		if (writtenKeys.isEmpty())
+			return Collections.emptySet();
+		final Set<String> result = new HashSet<String>();
+		for (final Iterator<String> it = writtenKeys.iterator(); it.hasNext();) {
+			result.add(it.next());
+			it.remove();
+		}
+		return result;
+	}
+
+	/**
+	 * @return the live attribute map of any session; only sessions not created by {@link FoundationSessionManager}
+	 * fall back to reflection
+	 */
+	static Map<String, Object> attributesOf(final StandardSession session) {
+		if (session instanceof FoundationSession)
+			return ((FoundationSession) session).attributes;
+		return ReflectionUtils.getSessionAttributes(session);
+	}
+}
@@ -3,9 +3,18 @@ package org.apache.catalina.session;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
@@ -45,6 +54,14 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
 
   private static final boolean isInactiveSessionEvictionEnabled = !System.getProperty("catalina.enableInactiveSessionEviction", "true").equals("false");
   private static final int inactiveSessionEvictionTimeoutSeconds = FoundationUtil.getInteger("catalina.inactiveSessionEvictionTimeoutSeconds", 600); // ten minutes
+  private static final boolean isSessionAttributeWriteTrackingEnabled = !System.getProperty("catalina.enableSessionAttributeWriteTracking", "true").equals("false");
+  private static final boolean isSessionExpiryIndexEnabled = !System.getProperty("catalina.enableSessionExpiryIndex", "true").equals("false");
+  // every this many background cycles all sessions are visited, in case one was never indexed
+  private static final int sessionExpiryFullSweepCycles = FoundationUtil.getInteger("catalina.sessionExpiryFullSweepCycles", 60);
+  // threads a sweep is split across, and the sessions one of them looks at in one go
+  private static final int sessionSweepParallelism = FoundationUtil.getInteger("catalina.sessionSweepParallelism",
+      Math.min(4, Runtime.getRuntime().availableProcessors()));
+  private static final int sessionSweepSplitThreshold = Math.max(1, FoundationUtil.getInteger("catalina.sessionSweepSplitThreshold", 2048));
   
   //private static final boolean enableSfedisZookeeper = System.getProperty(SfedisConstants.ENABLE_SFEDIS_ZOOKEEPER).equals("true");
   //private static final String zookeeperAddress = System.getProperty(SfedisConstants.ZOOKEEPER_ADDRESS);
@@ -52,6 +69,13 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
   private FoundationSessionStore store;
   private final Object maxActiveUpdateLock;
 
+  // sessions in memory by the time they are next due for expiry or eviction, so that a sweep only visits those
+  private final SessionExpiryIndex expiryIndex = isSessionExpiryIndexEnabled ? new SessionExpiryIndex(1000) : null;
+  private int expiryCyclesSinceFullSweep;
+  private ForkJoinPool sweepPool;
+  // old ids of the sessions whose id is being changed
+  private final Set<String> changingSessionIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
   //private String zookeeperAddress;
   //private String enableSfedisZookeeper;
 
@@ -108,9 +132,24 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     return;
   }
 
+  /**
+   * Capture the changes of every session in memory, so that stopping the store writes them with the rest of its backlog
+   * instead of losing what changed since the last capture.
+   */
   @Override
   public void unload() throws IOException {
-    return;
+    if (!isFoundationSessionManagerEnabledAndDataSourceAvailable())
+      return;
+    int captured = 0;
+    for (final Session session : findSessions()) {
+      try {
+        store.processChanges(session, null);
+        captured++;
+      } catch (final IOException | RuntimeException e) {
+        log.severe("Unable to capture session on unload: " + session.getIdInternal() + ": " + e.getMessage());
+      }
+    }
+    log.info("Captured " + captured + " session(s) on unload");
   }
 
   /**
@@ -131,6 +170,19 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     store.setManager(this);
   }
 
+  /**
+   * @return true if captures only examine the attributes written on the {@link FoundationSession} since the last
+   * capture, false if every capture has to examine all attributes
+   */
+  public boolean isSessionAttributeWriteTrackingEnabled() {
+    return isSessionAttributeWriteTrackingEnabled;
+  }
+
+  @Override
+  protected StandardSession getNewSession() {
+    return new FoundationSession(this);
+  }
+
   @Override
   public synchronized void startInternal() throws LifecycleException {
     super.startInternal();
@@ -143,6 +195,9 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
       }
     }
     store.start();
+    if (sessionSweepParallelism > 1) {
+      sweepPool = new ForkJoinPool(sessionSweepParallelism);
+    }
     if (isFoundationSessionManagerEnabled) {
       log.info(NAME + " is enabled");
     } else {
@@ -159,7 +214,17 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
 
   @Override
   public void stopInternal() throws LifecycleException {
+    try {
+      unload();
+    } catch (final IOException e) {
+      log.severe("Unable to unload sessions: " + e.getMessage());
+    }
     super.stopInternal();
+    final ForkJoinPool pool = sweepPool;
+    sweepPool = null;
+    if (pool != null) {
+      pool.shutdown();
+    }
     store.stop();
     setState(LifecycleState.STOPPING);
   }
@@ -175,6 +240,7 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     final String id = session.getIdInternal();
     final Session result = cache.putIfAbsent(id, session);
     if (result == null) {
+      scheduleExpiryCheck(session);
       // since we know we put a new element into the map
       final int size = getActiveSessions();
       if (size > maxActive) {
@@ -188,6 +254,58 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     return result;
   }
 
+  @Override
+  public void add(final Session session) {
+    super.add(session);
+    scheduleExpiryCheck(session);
+  }
+
+  /**
+   * Index the session in memory for the next time it may expire or be evicted; an earlier time it is indexed for
+   * already stays.
+   */
+  public void scheduleExpiryCheck(final Session session) {
+    final String id = session.getIdInternal();
+    if (expiryIndex != null && id != null && sessions.get(id) == session) {
+      expiryIndex.schedule(id, getNextExpiryCheckTime(session));
+    }
+  }
+
+  private long getNextExpiryCheckTime(final Session session) {
+    final long accessedTime = session.getThisAccessedTimeInternal();
+    long result = Long.MAX_VALUE;
+    final int maxInactiveInterval = session.getMaxInactiveInterval();
+    if (maxInactiveInterval > 0) {
+      result = accessedTime + maxInactiveInterval * 1000L;
+    }
+    if (isInactiveSessionEvictionEnabled && inactiveSessionEvictionTimeoutSeconds > 0) {
+      result = Math.min(result, accessedTime + inactiveSessionEvictionTimeoutSeconds * 1000L);
+    }
+    return result;
+  }
+
+  /**
+   * @return the sessions in memory that are due for a look, taken out of the expiry index
+   */
+  private Session[] findDueSessions(final long timeNow) {
+    final List<String> ids = expiryIndex.pollDue(timeNow);
+    final List<Session> result = new ArrayList<Session>(ids.size());
+    for (final String id : ids) {
+      final Session session = sessions.get(id);
+      if (session != null) {
+        result.add(session);
+      }
+    }
+    return result.toArray(new Session[result.size()]);
+  }
+
+  /**
+   * @return true if the session is active in this manager, without loading it
+   */
+  public boolean isSessionInMemory(final String id) {
+    return sessions.containsKey(id);
+  }
+
   @Override
   public Session findSession(final String id) throws IOException {
     if (id == null)
@@ -232,8 +350,9 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     try {
       super.remove(session, update);
     } finally {
-      if (isFoundationSessionManagerEnabledAndDataSourceAvailable()) {
-        final String id = session.getIdInternal();
+      final String id = session.getIdInternal();
+      // not skipped while the store is down: it defers the removal, or fails loudly, rather than let the session come back
+      if (isFoundationSessionManagerEnabled && !changingSessionIds.contains(id)) {
         try {
           store.remove(id);
         } catch (final IOException e) {
@@ -250,7 +369,7 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
       try {
         sessions.remove(id);
       } finally {
-        if (isFoundationSessionManagerEnabledAndDataSourceAvailable()) {
+        if (isFoundationSessionManagerEnabled) {
           store.remove(id);
         }
       }
@@ -259,15 +378,34 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
 
   @Override
   public void changeSessionId(final Session session) {
-    //String oldId = session.getIdInternal();
-    super.changeSessionId(session);
-    //String newId = session.getIdInternal();
-    // TODO maybe rename session with oldId to newId in the DB
+    if (!isFoundationSessionManagerEnabledAndDataSourceAvailable()) {
+      super.changeSessionId(session);
+      return;
+    }
+    final String oldId = session.getIdInternal();
+    // the session is removed under its old id and added under the new one: its store rows move, they are not removed
+    changingSessionIds.add(oldId);
+    try {
+      super.changeSessionId(session);
+    } finally {
+      changingSessionIds.remove(oldId);
+    }
+    final String newId = session.getIdInternal();
+    if (expiryIndex != null) {
+      expiryIndex.remove(oldId);
+    }
+    try {
+      store.changeSessionId(oldId, newId);
+    } catch (final IOException e) {
+      //log.error("Unable to change session id: " + oldId, e);
+      log.severe("Unable to move session " + oldId + " to its new id " + newId + ": " + e.getMessage());
+    }
   }
 
   public void processSessionChanges(final Session session, final Request request) throws IOException {
 	log.info("Manager processSessionChanges start.");
     if (isFoundationSessionManagerEnabledAndDataSourceAvailable()) {
+      final long start = System.nanoTime();
       try {
         store.processChanges(session, request);
       } catch (final IOException e) {
@@ -275,6 +413,9 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
         final String message = "Unable to save session data: " + id;
         //log.error(message, e);
         throw new IOException(message, e);
+      } finally {
+        if (store instanceof AsyncFoundationSessionStoreWrapper)
+          ((AsyncFoundationSessionStoreWrapper) store).getFoundationSessionStoreMonitoring().recordSessionCapture(System.nanoTime() - start);
       }
     }
     log.info("Manager processSessionChanges end.");
@@ -292,31 +433,22 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     if (isFoundationSessionManagerEnabled) {
       final long timeNow = System.currentTimeMillis();
       final long cutoffTime = getSessionEvictionCutoffTime(timeNow);
-      final Session sessions[] = findSessions();
-
-      int expiredHere = 0;
-      int evictedHere = 0;
+      // the sessions that are due per the index, and every so often all of them
+      final boolean fullSweep = expiryIndex == null || ++expiryCyclesSinceFullSweep >= sessionExpiryFullSweepCycles;
+      final Session sessions[];
+      if (fullSweep) {
+        expiryCyclesSinceFullSweep = 0;
+        sessions = findSessions();
+      } else {
+        sessions = findDueSessions(timeNow);
+      }
 
       //if (log.isTraceEnabled())
         log.info("Start expire sessions " + getName() + " at " + timeNow);
 
-      for (int i = 0; i < sessions.length; i++) {
-        final Session session = sessions[i];
-        if (session != null) {
-          // note this will automatically evict sessions BECOMING invalid
-          final boolean sessionIsInvalid = !session.isValid();
-          if (sessionIsInvalid) {
-            expiredHere++;
-
-            // make sure that the session if marked invalid really IS out of the map
-            final String sessionID = session.getIdInternal();
-            evict(sessionID);
-          } else if (evictSessionIfInactive(session, cutoffTime)) {
-            // evict the session if it has been inactive
-            evictedHere++;
-          }
-        }
-      }
+      final SweepResult swept = sweep(sessions, cutoffTime);
+      final int expiredHere = swept.expired.get();
+      final int evictedHere = evictInactiveSessions(swept.inactive);
 
       // remove any expired sessions that are in the store only and not in the cache
       final int expiredStoredSessions = processExpiredStoredSessions();
@@ -324,7 +456,7 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
       // mark end of time for the background process
       final long timeEnd = System.currentTimeMillis();
       //if (log.isDebugEnabled() && (expiredHere > 0 || expiredStoredSessions > 0 || evictedHere > 0)) {
-        log.info("\tsessioncount " + sessions.length);
+        log.info("\tsessioncount " + getActiveSessions() + ", visited " + sessions.length + (fullSweep ? " (full sweep)" : ""));
         log.info("\tExpired sessions: " + expiredHere + ", expired stored sessions: " + expiredStoredSessions + ", evicted sessions: " + evictedHere);
       //}
       //if (log.isTraceEnabled())
@@ -383,6 +515,9 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
    */
   public boolean evict(final String sessionID) {
     final Session session = sessions.remove(sessionID);
+    if (expiryIndex != null) {
+      expiryIndex.remove(sessionID);
+    }
 
     final boolean result = session != null;
     if (result) {
@@ -390,7 +525,7 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     }
     //also remove from the cache.
     log.info("evict(): Removed the session from Session Cache: " + sessionID);
-    store.sessionCache().remove(sessionID);
+    store.evict(sessionID);
     return result;
   }
 
@@ -414,35 +549,136 @@ public class FoundationSessionManager extends BaseFoundationSessionManager {
     if (isInactiveSessionEvictionEnabled) {
       final long currentTime = System.currentTimeMillis();
       final long cutoffTime = getSessionEvictionCutoffTime(currentTime);
-      for (final Map.Entry<String, Session> entry : sessions.entrySet()) {
-        final Session session = entry.getValue();
-        evictSessionIfInactive(session, cutoffTime);
-      }
+      evictInactiveSessions(sweep(findSessions(), cutoffTime).inactive);
     }
   }
 
-  private boolean evictSessionIfInactive(final Session session, final long cutoffTime) {
-    final long lastAccessedTime = session.getThisAccessedTimeInternal(); // don't need a validation check here!
-    final boolean result;
-    if (lastAccessedTime <= cutoffTime && session.isValid()) {
+  /**
+   * Look at the given sessions, split across the sweep pool once there are enough of them: evict the invalid ones,
+   * collect those inactive since the cutoff time, and index the others again.
+   */
+  private SweepResult sweep(final Session[] sessions, final long cutoffTime) {
+    final SweepResult result = new SweepResult();
+    // session listeners fired by the expiry run in the webapp's class loader, as on the background thread
+    final SweepTask task = new SweepTask(sessions, 0, sessions.length, cutoffTime, result, Thread.currentThread().getContextClassLoader());
+    final ForkJoinPool pool = sweepPool;
+    if (pool != null && sessions.length > sessionSweepSplitThreshold) {
+      pool.invoke(task);
+    } else {
+      task.invoke();
+    }
+    return result;
+  }
+
+  private void sweep(final Session session, final long cutoffTime, final SweepResult result) {
+    // note this will automatically evict sessions BECOMING invalid
+    final boolean sessionIsInvalid = !session.isValid();
+    if (sessionIsInvalid) {
+      result.expired.incrementAndGet();
+
+      // make sure that the session if marked invalid really IS out of the map
       final String sessionID = session.getIdInternal();
+      evict(sessionID);
+    } else if (session.getThisAccessedTimeInternal() <= cutoffTime) {
+      // evict the session if it has been inactive, once its data is saved
+      result.inactive.add(session);
+    } else {
+      // accessed since it was indexed: look again at its new deadline
+      scheduleExpiryCheck(session);
+    }
+  }
 
-      // store the session data if anything is dirty
+  /**
+   * Capture every attribute of the inactive sessions (picking up those mutated in place on read-only requests), save
+   * them as one batch through the store's persistence pipeline, then evict those that were saved; the others keep their
+   * unsaved changes in memory and are looked at again with the next sweep.
+   *
+   * @return the number of sessions evicted
+   */
+  private int evictInactiveSessions(final Collection<Session> inactive) {
+    if (inactive.isEmpty())
+      return 0;
+    final List<String> ids = new ArrayList<String>(inactive.size());
+    for (final Session session : inactive) {
       try {
-        store.flush(session.getId());
-      } catch (final IOException e) {
-        //log.error("Unable to save session: " + sessionID, e);
+        store.processChanges(session, null);
+        ids.add(session.getIdInternal());
+      } catch (final IOException | RuntimeException e) {
+        log.severe("Unable to capture session before eviction: " + session.getIdInternal() + ": " + e.getMessage());
+      }
+    }
+    final Set<String> saved = store.flush(ids);
+    int result = 0;
+    for (final Session session : inactive) {
+      final String sessionID = session.getIdInternal();
+      if (saved.contains(sessionID)) {
+        // a copy on local disk brings the user back faster than a load from the store
+        final boolean passivated = session instanceof StandardSession && store.passivate((StandardSession) session);
+        log.info("Session " + sessionID + (passivated ? " passivated" : " evicted") + ", inactive for > " + inactiveSessionEvictionTimeoutSeconds + " second(s)");
+        if (evict(sessionID))
+          result++;
+      } else {
+        log.info("Session " + sessionID + " not evicted, it could not be saved");
+        scheduleExpiryCheck(session);
       }
-
-      // evict the session if successful
-      log.info("Session " + sessionID + " evicted, inactive for > " + inactiveSessionEvictionTimeoutSeconds + " second(s)");
-      result = evict(sessionID);
-    } else {
-      result = false;
     }
     return result;
   }
 
+  /**
+   * Outcome of a sweep, filled in by the sweep tasks concurrently.
+   */
+  private static final class SweepResult {
+    private final AtomicInteger expired = new AtomicInteger();
+    private final Queue<Session> inactive = new ConcurrentLinkedQueue<Session>();
+  }
+
+  /**
+   * Sweep of a range of sessions, halved until the ranges are small enough to be looked at in one go.
+   */
+  private final class SweepTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Session[] sessions;
+    private final int from;
+    private final int to;
+    private final long cutoffTime;
+    private final SweepResult result;
+    private final ClassLoader classLoader;
+
+    SweepTask(final Session[] sessions, final int from, final int to, final long cutoffTime, final SweepResult result, final ClassLoader classLoader) {
+      this.sessions = sessions;
+      this.from = from;
+      this.to = to;
+      this.cutoffTime = cutoffTime;
+      this.result = result;
+      this.classLoader = classLoader;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from > sessionSweepSplitThreshold) {
+        final int middle = (from + to) >>> 1;
+        invokeAll(new SweepTask(sessions, from, middle, cutoffTime, result, classLoader),
+            new SweepTask(sessions, middle, to, cutoffTime, result, classLoader));
+        return;
+      }
+      final Thread thread = Thread.currentThread();
+      final ClassLoader previous = thread.getContextClassLoader();
+      thread.setContextClassLoader(classLoader);
+      try {
+        for (int i = from; i < to; i++) {
+          final Session session = sessions[i];
+          if (session != null) {
+            sweep(session, cutoffTime, result);
+          }
+        }
+      } finally {
+        thread.setContextClassLoader(previous);
+      }
+    }
+  }
+
   private ObjectName storeMBeanName;
 
   @Override
@@ -2,6 +2,9 @@ package org.apache.catalina.session;
 
 import java.io.IOException;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletException;
 
 import org.apache.catalina.Session;
@@ -11,6 +14,12 @@ import org.apache.catalina.connector.Response;
 import org.apache.catalina.valves.ValveBase;
 import java.util.logging.Logger;
 
+/**
+ * Captures the session changes of each request once the response has been sent, and hands them to the store's
+ * persistence pipeline, so that users never wait for the session backup.
+ *
+ * @author jim631@sina.com
+ */
 public class FoundationSessionManagerValve extends ValveBase{
 	
 	private static final Logger log = Logger.getLogger(FoundationSessionManagerValve.class.getName());
@@ -34,17 +43,69 @@ public class FoundationSessionManagerValve extends ValveBase{
 
 	@Override
 	public void invoke(final Request request, final Response response) throws IOException, ServletException {
+		boolean completed = false;
 		try {
 			final Valve nextValve = getNext();
 			nextValve.invoke(request, response);
+			completed = true;
 		} finally {
-//			try {
-//				final Session session = request.getSessionInternal(false);
-//				manager.processSessionChanges(session, request);
-//			} catch (final Exception e) {
-//				log.info("Problem saving session:" + e.getMessage());
-//			}
+			if (manager != null) {
+				if (request.isAsyncStarted()) {
+					// the request carries on on another thread, capture once it is done
+					request.getAsyncContext().addListener(new SessionCaptureAsyncListener(request));
+				} else {
+					captureSessionChanges(request, response, completed);
+				}
+			}
+		}
+	}
+
+	private void captureSessionChanges(final Request request, final Response response, final boolean finishResponse) {
+		// get the response out to the client first so the capture does not add to the response time; errors are left
+		// alone, the host still has to render the error page into the response
+		if (finishResponse && !response.isError() && request.getAttribute(RequestDispatcher.ERROR_EXCEPTION) == null) {
+			try {
+				response.finishResponse();
+			} catch (final IOException e) {
+				// most likely the client went away, the session changes are still worth keeping
+				log.info("Problem finishing response before session capture:" + e.getMessage());
+			}
+		}
+		try {
+			final Session session = request.getSessionInternal(false);
+			manager.processSessionChanges(session, request);
+		} catch (final Exception e) {
+			log.info("Problem saving session:" + e.getMessage());
+		}
+	}
+
+	private class SessionCaptureAsyncListener implements AsyncListener {
+		private final Request request;
+
+		SessionCaptureAsyncListener(final Request request) {
+			this.request = request;
+		}
+
+		@Override
+		public void onComplete(final AsyncEvent event) {
+			// the container has already completed the response
+			captureSessionChanges(request, null, false);
+		}
+
+		@Override
+		public void onTimeout(final AsyncEvent event) {
+			// onComplete follows
+		}
+
+		@Override
+		public void onError(final AsyncEvent event) {
+			// onComplete follows
+		}
+
+		@Override
+		public void onStartAsync(final AsyncEvent event) {
+			event.getAsyncContext().addListener(this);
 		}
 	}
 	
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package org.apache.catalina.session;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Set;
 
 import org.apache.catalina.Lifecycle;
@@ -36,6 +37,40 @@ public interface FoundationSessionStore extends Store, Lifecycle {
 	 */
 	public void flush(final SessionSerializationData ssd) throws IOException;
 
+	/**
+	 * Save several sessions, those with nothing to save included, together rather than one after the other.
+	 *
+	 * @param sessionIds sessions to persist/save
+	 * @return ids of the sessions that are saved; a session missing failed to save and keeps its changes
+	 */
+	public Set<String> flush(final Collection<String> sessionIds);
+
+	/**
+	 * Keep a copy of a saved session that is evicted from memory close at hand, so that it is brought back faster than
+	 * by loading it from the store; the store still holds the session for the other nodes.
+	 *
+	 * @param session session about to be evicted, with no unsaved changes
+	 * @return true if a copy is kept
+	 */
+	public boolean passivate(final StandardSession session);
+
+	/**
+	 * Forget what is kept in memory for a session evicted from memory; the store still holds the session.
+	 *
+	 * @param sessionId id of the evicted session
+	 */
+	public void evict(final String sessionId);
+
+	/**
+	 * Move a session to the id it was given (session fixation protection), keeping what is stored and its baseline,
+	 * rather than saving it anew under the new id and leaving the rows of the old id behind.
+	 *
+	 * @param oldId id the session had
+	 * @param newId id the session has now
+	 * @throws java.io.IOException if the session could not be moved
+	 */
+	public void changeSessionId(final String oldId, final String newId) throws IOException;
+
 	/**
 	 * Examine the given session for changes and possibly persist or queue for later persistence.
 	 *
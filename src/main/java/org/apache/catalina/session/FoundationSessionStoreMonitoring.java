@@ -15,9 +15,76 @@ public class FoundationSessionStoreMonitoring implements FoundationSessionStoreM
 	protected int maxPoolSize = 10;
 	protected long executorThreadPoolThreadTTLMs = 10*1000; //unit MILLISECONDS so this is 10 seconds.
 	protected int executorQueueMaxCapacity = 5000;
+	// number of lanes the queue is partitioned into by session id (each gets executorQueueMaxCapacity / lanes)
+	protected int persistenceLaneCount = 16;
+	// what a worker does when its lane runs empty, and for how long, before it gives the worker back to the pool
+	protected PartitionedPersistenceExecutor.WaitStrategy persistenceLaneWaitStrategy = PartitionedPersistenceExecutor.WaitStrategy.YIELD;
+	protected long persistenceLaneIdleWaitMicros = 50;
+	// share of the workers' turns per persistence class (first persist, attribute change, header only) while all are waiting
+	protected int[] persistencePriorityWeights = PersistencePriority.getDefaultWeights();
+	// attempts to save a snapshot, with an exponential backoff (jittered) between them, before it becomes a dead letter
+	protected int maxPersistAttempts = 5;
+	protected long persistRetryBaseDelayMs = 100;
+	protected long persistRetryMaxDelayMs = 10*1000;
+	// dead letters kept at most, one per session; the oldest is dropped beyond that
+	protected int deadLetterCapacity = 1000;
+	// circuit breaker: consecutive store failures that open it, how long it stays open before the health probe tries
+	// the store again, and how often the probe checks the store
+	protected boolean circuitBreakerEnabled = true;
+	protected int circuitFailureThreshold = 3;
+	protected long circuitOpenDurationMs = 5000;
+	protected long healthProbeIntervalMs = 1000;
+	// how long stopping the store may take to write the queued sessions before the rest is given up
+	protected long shutdownDrainTimeoutMs = 30*1000;
+	// how long the background sweep waits for the saves of the sessions it evicts
+	protected long evictionFlushTimeoutMs = 10*1000;
+	// size of the local swap file evicted sessions are passivated to (<= 0 evicts them to the store only), and where
+	// it is created
+	protected int swapFileSizeMb = 64;
+	protected String swapFileDirectory = System.getProperty("java.io.tmpdir");
+	// how long a login waits for the store to move its session to the new id before the session is saved in full
+	// under the new id instead
+	protected long sessionIdChangeTimeoutMs = 5000;
+	// failover warm-up: sessions of a departed node fetched at most per warm-up, per query and in parallel, how long a
+	// fetched session waits for its first request, and the loads of one foreign node's sessions within the window that
+	// start a warm-up of that node by themselves (<= 0 only on demand)
+	protected int warmUpMaxSessions = 1000;
+	protected int warmUpBatchSize = 50;
+	protected int warmUpParallelism = 2;
+	protected long prefetchTtlMs = 5*60*1000;
+	protected int warmUpTriggerLoads = 3;
+	protected long warmUpTriggerWindowMs = 60*1000;
+	// restored sessions are made this node's every adoption interval, in batches (<= 0 leaves it to their next save);
+	// every heartbeat interval the node records that it is alive and takes over the sessions of nodes silent for the
+	// heartbeat timeout (<= 0 does neither)
+	protected long adoptionFlushIntervalMs = 1000;
+	protected int adoptionBatchSize = 200;
+	protected long nodeHeartbeatIntervalMs = 10*1000;
+	protected long nodeHeartbeatTimeoutMs = 60*1000;
+	// ids the store does not hold are answered from memory for this long (<= 0 asks the store every time), at most
+	// this many of them
+	protected long negativeCacheTtlMs = 5000;
+	protected int negativeCacheMaxSize = 10000;
+	// Bloom filter of the ids the store holds: rebuilt from all ids every rebuild interval, the ids accessed since the
+	// last scan (minus the overlap) added every refresh interval. A session another node stored since then is
+	// answered as absent here until the next refresh, so this is off by default
+	protected boolean bloomFilterEnabled = false;
+	protected int bloomFilterExpectedSessions = 100000;
+	protected int bloomFilterBitsPerSession = 10;
+	protected long bloomFilterRefreshIntervalMs = 5000;
+	protected long bloomFilterRebuildIntervalMs = 10*60*1000;
+	protected long bloomFilterScanOverlapMs = 60*1000;
+	// size the worker pool by the save latency (adaptive limit) rather than by the queue depth thresholds
+	protected boolean adaptiveConcurrencyEnabled = true;
 	// thresholds at which the core thread count for the executor goes up a thread)
 	protected int[] executorThreadPoolQueuePercentageSizeThresholds = new int[] { 10, 20, 30, 30, 50, 50, 60, 70, 80, 100 };
 	protected int[] executorThreadPoolQueueSizeThresholds = new int[] { 300, 600, 700, 800, Integer.MAX_VALUE };
+	// window over which access time only changes are coalesced before being written as one batch (<= 0 writes them through)
+	protected long touchFlushIntervalMs = 1000;
+	// a session's changes are saved once it has not changed for this long (<= 0 saves every change right away),
+	// but no later than the staleness bound after its first unsaved change
+	protected long minPersistIntervalMs = 0;
+	protected long maxPersistStalenessMs = 5000;
 
 
 
@@ -39,6 +106,67 @@ public class FoundationSessionStoreMonitoring implements FoundationSessionStoreM
 	protected  volatile long sessionSaveLastTime;
 	protected  volatile long processChangesMaxWaitLockTime=0;
 
+	// statistical tracking for the per-request capture of session changes (request thread, after the response)
+	protected  final AtomicInteger sessionCaptureCounter = new AtomicInteger();
+	protected  final AtomicLong sessionCaptureTotalTimeNanos = new AtomicLong();
+	protected  volatile long sessionCaptureMaxTimeNanos;
+	protected  volatile long sessionCaptureLastTimeNanos;
+
+	// statistical tracking for access time only changes
+	protected  final AtomicInteger totalSessionsTouched = new AtomicInteger();
+	protected  final AtomicInteger sessionTouchesSavedCounter = new AtomicInteger();
+	protected  final AtomicInteger touchBatchCounter = new AtomicInteger();
+	protected  volatile long touchBatchSaveLastTime;
+
+	// statistical tracking for held back (debounced) saves
+	protected  final AtomicInteger totalSessionsDebounced = new AtomicInteger();
+	protected  final AtomicInteger sessionSavesDebounced = new AtomicInteger();
+
+	// statistical tracking for saves that failed on every attempt
+	protected  final AtomicInteger totalSessionsDeadLettered = new AtomicInteger();
+	protected  final AtomicInteger totalDeadLettersDropped = new AtomicInteger();
+
+	// statistical tracking for the store health probe
+	protected  final AtomicInteger healthProbeFailures = new AtomicInteger();
+	protected  final AtomicInteger totalDeferredRemovals = new AtomicInteger();
+	protected  final AtomicInteger totalDeferredRemovalsReplayed = new AtomicInteger();
+	protected  volatile long healthProbeLastTime;
+
+	// outcome of the last shutdown drain
+	protected  volatile long shutdownSessionsFlushed;
+	protected  volatile long shutdownSessionsAbandoned;
+	protected  volatile long shutdownDrainTime;
+
+	// statistical tracking for the saves of evicted sessions
+	protected  final AtomicInteger totalEvictionFlushes = new AtomicInteger();
+	protected  final AtomicInteger evictionSessionsFlushed = new AtomicInteger();
+	protected  final AtomicInteger evictionFlushFailures = new AtomicInteger();
+
+	// statistical tracking for the sessions passivated to the swap file
+	protected  final AtomicInteger totalSessionsPassivated = new AtomicInteger();
+	protected  final AtomicInteger passivationHits = new AtomicInteger();
+	protected  final AtomicInteger passivationStale = new AtomicInteger();
+
+	// statistical tracking for session id changes
+	protected  final AtomicInteger totalSessionIdChanges = new AtomicInteger();
+	protected  final AtomicInteger sessionIdChangeFallbacks = new AtomicInteger();
+
+	// statistical tracking for the failover warm-up
+	protected  final AtomicInteger totalWarmUps = new AtomicInteger();
+	protected  final AtomicInteger totalSessionsPrefetched = new AtomicInteger();
+	protected  final AtomicInteger prefetchHits = new AtomicInteger();
+	protected  final AtomicInteger prefetchStale = new AtomicInteger();
+	protected  final AtomicInteger prefetchExpired = new AtomicInteger();
+
+	// statistical tracking for session ownership
+	protected  final AtomicInteger totalSessionsAdopted = new AtomicInteger();
+	protected  final AtomicInteger totalOrphanedSessionsAdopted = new AtomicInteger();
+	protected  final AtomicInteger heartbeatFailures = new AtomicInteger();
+
+	// statistical tracking for lookups of ids the store does not hold
+	protected  final AtomicInteger negativeCacheHits = new AtomicInteger();
+	protected  final AtomicInteger bloomFilterRejections = new AtomicInteger();
+
 	protected  volatile long queueSize;
 	protected  volatile long queueSizeMax;
 	protected  volatile int cacheSize;
@@ -223,7 +351,539 @@ public class FoundationSessionStoreMonitoring implements FoundationSessionStoreM
 		return store.getCacheSize();
 	}
 
+	// persistence lane metrics
+
+	public int getPersistenceLaneCount() {
+		return persistenceLaneCount;
+	}
+
+	public String getPersistenceLaneWaitStrategy() {
+		return persistenceLaneWaitStrategy.name();
+	}
+
+	public long getPersistenceLaneIdleWaitMicros() {
+		return persistenceLaneIdleWaitMicros;
+	}
+
+	public String getPersistenceLaneQueueSizes() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? "" : FoundationUtil.buildCommaDelimitedString(lanes.getLaneQueueSizes());
+	}
+
+	public String getPersistenceLaneQueueMaxSizes() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? "" : FoundationUtil.buildCommaDelimitedString(lanes.getLaneQueueMaxSizes());
+	}
+
+	public String getPersistenceLaneSessionsSaved() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? "" : FoundationUtil.buildCommaDelimitedString(lanes.getLaneSessionsPersisted());
+	}
+
+	public String getPersistencePriorityClasses() {
+		final StringBuilder sb = new StringBuilder();
+		for (final PersistencePriority priority : PersistencePriority.values()) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(priority.name());
+		}
+		return sb.toString();
+	}
+
+	public String getPersistencePriorityWeights() {
+		return FoundationUtil.buildCommaDelimitedString(persistencePriorityWeights);
+	}
+
+	public String getPrioritySessionsSaved() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? "" : FoundationUtil.buildCommaDelimitedString(lanes.getPrioritySessionsPersisted());
+	}
+
+	public String getPriorityAverageTimeInQueue() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? "" : FoundationUtil.buildCommaDelimitedString(lanes.getPriorityAverageTimeInQueue());
+	}
+
+	public String getPriorityMaxTimeInQueue() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? "" : FoundationUtil.buildCommaDelimitedString(lanes.getPriorityMaxTimeInQueue());
+	}
+
+	public long getTotalSessionsCoalesced() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? 0 : lanes.getTotalSessionsCoalesced();
+	}
+
+	public long getTotalSessionsRejected() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? 0 : lanes.getTotalSessionsRejected();
+	}
+
+	// adaptive concurrency metrics
+
+	public boolean isAdaptiveConcurrencyEnabled() {
+		return adaptiveConcurrencyEnabled;
+	}
+
+	public int getConcurrencyLimit() {
+		final AdaptiveConcurrencyLimit limit = store.getConcurrencyLimit();
+		return limit == null ? maxPoolSize : limit.getLimit();
+	}
+
+	public long getConcurrencyLimitShortRttMicros() {
+		final AdaptiveConcurrencyLimit limit = store.getConcurrencyLimit();
+		return limit == null ? 0 : limit.getShortRttMicros();
+	}
+
+	public long getConcurrencyLimitNoLoadRttMicros() {
+		final AdaptiveConcurrencyLimit limit = store.getConcurrencyLimit();
+		return limit == null ? 0 : limit.getNoLoadRttMicros();
+	}
+
+	public int getSessionSaveThroughputPerSecond() {
+		final AdaptiveConcurrencyLimit limit = store.getConcurrencyLimit();
+		return limit == null ? 0 : limit.getThroughputPerSecond();
+	}
+
+	public int getInflightSessionSaves() {
+		return store.getInflightSaves();
+	}
+
+	// session capture metrics
+
+	public void recordSessionCapture(final long durationNanos) {
+		sessionCaptureCounter.incrementAndGet();
+		sessionCaptureTotalTimeNanos.addAndGet(durationNanos);
+		sessionCaptureLastTimeNanos = durationNanos;
+		if (sessionCaptureMaxTimeNanos < durationNanos)
+			sessionCaptureMaxTimeNanos = durationNanos;
+	}
+
+	public int getTotalSessionCaptures() {
+		return sessionCaptureCounter.get();
+	}
+
+	public long getSessionCaptureAverageTimeMicros() {
+		final long result;
+		final int count = sessionCaptureCounter.get();
+		if (count == 0) {
+			result = 0;
+		} else {
+			result = sessionCaptureTotalTimeNanos.get() / count / 1000;
+		}
+		return result;
+	}
+
+	public long getSessionCaptureMaxTimeMicros() {
+		return sessionCaptureMaxTimeNanos / 1000;
+	}
+
+	public long getSessionCaptureLastTimeMicros() {
+		return sessionCaptureLastTimeNanos / 1000;
+	}
+
+	// access time (touch) metrics
+
+	public long getTouchFlushIntervalMs() {
+		return touchFlushIntervalMs;
+	}
+
+	public int getTotalSessionsTouched() {
+		return totalSessionsTouched.get();
+	}
+
+	public int getTotalSessionTouchesSaved() {
+		return sessionTouchesSavedCounter.get();
+	}
+
+	public int getTotalTouchBatchesSaved() {
+		return touchBatchCounter.get();
+	}
+
+	public long getTouchBatchSaveLastTime() {
+		return touchBatchSaveLastTime;
+	}
+
+	public int getPendingTouchCount() {
+		return store.getPendingTouchCount();
+	}
+
+	// debounced save metrics
+
+	public long getMinPersistIntervalMs() {
+		return minPersistIntervalMs;
+	}
+
+	public long getMaxPersistStalenessMs() {
+		return maxPersistStalenessMs;
+	}
+
+	public int getTotalSessionsDebounced() {
+		return totalSessionsDebounced.get();
+	}
+
+	public int getTotalSessionSavesDebounced() {
+		return sessionSavesDebounced.get();
+	}
+
+	public int getPendingSaveCount() {
+		return store.getPendingSaveCount();
+	}
+
+	// failed save metrics
+
+	public int getMaxPersistAttempts() {
+		return maxPersistAttempts;
+	}
+
+	public long getPersistRetryBaseDelayMs() {
+		return persistRetryBaseDelayMs;
+	}
+
+	public long getPersistRetryMaxDelayMs() {
+		return persistRetryMaxDelayMs;
+	}
+
+	public long getTotalPersistFailures() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? 0 : lanes.getTotalPersistFailures();
+	}
+
+	public long getTotalPersistRetries() {
+		final PartitionedPersistenceExecutor lanes = store.getPersistenceLanes();
+		return lanes == null ? 0 : lanes.getTotalPersistRetries();
+	}
+
+	public int getDeadLetterCapacity() {
+		return deadLetterCapacity;
+	}
+
+	public int getDeadLetterCount() {
+		return store.getDeadLetterCount();
+	}
+
+	public int getTotalSessionsDeadLettered() {
+		return totalSessionsDeadLettered.get();
+	}
+
+	public int getTotalDeadLettersDropped() {
+		return totalDeadLettersDropped.get();
+	}
+
+	// circuit breaker metrics
+
+	public boolean isCircuitBreakerEnabled() {
+		return circuitBreakerEnabled;
+	}
+
+	public String getCircuitState() {
+		final StoreCircuitBreaker breaker = store.getCircuitBreaker();
+		return breaker == null ? "" : breaker.getState().name();
+	}
+
+	public long getCircuitOpenedCount() {
+		final StoreCircuitBreaker breaker = store.getCircuitBreaker();
+		return breaker == null ? 0 : breaker.getOpenedCount();
+	}
+
+	public long getCircuitRejectedCount() {
+		final StoreCircuitBreaker breaker = store.getCircuitBreaker();
+		return breaker == null ? 0 : breaker.getRejectedCount();
+	}
+
+	public int getHealthProbeFailures() {
+		return healthProbeFailures.get();
+	}
+
+	public long getHealthProbeLastTime() {
+		return healthProbeLastTime;
+	}
+
+	public int getPendingRemovalCount() {
+		return store.getPendingRemovalCount();
+	}
+
+	public int getTotalDeferredRemovals() {
+		return totalDeferredRemovals.get();
+	}
+
+	public int getTotalDeferredRemovalsReplayed() {
+		return totalDeferredRemovalsReplayed.get();
+	}
+
+	// shutdown drain metrics
+
+	public long getShutdownDrainTimeoutMs() {
+		return shutdownDrainTimeoutMs;
+	}
+
+	public long getShutdownSessionsFlushed() {
+		return shutdownSessionsFlushed;
+	}
+
+	public long getShutdownSessionsAbandoned() {
+		return shutdownSessionsAbandoned;
+	}
+
+	public long getShutdownDrainTime() {
+		return shutdownDrainTime;
+	}
 
+	// eviction flush metrics
+
+	public long getEvictionFlushTimeoutMs() {
+		return evictionFlushTimeoutMs;
+	}
+
+	public int getTotalEvictionFlushes() {
+		return totalEvictionFlushes.get();
+	}
+
+	public int getEvictionSessionsFlushed() {
+		return evictionSessionsFlushed.get();
+	}
+
+	public int getEvictionFlushFailures() {
+		return evictionFlushFailures.get();
+	}
+
+	// passivation metrics
+
+	public int getSwapFileSizeMb() {
+		return swapFileSizeMb;
+	}
+
+	public String getSwapFileDirectory() {
+		return swapFileDirectory;
+	}
+
+	public int getTotalSessionsPassivated() {
+		return totalSessionsPassivated.get();
+	}
+
+	public int getPassivationHits() {
+		return passivationHits.get();
+	}
+
+	public int getPassivationStale() {
+		return passivationStale.get();
+	}
+
+	public int getPassivatedSessionCount() {
+		return store.getPassivatedSessionCount();
+	}
+
+	public long getSwapFileUsedBytes() {
+		return store.getSwapFileUsedBytes();
+	}
+
+	public long getSwapFileOverwrittenCount() {
+		return store.getSwapFileOverwrittenCount();
+	}
+
+	// session id change metrics
+
+	public long getSessionIdChangeTimeoutMs() {
+		return sessionIdChangeTimeoutMs;
+	}
+
+	public int getTotalSessionIdChanges() {
+		return totalSessionIdChanges.get();
+	}
+
+	public int getSessionIdChangeFallbacks() {
+		return sessionIdChangeFallbacks.get();
+	}
+
+	// failover warm-up metrics
+
+	public int getWarmUpMaxSessions() {
+		return warmUpMaxSessions;
+	}
+
+	public int getWarmUpBatchSize() {
+		return warmUpBatchSize;
+	}
+
+	public int getWarmUpParallelism() {
+		return warmUpParallelism;
+	}
+
+	public long getPrefetchTtlMs() {
+		return prefetchTtlMs;
+	}
+
+	public int getWarmUpTriggerLoads() {
+		return warmUpTriggerLoads;
+	}
+
+	public long getWarmUpTriggerWindowMs() {
+		return warmUpTriggerWindowMs;
+	}
+
+	public int getTotalWarmUps() {
+		return totalWarmUps.get();
+	}
+
+	public int getTotalSessionsPrefetched() {
+		return totalSessionsPrefetched.get();
+	}
+
+	public int getPrefetchedSessionCount() {
+		return store.getPrefetchedSessionCount();
+	}
+
+	public int getPrefetchHits() {
+		return prefetchHits.get();
+	}
+
+	public int getPrefetchStale() {
+		return prefetchStale.get();
+	}
+
+	public int getPrefetchExpired() {
+		return prefetchExpired.get();
+	}
+
+	public String getNodesWarmingUp() {
+		return store.getNodesWarmingUp().toString();
+	}
+
+	// session ownership metrics
+
+	public long getAdoptionFlushIntervalMs() {
+		return adoptionFlushIntervalMs;
+	}
+
+	public int getAdoptionBatchSize() {
+		return adoptionBatchSize;
+	}
+
+	public long getNodeHeartbeatIntervalMs() {
+		return nodeHeartbeatIntervalMs;
+	}
+
+	public long getNodeHeartbeatTimeoutMs() {
+		return nodeHeartbeatTimeoutMs;
+	}
+
+	public int getPendingAdoptionCount() {
+		return store.getPendingAdoptionCount();
+	}
+
+	public int getTotalSessionsAdopted() {
+		return totalSessionsAdopted.get();
+	}
+
+	public int getTotalOrphanedSessionsAdopted() {
+		return totalOrphanedSessionsAdopted.get();
+	}
+
+	public int getHeartbeatFailures() {
+		return heartbeatFailures.get();
+	}
+
+	// unknown session id metrics
+
+	public long getNegativeCacheTtlMs() {
+		return negativeCacheTtlMs;
+	}
+
+	public int getNegativeCacheMaxSize() {
+		return negativeCacheMaxSize;
+	}
+
+	public int getNegativeCacheSize() {
+		return store.getNegativeCacheSize();
+	}
+
+	public int getNegativeCacheHits() {
+		return negativeCacheHits.get();
+	}
+
+	public boolean isBloomFilterEnabled() {
+		return bloomFilterEnabled;
+	}
+
+	public int getBloomFilterRejections() {
+		return bloomFilterRejections.get();
+	}
+
+	public int getBloomFilterSessionIds() {
+		return store.getSessionIdRebuildCount();
+	}
+
+	public int getBloomFilterBitCount() {
+		final SessionIdBloomFilter filter = store.getSessionIdFilter();
+		return filter == null ? 0 : filter.getBitCount();
+	}
+
+	public double getBloomFilterFalsePositivePercent() {
+		final SessionIdBloomFilter filter = store.getSessionIdFilter();
+		return filter == null ? 0 : filter.getFalsePositivePercent();
+	}
+
+	// attribute compression metrics
+
+	public long getTotalAttributesCompressed() {
+		return SessionDataCompression.getCompressedCount();
+	}
+
+	public long getCompressionInputBytes() {
+		return SessionDataCompression.getCompressionInputBytes();
+	}
+
+	public long getCompressionOutputBytes() {
+		return SessionDataCompression.getCompressionOutputBytes();
+	}
+
+	public int getCompressionRatioPercent() {
+		final int result;
+		final long input = SessionDataCompression.getCompressionInputBytes();
+		if (input == 0) {
+			result = 100;
+		} else {
+			result = (int) (SessionDataCompression.getCompressionOutputBytes() * 100 / input);
+		}
+		return result;
+	}
+
+	public long getCompressionTotalTimeMicros() {
+		final long result = SessionDataCompression.getCompressionTimeNanos() / 1000;
+		return result;
+	}
+
+	public long getCompressionAverageTimeMicros() {
+		final long result;
+		final long count = SessionDataCompression.getCompressedCount();
+		if (count == 0) {
+			result = 0;
+		} else {
+			result = getCompressionTotalTimeMicros() / count;
+		}
+		return result;
+	}
+
+
+	// attribute delta encoding metrics
+
+	public long getTotalAttributeDeltaWrites() {
+		return DBFoundationSessionStore.getDeltaWriteCount();
+	}
+
+	public long getTotalAttributeDeltaRebases() {
+		return DBFoundationSessionStore.getDeltaRebaseCount();
+	}
+
+	public long getAttributeDeltaBytesSaved() {
+		return DBFoundationSessionStore.getDeltaBytesSaved();
+	}
+
+	// version fencing metrics
+
+	public long getTotalStaleWritesRejected() {
+		return DBFoundationSessionStore.getStaleWriteCount();
+	}
 
 	// JMX utility methods
 
@@ -242,8 +902,66 @@ public class FoundationSessionStoreMonitoring implements FoundationSessionStoreM
 		sessionSaveLastTime = 0;
 		processChangesMaxWaitLockTime = 0;
 
+		sessionCaptureCounter.set(0);
+		sessionCaptureTotalTimeNanos.set(0);
+		sessionCaptureMaxTimeNanos = 0;
+		sessionCaptureLastTimeNanos = 0;
+
+		totalSessionsTouched.set(0);
+		sessionTouchesSavedCounter.set(0);
+		touchBatchCounter.set(0);
+		touchBatchSaveLastTime = 0;
+
+		totalSessionsDebounced.set(0);
+		sessionSavesDebounced.set(0);
+
+		totalSessionsDeadLettered.set(0);
+		totalDeadLettersDropped.set(0);
+
+		totalEvictionFlushes.set(0);
+		evictionSessionsFlushed.set(0);
+		evictionFlushFailures.set(0);
+
+		totalSessionsPassivated.set(0);
+		passivationHits.set(0);
+		passivationStale.set(0);
+
+		totalSessionIdChanges.set(0);
+		sessionIdChangeFallbacks.set(0);
+
+		totalWarmUps.set(0);
+		totalSessionsPrefetched.set(0);
+		prefetchHits.set(0);
+		prefetchStale.set(0);
+		prefetchExpired.set(0);
+
+		totalSessionsAdopted.set(0);
+		totalOrphanedSessionsAdopted.set(0);
+		heartbeatFailures.set(0);
+
+		negativeCacheHits.set(0);
+		bloomFilterRejections.set(0);
+
+		healthProbeFailures.set(0);
+		totalDeferredRemovals.set(0);
+		totalDeferredRemovalsReplayed.set(0);
+		healthProbeLastTime = 0;
+		final StoreCircuitBreaker breaker = store.getCircuitBreaker();
+		if (breaker != null)
+			breaker.resetCounters();
+
+		SessionDataCompression.resetCounters();
+		DBFoundationSessionStore.resetCounters();
+
 		trackingStartTime = System.currentTimeMillis();
 
 		store.resetExecutor();
 			}
+
+	/**
+	 * Fetch the most recently used sessions the given node stored into this node, ahead of their first request here.
+	 */
+	public void warmUpNode(final String nodeID) {
+		store.warmUpNode(nodeID);
+	}
 }
@@ -70,8 +70,266 @@ public interface FoundationSessionStoreMonitoringMBean {
 
 	public int getCacheSize() ;
 
+	// persistence lane metrics
+
+	public int getPersistenceLaneCount();
+
+	public String getPersistenceLaneWaitStrategy();
+
+	public long getPersistenceLaneIdleWaitMicros();
+
+	public String getPersistenceLaneQueueSizes();
+
+	public String getPersistenceLaneQueueMaxSizes();
+
+	public String getPersistenceLaneSessionsSaved();
+
+	public String getPersistencePriorityClasses();
+
+	public String getPersistencePriorityWeights();
+
+	public String getPrioritySessionsSaved();
+
+	public String getPriorityAverageTimeInQueue();
+
+	public String getPriorityMaxTimeInQueue();
+
+	public long getTotalSessionsCoalesced();
+
+	public long getTotalSessionsRejected();
+
+	// adaptive concurrency metrics
+
+	public boolean isAdaptiveConcurrencyEnabled();
+
+	public int getConcurrencyLimit();
+
+	public long getConcurrencyLimitShortRttMicros();
+
+	public long getConcurrencyLimitNoLoadRttMicros();
+
+	public int getSessionSaveThroughputPerSecond();
+
+	public int getInflightSessionSaves();
+
+	// session capture metrics
+
+	public int getTotalSessionCaptures();
+
+	public long getSessionCaptureAverageTimeMicros();
+
+	public long getSessionCaptureMaxTimeMicros();
+
+	public long getSessionCaptureLastTimeMicros();
+
+	// access time (touch) metrics
+
+	public long getTouchFlushIntervalMs();
+
+	public int getTotalSessionsTouched();
+
+	public int getTotalSessionTouchesSaved();
+
+	public int getTotalTouchBatchesSaved();
+
+	public long getTouchBatchSaveLastTime();
+
+	public int getPendingTouchCount();
+
+	// debounced save metrics
+
+	public long getMinPersistIntervalMs();
+
+	public long getMaxPersistStalenessMs();
+
+	public int getTotalSessionsDebounced();
+
+	public int getTotalSessionSavesDebounced();
+
+	public int getPendingSaveCount();
+
+	// failed save metrics
+
+	public int getMaxPersistAttempts();
+
+	public long getPersistRetryBaseDelayMs();
+
+	public long getPersistRetryMaxDelayMs();
+
+	public long getTotalPersistFailures();
+
+	public long getTotalPersistRetries();
+
+	public int getDeadLetterCapacity();
+
+	public int getDeadLetterCount();
+
+	public int getTotalSessionsDeadLettered();
+
+	public int getTotalDeadLettersDropped();
+
+	// circuit breaker metrics
+
+	public boolean isCircuitBreakerEnabled();
+
+	public String getCircuitState();
+
+	public long getCircuitOpenedCount();
+
+	public long getCircuitRejectedCount();
+
+	public int getHealthProbeFailures();
+
+	public long getHealthProbeLastTime();
+
+	public int getPendingRemovalCount();
+
+	public int getTotalDeferredRemovals();
+
+	public int getTotalDeferredRemovalsReplayed();
+
+	// shutdown drain metrics
+
+	public long getShutdownDrainTimeoutMs();
+
+	public long getShutdownSessionsFlushed();
+
+	public long getShutdownSessionsAbandoned();
+
+	public long getShutdownDrainTime();
+
+	// eviction flush metrics
+
+	public long getEvictionFlushTimeoutMs();
+
+	public int getTotalEvictionFlushes();
+
+	public int getEvictionSessionsFlushed();
+
+	public int getEvictionFlushFailures();
+
+	// passivation metrics
+
+	public int getSwapFileSizeMb();
+
+	public String getSwapFileDirectory();
+
+	public int getTotalSessionsPassivated();
+
+	public int getPassivationHits();
+
+	public int getPassivationStale();
+
+	public int getPassivatedSessionCount();
+
+	public long getSwapFileUsedBytes();
+
+	public long getSwapFileOverwrittenCount();
+
+	// session id change metrics
+
+	public long getSessionIdChangeTimeoutMs();
+
+	public int getTotalSessionIdChanges();
+
+	public int getSessionIdChangeFallbacks();
+
+	// failover warm-up metrics
+
+	public int getWarmUpMaxSessions();
+
+	public int getWarmUpBatchSize();
+
+	public int getWarmUpParallelism();
+
+	public long getPrefetchTtlMs();
+
+	public int getWarmUpTriggerLoads();
+
+	public long getWarmUpTriggerWindowMs();
+
+	public int getTotalWarmUps();
+
+	public int getTotalSessionsPrefetched();
+
+	public int getPrefetchedSessionCount();
+
+	public int getPrefetchHits();
+
+	public int getPrefetchStale();
+
+	public int getPrefetchExpired();
+
+	public String getNodesWarmingUp();
+
+	// session ownership metrics
+
+	public long getAdoptionFlushIntervalMs();
+
+	public int getAdoptionBatchSize();
+
+	public long getNodeHeartbeatIntervalMs();
+
+	public long getNodeHeartbeatTimeoutMs();
+
+	public int getPendingAdoptionCount();
+
+	public int getTotalSessionsAdopted();
+
+	public int getTotalOrphanedSessionsAdopted();
+
+	public int getHeartbeatFailures();
+
+	// unknown session id metrics
+
+	public long getNegativeCacheTtlMs();
+
+	public int getNegativeCacheMaxSize();
+
+	public int getNegativeCacheSize();
+
+	public int getNegativeCacheHits();
+
+	public boolean isBloomFilterEnabled();
+
+	public int getBloomFilterRejections();
+
+	public int getBloomFilterSessionIds();
+
+	public int getBloomFilterBitCount();
+
+	public double getBloomFilterFalsePositivePercent();
+
+	// attribute compression metrics
+
+	public long getTotalAttributesCompressed();
+
+	public long getCompressionInputBytes();
+
+	public long getCompressionOutputBytes();
+
+	public int getCompressionRatioPercent();
+
+	public long getCompressionTotalTimeMicros();
+
+	public long getCompressionAverageTimeMicros();
+
+	// attribute delta encoding metrics
+
+	public long getTotalAttributeDeltaWrites();
+
+	public long getTotalAttributeDeltaRebases();
+
+	public long getAttributeDeltaBytesSaved();
+
+	// version fencing metrics
+
+	public long getTotalStaleWritesRejected();
+
 	// JMX utility methods
 
 	public void resetCounters() ;
 
+	public void warmUpNode(final String nodeID) ;
+
 }
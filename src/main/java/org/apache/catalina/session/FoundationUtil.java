@@ -227,6 +227,18 @@ public class FoundationUtil {
 		return sb.toString();
 	}
 
+	public static String buildCommaDelimitedString(final long[] array) {
+		final StringBuilder sb = new StringBuilder();
+		if (array != null) {
+			for (int i = 0; i < array.length; i++) {
+				if (i > 0)
+					sb.append(',');
+				sb.append(array[i]);
+			}
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * Generate a stack trace string for the given thread (or the current thread
 	 * if null).  This stack trace simulates that which would be output by an
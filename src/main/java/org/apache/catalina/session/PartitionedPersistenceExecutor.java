@@ -0,0 +1,633 @@
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import java.util.logging.Logger;
+
+/**
+ * Description: runs session persistence on a shared pool of workers, partitioned into lanes by session id.
+ * <p/>
+ * A session always hashes to the same lane and a lane is worked on by at most one worker at a time, so the snapshots of
+ * a session are stored in the order they were captured. Different lanes are worked on in parallel.
+ * <p/>
+ * Each lane is a preallocated multi-producer single-consumer ring buffer: a request thread claims a slot with one CAS,
+ * fills it and publishes its sequence, without locking or allocating. Only when the lane is idle does the producer
+ * hand the lane to the worker pool. A worker drains its lane in batches and, once the lane is empty, waits for more
+ * according to the {@link WaitStrategy} before giving the worker back, so a busy lane is not rescheduled per snapshot.
+ * <p/>
+ * The worker moves the published snapshots of its lane into a window holding at most one snapshot per session: a
+ * snapshot of a session that is already waiting is merged into the waiting one
+ * ({@link SessionSerializationData#mergeFrom(SessionSerializationData)}), which keeps its time queued and takes the
+ * higher {@link PersistencePriority} of the two. From the window the worker stores the classes in weighted round robin,
+ * so a session that was never stored overtakes the incremental updates queued before it without starving them. As a
+ * session never has more than one snapshot in the window, this does not reorder the snapshots of a session.
+ * <p/>
+ * A snapshot that fails to store goes back into the window, where it waits out an exponential backoff with jitter
+ * before it is tried again; later snapshots of the session are merged into it meanwhile, so a retry never overwrites a
+ * newer save. After the maximum number of attempts it is handed to {@link #persistFailed(SessionSerializationData, IOException)}.
+ * <p/>
+ * On shutdown {@link #drain(long)} runs every lane that has snapshots waiting, with retries due right away, until the
+ * lanes are empty or the deadline has passed.
+ *
+ * @author jim631@sina.com
+ */
+public abstract class PartitionedPersistenceExecutor {
+
+	private static final Logger log = Logger.getLogger(PartitionedPersistenceExecutor.class.getName());
+
+	// snapshots a worker stores from one lane before handing the worker to the other lanes
+	private static final int LANE_BATCH_SIZE = 16;
+
+	private static final PersistencePriority[] PRIORITIES = PersistencePriority.values();
+
+	private static final Comparator<PendingSnapshot> BY_NOT_BEFORE = new Comparator<PendingSnapshot>() {
+		@Override
+		public int compare(final PendingSnapshot a, final PendingSnapshot b) {
+			return a.notBefore < b.notBefore ? -1 : a.notBefore == b.notBefore ? 0 : 1;
+		}
+	};
+
+	/**
+	 * What a worker does when its lane runs empty, before giving the worker back to the pool.
+	 */
+	public enum WaitStrategy {
+		/** give the worker back right away; the next snapshot reschedules the lane */
+		RELEASE,
+		/** busy spin for the idle wait time, lowest latency, burns a core */
+		SPIN,
+		/** {@link Thread#yield()} for the idle wait time */
+		YIELD,
+		/** park in short steps for the idle wait time, cheapest on CPU */
+		PARK;
+
+		public static WaitStrategy fromString(final String value, final WaitStrategy defaultValue) {
+			if (value == null || value.length() == 0)
+				return defaultValue;
+			try {
+				return valueOf(value.trim().toUpperCase());
+			} catch (final IllegalArgumentException e) {
+				log.severe("Unknown persistence lane wait strategy " + value + "; using " + defaultValue);
+				return defaultValue;
+			}
+		}
+	}
+
+	private static final long PARK_STEP_NANOS = 10 * 1000;
+
+	private final ThreadPoolExecutor workers;
+	private final Lane[] lanes;
+	private final WaitStrategy waitStrategy;
+	private final long idleWaitNanos;
+	// snapshots of each class stored per round while the higher classes are waiting as well
+	private final int[] priorityWeights;
+	// attempts per snapshot and the backoff between them; the timer wakes up lanes whose retries are due
+	private final int maxPersistAttempts;
+	private final long retryBaseDelayMs;
+	private final long retryMaxDelayMs;
+	private final ScheduledExecutorService retryTimer;
+
+	private final AtomicLong persistFailures = new AtomicLong();
+	private final AtomicLong persistRetries = new AtomicLong();
+	private final AtomicLong sessionsGivenUp = new AtomicLong();
+
+	// shutting down: retries are not backed off any more
+	private volatile boolean draining;
+
+	// per class statistics, indexed by PersistencePriority ordinal
+	private final AtomicLongArray prioritySessionsPersisted = new AtomicLongArray(PRIORITIES.length);
+	private final AtomicLongArray priorityTimeInQueueTotal = new AtomicLongArray(PRIORITIES.length);
+	private final AtomicLongArray priorityTimeInQueueMax = new AtomicLongArray(PRIORITIES.length);
+
+	/**
+	 * @param laneCount number of lanes
+	 * @param laneCapacity maximum number of snapshots per lane waiting to be taken into the window, and of sessions
+	 * waiting in the window, rounded up to a power of two
+	 * @param workers pool the lanes are worked on; it needs room for one task per lane
+	 * @param waitStrategy what a worker does when its lane runs empty
+	 * @param idleWaitNanos how long a worker waits for more snapshots in its lane before giving the worker back
+	 * @param priorityWeights weight of each {@link PersistencePriority}, in declaration order
+	 * @param maxPersistAttempts attempts to store a snapshot before giving up on it
+	 * @param retryBaseDelayMs backoff before the first retry, doubled for each further one
+	 * @param retryMaxDelayMs cap of the backoff
+	 * @param retryTimer timer that wakes up a lane when its next retry is due
+	 */
+	public PartitionedPersistenceExecutor(final int laneCount, final int laneCapacity, final ThreadPoolExecutor workers, final WaitStrategy waitStrategy,
+			final long idleWaitNanos, final int[] priorityWeights, final int maxPersistAttempts, final long retryBaseDelayMs,
+			final long retryMaxDelayMs, final ScheduledExecutorService retryTimer) {
+		super();
+		if (laneCount < 1)
+			throw new IllegalArgumentException("laneCount must be at least 1");
+		if (priorityWeights == null || priorityWeights.length != PRIORITIES.length)
+			throw new IllegalArgumentException("priorityWeights must have one weight per persistence priority");
+		for (final int weight : priorityWeights) {
+			if (weight < 1)
+				throw new IllegalArgumentException("priorityWeights must be at least 1");
+		}
+		this.priorityWeights = priorityWeights.clone();
+		this.maxPersistAttempts = Math.max(1, maxPersistAttempts);
+		this.retryBaseDelayMs = Math.max(1, retryBaseDelayMs);
+		this.retryMaxDelayMs = Math.max(this.retryBaseDelayMs, retryMaxDelayMs);
+		this.retryTimer = retryTimer;
+		this.workers = workers;
+		this.waitStrategy = waitStrategy;
+		this.idleWaitNanos = waitStrategy == WaitStrategy.RELEASE ? 0 : idleWaitNanos;
+		int capacity = 1;
+		while (capacity < laneCapacity && capacity < (1 << 30))
+			capacity <<= 1;
+		this.lanes = new Lane[laneCount];
+		for (int i = 0; i < laneCount; i++) {
+			lanes[i] = new Lane(capacity);
+		}
+	}
+
+	/**
+	 * Store the snapshot.
+	 *
+	 * @param ssd snapshot handed off for persistence
+	 * @param timeQueued time the snapshot was queued, for the time-in-queue statistics
+	 */
+	protected abstract void persist(final SessionSerializationData ssd, final long timeQueued) throws IOException;
+
+	/**
+	 * Called when the snapshot failed on every attempt; by default it is dropped.
+	 *
+	 * @param ssd snapshot that could not be stored
+	 * @param cause failure of the last attempt
+	 */
+	protected void persistFailed(final SessionSerializationData ssd, final IOException cause) {
+		log.severe("Giving up on session " + ssd.getId() + " after " + maxPersistAttempts + " attempts: " + cause.getMessage());
+	}
+
+	/**
+	 * @return backoff before the given retry: exponential up to the cap, of which a random half is taken off so that
+	 * snapshots failing together do not come back together
+	 */
+	long retryDelay(final int attempt) {
+		final long delay = Math.min(retryMaxDelayMs, retryBaseDelayMs << Math.min(attempt - 1, 30));
+		final long half = delay / 2;
+		return delay - half + ThreadLocalRandom.current().nextLong(half + 1);
+	}
+
+	/**
+	 * Queue the snapshot in the lane of its session.
+	 *
+	 * @return false if the lane is full and the snapshot was not queued
+	 */
+	public boolean submit(final SessionSerializationData ssd) {
+		return laneOf(ssd.getId()).submit(ssd);
+	}
+
+	private Lane laneOf(final String sessionId) {
+		final int h = sessionId.hashCode();
+		return lanes[((h ^ (h >>> 16)) & 0x7fffffff) % lanes.length];
+	}
+
+	/**
+	 * @return number of snapshots waiting in all lanes
+	 */
+	public int getQueueSize() {
+		int result = 0;
+		for (final Lane lane : lanes) {
+			result += lane.size();
+		}
+		return result;
+	}
+
+	/**
+	 * Store everything waiting in the lanes, in parallel on the workers, until done or the deadline has passed.
+	 *
+	 * @param deadline time (millis) after which the remaining snapshots are given up
+	 * @return number of snapshots still waiting at the deadline, 0 if all were stored or given up on
+	 */
+	public int drain(final long deadline) {
+		draining = true;
+		for (final Lane lane : lanes) {
+			// lanes that were released with retries waiting
+			if (lane.size() > 0)
+				lane.wakeUp.run();
+		}
+		while (true) {
+			final int size = getQueueSize();
+			if (size == 0 && !isAnyLaneScheduled())
+				return 0;
+			if (System.currentTimeMillis() >= deadline)
+				return size;
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	private boolean isAnyLaneScheduled() {
+		for (final Lane lane : lanes) {
+			if (lane.scheduled.get())
+				return true;
+		}
+		return false;
+	}
+
+	public long getTotalSessionsPersisted() {
+		long result = 0;
+		for (final Lane lane : lanes) {
+			result += lane.persisted.get();
+		}
+		return result;
+	}
+
+	public int getLaneCount() {
+		return lanes.length;
+	}
+
+	public WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+
+	public int[] getLaneQueueSizes() {
+		final int[] result = new int[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			result[i] = lanes[i].size();
+		}
+		return result;
+	}
+
+	public int[] getLaneQueueMaxSizes() {
+		final int[] result = new int[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			result[i] = lanes[i].maxSize;
+		}
+		return result;
+	}
+
+	public long[] getLaneSessionsPersisted() {
+		final long[] result = new long[lanes.length];
+		for (int i = 0; i < lanes.length; i++) {
+			result[i] = lanes[i].persisted.get();
+		}
+		return result;
+	}
+
+	public int[] getPriorityWeights() {
+		return priorityWeights.clone();
+	}
+
+	public long[] getPrioritySessionsPersisted() {
+		final long[] result = new long[PRIORITIES.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = prioritySessionsPersisted.get(i);
+		}
+		return result;
+	}
+
+	public long[] getPriorityAverageTimeInQueue() {
+		final long[] result = new long[PRIORITIES.length];
+		for (int i = 0; i < result.length; i++) {
+			final long count = prioritySessionsPersisted.get(i);
+			result[i] = count == 0 ? 0 : priorityTimeInQueueTotal.get(i) / count;
+		}
+		return result;
+	}
+
+	public long[] getPriorityMaxTimeInQueue() {
+		final long[] result = new long[PRIORITIES.length];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = priorityTimeInQueueMax.get(i);
+		}
+		return result;
+	}
+
+	private void recordPersisted(final PersistencePriority priority, final long timeQueued) {
+		final int i = priority.ordinal();
+		final long timeInQueue = System.currentTimeMillis() - timeQueued;
+		prioritySessionsPersisted.incrementAndGet(i);
+		priorityTimeInQueueTotal.addAndGet(i, timeInQueue);
+		long max;
+		while ((max = priorityTimeInQueueMax.get(i)) < timeInQueue && !priorityTimeInQueueMax.compareAndSet(i, max, timeInQueue))
+			;
+	}
+
+	public long getTotalPersistFailures() {
+		return persistFailures.get();
+	}
+
+	public long getTotalPersistRetries() {
+		return persistRetries.get();
+	}
+
+	public long getTotalSessionsGivenUp() {
+		return sessionsGivenUp.get();
+	}
+
+	public long getTotalSessionsCoalesced() {
+		long result = 0;
+		for (final Lane lane : lanes) {
+			result += lane.coalesced.get();
+		}
+		return result;
+	}
+
+	public long getTotalSessionsRejected() {
+		long result = 0;
+		for (final Lane lane : lanes) {
+			result += lane.rejected.get();
+		}
+		return result;
+	}
+
+	public void resetCounters() {
+		for (final Lane lane : lanes) {
+			lane.maxSize = 0;
+			lane.persisted.set(0);
+			lane.coalesced.set(0);
+			lane.rejected.set(0);
+		}
+		persistFailures.set(0);
+		persistRetries.set(0);
+		sessionsGivenUp.set(0);
+		for (int i = 0; i < PRIORITIES.length; i++) {
+			prioritySessionsPersisted.set(i, 0);
+			priorityTimeInQueueTotal.set(i, 0);
+			priorityTimeInQueueMax.set(i, 0);
+		}
+	}
+
+	/**
+	 * A session waiting in the window of a lane.
+	 */
+	private static final class PendingSnapshot {
+		SessionSerializationData ssd;
+		final long timeQueued;
+		PersistencePriority priority;
+		// failed attempts so far, and the time before which the snapshot is not tried again (0 if not waiting for a retry)
+		int attempts;
+		long notBefore;
+
+		PendingSnapshot(final SessionSerializationData ssd, final long timeQueued) {
+			this.ssd = ssd;
+			this.timeQueued = timeQueued;
+			this.priority = ssd.getPersistencePriority();
+		}
+	}
+
+	private final class Lane implements Runnable {
+		private final int mask;
+		// slot contents, written by the producer that claimed the slot before it publishes the sequence
+		private final SessionSerializationData[] snapshots;
+		private final long[] timesQueued;
+		// sequence last published in each slot (-1 before the first lap)
+		private final AtomicLongArray published;
+		// next sequence to claim (producers) and next sequence to consume (the one worker holding the lane)
+		private final AtomicLong tail = new AtomicLong();
+		private volatile long head;
+		// true while a task for this lane is queued in or running on the worker pool
+		private final AtomicBoolean scheduled = new AtomicBoolean();
+
+		// consumer side only: the window, one snapshot per session, queued by class; a snapshot promoted to a higher
+		// class is left behind in the queue of its old class and skipped there
+		private final int windowCapacity;
+		private final HashMap<String, PendingSnapshot> window = new HashMap<>();
+		private final ArrayDeque<PendingSnapshot>[] ready;
+		private final int[] credits;
+		private volatile int windowSize;
+		// snapshots waiting out their backoff, also in the window, and the earliest time one of them is due
+		private final PriorityQueue<PendingSnapshot> delayed = new PriorityQueue<PendingSnapshot>(16, BY_NOT_BEFORE);
+		private volatile long nextRetryDue = Long.MAX_VALUE;
+		private final Runnable wakeUp = new Runnable() {
+			@Override
+			public void run() {
+				if (!scheduled.get() && scheduled.compareAndSet(false, true))
+					schedule();
+			}
+		};
+
+		private volatile int maxSize;
+		private final AtomicLong persisted = new AtomicLong();
+		private final AtomicLong coalesced = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+
+		// generic arrays cannot be created, the raw one only ever holds ArrayDeque<PendingSnapshot>
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		Lane(final int capacity) {
+			this.mask = capacity - 1;
+			this.windowCapacity = capacity;
+			this.ready = new ArrayDeque[PRIORITIES.length];
+			for (int i = 0; i < ready.length; i++) {
+				ready[i] = new ArrayDeque<PendingSnapshot>();
+			}
+			this.credits = priorityWeights.clone();
+			this.snapshots = new SessionSerializationData[capacity];
+			this.timesQueued = new long[capacity];
+			this.published = new AtomicLongArray(capacity);
+			for (int i = 0; i < capacity; i++) {
+				published.set(i, -1);
+			}
+		}
+
+		int size() {
+			return (int) (tail.get() - head) + windowSize;
+		}
+
+		boolean submit(final SessionSerializationData ssd) {
+			long sequence;
+			do {
+				sequence = tail.get();
+				if (sequence - head > mask) {
+					rejected.incrementAndGet();
+					return false;
+				}
+			} while (!tail.compareAndSet(sequence, sequence + 1));
+
+			final int slot = (int) sequence & mask;
+			snapshots[slot] = ssd;
+			timesQueued[slot] = System.currentTimeMillis();
+			published.set(slot, sequence);
+
+			if (!scheduled.get() && scheduled.compareAndSet(false, true))
+				schedule();
+			return true;
+		}
+
+		private void schedule() {
+			try {
+				workers.execute(this);
+			} catch (final RejectedExecutionException e) {
+				// pool shut down or saturated; the waiting snapshots go out with the next submit to this lane
+				scheduled.set(false);
+				log.severe("Could not schedule persistence lane: " + e.getMessage());
+			}
+		}
+
+		private boolean isPublished(final long sequence) {
+			return published.get((int) sequence & mask) == sequence;
+		}
+
+		/**
+		 * Move the published snapshots into the window, merging those of a session already waiting into the waiting one.
+		 */
+		private void fillWindow() {
+			long next = head;
+			final int size = (int) (tail.get() - next) + window.size();
+			if (size > maxSize)
+				maxSize = size;
+			while (window.size() < windowCapacity && isPublished(next)) {
+				final int slot = (int) next & mask;
+				final SessionSerializationData ssd = snapshots[slot];
+				final long timeQueued = timesQueued[slot];
+				snapshots[slot] = null;
+				next++;
+				head = next; // frees the slot for producers
+
+				final PendingSnapshot pending = window.get(ssd.getId());
+				if (pending == null) {
+					final PendingSnapshot created = new PendingSnapshot(ssd, timeQueued);
+					window.put(ssd.getId(), created);
+					ready[created.priority.ordinal()].add(created);
+				} else {
+					ssd.mergeFrom(pending.ssd);
+					pending.ssd = ssd;
+					coalesced.incrementAndGet();
+					final PersistencePriority priority = ssd.getPersistencePriority();
+					if (priority != pending.priority) {
+						pending.priority = priority;
+						// a snapshot waiting for its retry joins its new class once it is due
+						if (pending.notBefore == 0)
+							ready[priority.ordinal()].add(pending);
+					}
+				}
+			}
+			windowSize = window.size();
+		}
+
+		/**
+		 * Take the next snapshot to store: each class gets as many turns per round as its weight, a class with nothing
+		 * waiting passes its turns on.
+		 *
+		 * @return null if the window is empty
+		 */
+		private PendingSnapshot takeFromWindow() {
+			if (!delayed.isEmpty()) {
+				final long now = System.currentTimeMillis();
+				while (!delayed.isEmpty() && (draining || delayed.peek().notBefore <= now)) {
+					final PendingSnapshot due = delayed.poll();
+					due.notBefore = 0;
+					ready[due.priority.ordinal()].add(due);
+				}
+				nextRetryDue = delayed.isEmpty() ? Long.MAX_VALUE : delayed.peek().notBefore;
+			}
+			for (int round = 0; round < 2; round++) {
+				for (int i = 0; i < ready.length; i++) {
+					if (credits[i] <= 0)
+						continue;
+					PendingSnapshot pending;
+					while ((pending = ready[i].poll()) != null) {
+						if (pending.priority.ordinal() == i && pending.notBefore == 0) {
+							credits[i]--;
+							window.remove(pending.ssd.getId());
+							windowSize = window.size();
+							return pending;
+						}
+						// promoted or failed since, it is taken from the queue of its new class once due
+					}
+				}
+				// the round is over, or only classes that used up their turns have snapshots waiting
+				System.arraycopy(priorityWeights, 0, credits, 0, credits.length);
+			}
+			return null;
+		}
+
+		/**
+		 * Put a snapshot that failed to store back into the window for a retry after the backoff, or give up on it.
+		 */
+		private void retryLater(final PendingSnapshot pending, final IOException cause) {
+			persistFailures.incrementAndGet();
+			pending.attempts++;
+			if (pending.attempts >= maxPersistAttempts || retryTimer == null) {
+				sessionsGivenUp.incrementAndGet();
+				persistFailed(pending.ssd, cause);
+				return;
+			}
+			final long delay = draining ? 0 : retryDelay(pending.attempts);
+			pending.notBefore = System.currentTimeMillis() + delay;
+			window.put(pending.ssd.getId(), pending);
+			windowSize = window.size();
+			delayed.add(pending);
+			nextRetryDue = delayed.peek().notBefore;
+			try {
+				retryTimer.schedule(wakeUp, delay, TimeUnit.MILLISECONDS);
+				persistRetries.incrementAndGet();
+				log.info("Retrying session " + pending.ssd.getId() + " in " + delay + "ms after attempt " + pending.attempts + " failed: " + cause.getMessage());
+			} catch (final RejectedExecutionException e) {
+				// shutting down: the snapshot is tried again only if the lane runs once more
+			}
+		}
+
+		/**
+		 * @return true if a snapshot was published while waiting
+		 */
+		private boolean awaitPublished() {
+			if (idleWaitNanos <= 0 || !workers.getQueue().isEmpty())
+				return false; // other lanes are waiting for a worker, do not hold on to this one
+			final long deadline = System.nanoTime() + idleWaitNanos;
+			do {
+				if (isPublished(head))
+					return true;
+				switch (waitStrategy) {
+				case YIELD:
+					Thread.yield();
+					break;
+				case PARK:
+					LockSupport.parkNanos(PARK_STEP_NANOS);
+					break;
+				default:
+					break;
+				}
+			} while (System.nanoTime() < deadline);
+			return isPublished(head);
+		}
+
+		@Override
+		public void run() {
+			int drained = 0;
+			while (true) {
+				fillWindow();
+				final PendingSnapshot pending = takeFromWindow();
+				if (pending == null) {
+					if (awaitPublished())
+						continue;
+					// release the lane, then look again: a producer that saw it scheduled has already published, and a
+					// retry that came due meanwhile found it scheduled
+					scheduled.set(false);
+					if (!isPublished(head) && nextRetryDue > System.currentTimeMillis() || !scheduled.compareAndSet(false, true))
+						return;
+					continue;
+				}
+				final SessionSerializationData ssd = pending.ssd;
+				try {
+					persist(ssd, pending.timeQueued);
+					persisted.incrementAndGet();
+					recordPersisted(pending.priority, pending.timeQueued);
+				} catch (final IOException e) {
+					retryLater(pending, e);
+				} catch (final RuntimeException e) {
+					// not a failure of the store, trying again would not help
+					log.severe("Could not persist session " + ssd.getId() + ": " + e);
+				}
+				if (++drained >= LANE_BATCH_SIZE && !workers.getQueue().isEmpty()) {
+					// still scheduled: let the other lanes have the worker, then continue
+					schedule();
+					return;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package org.apache.catalina.session;
+
+/**
+ * Class of a snapshot waiting for persistence; the lanes store the higher classes first, in proportion to their weights.
+ * <p/>
+ * A session that was never stored, or whose user just changed (a login), is lost entirely if the node goes down before
+ * it is written, while an incremental update of a stored session only loses its latest changes.
+ *
+ * @author jim631@sina.com
+ */
+public enum PersistencePriority {
+	/** session never stored yet, or its user changed */
+	FIRST_PERSIST(8),
+	/** attributes of a stored session were set or removed */
+	ATTRIBUTE_CHANGE(3),
+	/** only the header of a stored session changed */
+	HEADER_ONLY(1);
+
+	private final int defaultWeight;
+
+	private PersistencePriority(final int defaultWeight) {
+		this.defaultWeight = defaultWeight;
+	}
+
+	public int getDefaultWeight() {
+		return defaultWeight;
+	}
+
+	/**
+	 * @return the more urgent of the two classes
+	 */
+	public static PersistencePriority higher(final PersistencePriority a, final PersistencePriority b) {
+		return a.ordinal() <= b.ordinal() ? a : b;
+	}
+
+	public static int[] getDefaultWeights() {
+		final PersistencePriority[] values = values();
+		final int[] result = new int[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = values[i].defaultWeight;
+		}
+		return result;
+	}
+}
@@ -0,0 +1,172 @@
+package org.apache.catalina.session;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link java.io.OutputStream} that collects the written bytes in fixed-size chunks borrowed from a shared pool
+ * instead of one contiguous array that is grown (and copied) as data is written.
+ * <p/>
+ * Growing the buffer never copies what was written, and content that is consumed as a stream ({@link #getInputStream()},
+ * used for session clones and compressed attribute data handed to the JDBC driver) never needs a full-size array, which
+ * G1 would allocate as a humongous object. {@link #toByteArray()} still builds one, once, at the final size.
+ * <p/>
+ * Instances are not thread safe. Call {@link #release()} once the content has been consumed to hand the chunks back
+ * to the pool; the stream must not be used afterwards.
+ *
+ * @author jim631@sina.com
+ */
+public class PooledChunkedOutputStream extends OutputStream {
+
+	// keep chunks well below the G1 humongous threshold (half a region, i.e. 512KB for the smallest 1MB region)
+	static final int CHUNK_SIZE = FoundationUtil.getInteger("catalina.sessionBufferChunkSize", 32 * 1024);
+	private static final int MAX_POOLED_CHUNKS = FoundationUtil.getInteger("catalina.sessionBufferMaxPooledChunks", 512);
+
+	private static final ConcurrentLinkedQueue<byte[]> pool = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooledChunks = new AtomicInteger();
+
+	private final ArrayList<byte[]> chunks = new ArrayList<>();
+	private byte[] current;
+	private int position;
+	private int size;
+
+	private static byte[] borrowChunk() {
+		final byte[] result = pool.poll();
+		if (result == null)
+			return new byte[CHUNK_SIZE];
+		pooledChunks.decrementAndGet();
+		return result;
+	}
+
+	private static void returnChunk(final byte[] chunk) {
+		// the pool is bounded; anything beyond the bound is simply left for the garbage collector
+		if (pooledChunks.incrementAndGet() <= MAX_POOLED_CHUNKS) {
+			pool.offer(chunk);
+		} else {
+			pooledChunks.decrementAndGet();
+		}
+	}
+
+	private void nextChunk() {
+		current = borrowChunk();
+		chunks.add(current);
+		position = 0;
+	}
+
+	@Override
+	public void write(final int b) {
+		if (current == null || position == current.length)
+			nextChunk();
+		current[position++] = (byte) b;
+		size++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) {
+		int offset = off;
+		int remaining = len;
+		while (remaining > 0) {
+			if (current == null || position == current.length)
+				nextChunk();
+			final int count = Math.min(remaining, current.length - position);
+			System.arraycopy(b, offset, current, position, count);
+			position += count;
+			offset += count;
+			remaining -= count;
+			size += count;
+		}
+	}
+
+	/**
+	 * @return number of bytes written so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copy the content into a single array of exactly {@link #size()} bytes.
+	 */
+	public byte[] toByteArray() {
+		final byte[] result = new byte[size];
+		int offset = 0;
+		for (final byte[] chunk : chunks) {
+			final int count = Math.min(chunk.length, size - offset);
+			System.arraycopy(chunk, 0, result, offset, count);
+			offset += count;
+		}
+		return result;
+	}
+
+	/**
+	 * Stream over the content written so far. The returned stream reads directly from the pooled chunks, so it
+	 * must be consumed before {@link #release()} is called.
+	 */
+	public InputStream getInputStream() {
+		return new ChunkInputStream();
+	}
+
+	/**
+	 * Hand the chunks back to the pool.
+	 */
+	public void release() {
+		for (final byte[] chunk : chunks) {
+			returnChunk(chunk);
+		}
+		chunks.clear();
+		current = null;
+		position = 0;
+		size = 0;
+	}
+
+	@Override
+	public void close() {
+		// nothing to do, the content stays readable until release()
+	}
+
+	private class ChunkInputStream extends InputStream {
+		private int chunkIndex;
+		private int chunkPosition;
+		private int remaining = size;
+
+		@Override
+		public int read() {
+			if (remaining == 0)
+				return -1;
+			final byte[] chunk = chunks.get(chunkIndex);
+			final int result = chunk[chunkPosition++] & 0xff;
+			remaining--;
+			if (chunkPosition == chunk.length) {
+				chunkIndex++;
+				chunkPosition = 0;
+			}
+			return result;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) {
+			if (len == 0)
+				return 0;
+			if (remaining == 0)
+				return -1;
+			final byte[] chunk = chunks.get(chunkIndex);
+			final int count = Math.min(Math.min(len, remaining), chunk.length - chunkPosition);
+			System.arraycopy(chunk, chunkPosition, b, off, count);
+			chunkPosition += count;
+			remaining -= count;
+			if (chunkPosition == chunk.length) {
+				chunkIndex++;
+				chunkPosition = 0;
+			}
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return remaining;
+		}
+	}
+}
@@ -16,6 +16,9 @@
 package org.apache.catalina.session;
 
 import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
@@ -30,6 +33,8 @@ import java.util.Arrays;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.catalina.session.StandardSession;
 
@@ -40,6 +45,15 @@ import org.apache.catalina.session.StandardSession;
  */
 public final class ReflectionUtils {
 
+	private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+	private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+	private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class, Object.class);
+
+	// resolved accessors per (class, member name); a ClassValue so that cached handles do not pin webapp class loaders
+	private static final AccessorCache getters = new AccessorCache();
+	private static final AccessorCache setters = new AccessorCache();
+	private static final AccessorCache invokers = new AccessorCache();
+
 
 	private ReflectionUtils() {
 		super();
@@ -166,10 +180,10 @@ public final class ReflectionUtils {
 	public static Object invokeMethod(final Object object, final String methodName)  {
 		final Object result;
 		try {
-			final Method method = getMethod(object.getClass(), methodName);
-			setAccessible(method);
-			result = method.invoke(object);
-		} catch (final IllegalArgumentException | InvocationTargetException | IllegalAccessException |  NoSuchMethodException e  ) {
+			result = getInvoker(object.getClass(), methodName).invokeExact(object);
+		} catch (final RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
 			throw new RuntimeException("Problem invoking method " + methodName + "on object:" + object, e);
 		}
 
@@ -526,20 +540,88 @@ public final class ReflectionUtils {
 	 * Gets the value of a field identified by its field name.
 	 */
 	public static Object getFieldValue(final Class classzz, final Object obj, final String name) {
+		final MethodHandle getter = getGetter(classzz, name);
 		try {
-			final Field field = classzz.getDeclaredField(name);
-			return FoundationUtil.getFieldValue(obj, field);
-		} catch (NoSuchFieldException e) {
-			throw new RuntimeException("Can not get field for " + classzz.getSimpleName() + "." + name, e);
+			return getter.invokeExact(obj);
+		} catch (final RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new RuntimeException("Problem getting value from " + classzz.getSimpleName() + "." + name, e);
 		}
 	}
 
 	public static void setFieldValue(final Class classzz, final Object obj, final String name, final Object value) {
+		final MethodHandle setter = getSetter(classzz, name);
+		try {
+			setter.invokeExact(obj, value);
+		} catch (final RuntimeException | Error e) {
+			throw e;
+		} catch (final Throwable e) {
+			throw new RuntimeException("Problem setting value to field " + classzz.getSimpleName() + "." + name + " value: " + value, e);
+		}
+	}
+
+	/**
+	 * The getter of a declared field, resolved once and adapted to (Object)Object so that callers can use
+	 * {@link MethodHandle#invokeExact}.
+	 */
+	private static MethodHandle getGetter(final Class<?> clazz, final String name) {
+		final ConcurrentMap<String, MethodHandle> handles = getters.get(clazz);
+		MethodHandle result = handles.get(name);
+		if (result == null) {
+			try {
+				result = lookup.unreflectGetter(getAccessibleField(clazz, name)).asType(GETTER_TYPE);
+			} catch (final IllegalAccessException e) {
+				throw new RuntimeException("Problem getting value from " + clazz.getSimpleName() + "." + name, e);
+			}
+			handles.putIfAbsent(name, result);
+		}
+		return result;
+	}
+
+	/**
+	 * The setter of a declared field, resolved once and adapted to (Object,Object)void.
+	 */
+	private static MethodHandle getSetter(final Class<?> clazz, final String name) {
+		final ConcurrentMap<String, MethodHandle> handles = setters.get(clazz);
+		MethodHandle result = handles.get(name);
+		if (result == null) {
+			try {
+				result = lookup.unreflectSetter(getAccessibleField(clazz, name)).asType(SETTER_TYPE);
+			} catch (final IllegalAccessException e) {
+				throw new RuntimeException("Problem setting value to field " + clazz.getSimpleName() + "." + name, e);
+			}
+			handles.putIfAbsent(name, result);
+		}
+		return result;
+	}
+
+	/**
+	 * The no-argument method of the class or its superclasses, resolved once and adapted to (Object)Object.
+	 */
+	private static MethodHandle getInvoker(final Class<?> clazz, final String name) {
+		final ConcurrentMap<String, MethodHandle> handles = invokers.get(clazz);
+		MethodHandle result = handles.get(name);
+		if (result == null) {
+			try {
+				final Method method = getMethod(clazz, name);
+				setAccessible(method);
+				result = lookup.unreflect(method).asType(GETTER_TYPE);
+			} catch (final NoSuchMethodException | IllegalAccessException e) {
+				throw new RuntimeException("Problem invoking method " + name + " of " + clazz.getSimpleName(), e);
+			}
+			handles.putIfAbsent(name, result);
+		}
+		return result;
+	}
+
+	private static Field getAccessibleField(final Class<?> clazz, final String name) {
 		try {
-			final Field field = classzz.getDeclaredField(name);
-			setFieldValue(obj, field, value);
-		} catch (NoSuchFieldException e) {
-			throw new RuntimeException("Can not get field for " + classzz.getSimpleName() + "." + name, e);
+			final Field result = clazz.getDeclaredField(name);
+			setAccessible(result);
+			return result;
+		} catch (final NoSuchFieldException e) {
+			throw new RuntimeException("Can not get field for " + clazz.getSimpleName() + "." + name, e);
 		}
 	}
 
@@ -568,6 +650,16 @@ public final class ReflectionUtils {
 		}
 	}
 
+	/**
+	 * Resolved {@link MethodHandle}s by member name, per class.
+	 */
+	private static final class AccessorCache extends ClassValue<ConcurrentMap<String, MethodHandle>> {
+		@Override
+		protected ConcurrentMap<String, MethodHandle> computeValue(final Class<?> type) {
+			return new ConcurrentHashMap<String, MethodHandle>();
+		}
+	}
+
 	/**
 	 * Determines if the method is a member of the class.
 	 */
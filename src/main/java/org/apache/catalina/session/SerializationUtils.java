@@ -1,9 +1,8 @@
 package org.apache.catalina.session;
 
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.NotSerializableException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
@@ -108,15 +107,20 @@ public class SerializationUtils {
 		final Callable<byte[]> process = new Callable<byte[]>() {
 			@Override
 			public byte[] call() throws IOException {
-				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-				final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(bos));
+				// collect into pooled chunks so the only full-size array is the exact-size result
+				final PooledChunkedOutputStream buffer = new PooledChunkedOutputStream();
 				try {
-					oos.writeObject(o);
+					final ObjectOutputStream oos = new ObjectOutputStream(buffer);
+					try {
+						oos.writeObject(o);
+					} finally {
+						oos.close();
+					}
+					final byte[] result = buffer.toByteArray();
+					return result;
 				} finally {
-					oos.close();
+					buffer.release();
 				}
-				final byte[] result = bos.toByteArray();
-				return result;
 			}
 		};
 		try {
@@ -149,6 +153,33 @@ public class SerializationUtils {
 		return result;
 	}
 
+	/**
+	 * Deserialize an object straight from a stream (e.g. a JDBC blob stream), without copying it into an array first.
+	 *
+	 * @param manager
+	 * @param in stream to read from, closed by this method; may be null
+	 * @return the object, or null if the stream was null
+	 * @throws java.io.IOException
+	 */
+	public static Object createObjectFromStream(final Manager manager, final InputStream in) throws IOException {
+		if (in == null) {
+			return null;
+		}
+		final Object result;
+		try {
+			ClassLoader loader = Thread.currentThread().getContextClassLoader();
+			final ObjectInputStream ois = new CustomObjectInputStream(in, loader);
+			try {
+				result = ois.readObject();
+			} finally {
+				ois.close();
+			}
+		} catch (final ClassNotFoundException e) {
+			throw new IOException("Problem deserializing", e);
+		}
+		return result;
+	}
+
 
 	/**
 	 * Write (serialize) the object to byte array by calling  the  ManualSerializable.writeObjectData
@@ -158,22 +189,46 @@ public class SerializationUtils {
 	 * @throws java.io.IOException
 	 */
 	public static byte[] writeObject(final ManualSerializable obj) throws IOException {
-		final Callable<byte[]> process = new Callable<byte[]>() {
+		final PooledChunkedOutputStream buffer = writeObjectToBuffer(obj);
+		try {
+			final byte[] result = buffer.toByteArray();
+			return result;
+		} finally {
+			buffer.release();
+		}
+	}
+
+	/**
+	 * Write (serialize) the object into pooled chunks by calling the ManualSerializable.writeObjectData.
+	 * The caller owns the returned buffer and must {@link PooledChunkedOutputStream#release()} it.
+	 *
+	 * @param obj
+	 * @return
+	 * @throws java.io.IOException
+	 */
+	public static PooledChunkedOutputStream writeObjectToBuffer(final ManualSerializable obj) throws IOException {
+		final Callable<PooledChunkedOutputStream> process = new Callable<PooledChunkedOutputStream>() {
 			@Override
-			public byte[] call() throws IOException {
-				final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-				final ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(bos));
+			public PooledChunkedOutputStream call() throws IOException {
+				final PooledChunkedOutputStream buffer = new PooledChunkedOutputStream();
+				boolean done = false;
 				try {
-					obj.writeObjectData(oos);
+					final ObjectOutputStream oos = new ObjectOutputStream(buffer);
+					try {
+						obj.writeObjectData(oos);
+					} finally {
+						oos.close();
+					}
+					done = true;
+					return buffer;
 				} finally {
-					oos.close();
+					if (!done)
+						buffer.release();
 				}
-				final byte[] result = bos.toByteArray();
-				return result;
 			}
 		};
 		try {
-			final byte[] result = FoundationUtil.tryMultipleTimes(process, ConcurrentModificationException.class);
+			final PooledChunkedOutputStream result = FoundationUtil.tryMultipleTimes(process, ConcurrentModificationException.class);
 			return result;
 		} catch (final IOException e) {
 			throw e;
@@ -195,11 +250,25 @@ public class SerializationUtils {
 	 */
 	public static <T extends ManualSerializable> T readObject(Manager manager, byte[] data, T result)
 			throws ClassNotFoundException, IOException {
+		return readObject(manager, new ByteArrayInputStream(data), result);
+	}
+
+	/**
+	 * read (Deserialize) the object from a stream by using ManualSerializable.readObjectData
+	 *
+	 * @param manager
+	 * @param in
+	 * @param result
+	 * @return
+	 * @throws ClassNotFoundException
+	 * @throws java.io.IOException
+	 */
+	public static <T extends ManualSerializable> T readObject(Manager manager, InputStream in, T result)
+			throws ClassNotFoundException, IOException {
 		ClassLoader loader = Thread.currentThread().getContextClassLoader();
 		//if (loader == null)
 		//	loader = SerializationUtils.getWebappClassLoader(manager);
-		final ByteArrayInputStream bis = new ByteArrayInputStream(data);
-		final ObjectInputStream ois = new CustomObjectInputStream(bis, loader);
+		final ObjectInputStream ois = new CustomObjectInputStream(in, loader);
 		result.readObjectData(ois);
 		ois.close();
 		return result;
@@ -221,8 +290,13 @@ public class SerializationUtils {
 
 	public static <T extends ManualSerializable> T clone(Manager manager, final T obj, T clone)
 			throws ClassNotFoundException, IOException {
-		byte[] bytes = writeObject(obj);
-		clone = readObject(manager, bytes, clone);
+		// read the clone straight back out of the pooled chunks, no intermediate full-size array
+		final PooledChunkedOutputStream buffer = writeObjectToBuffer(obj);
+		try {
+			clone = readObject(manager, buffer.getInputStream(), clone);
+		} finally {
+			buffer.release();
+		}
 		return clone;
 	}
 
@@ -249,7 +323,7 @@ public class SerializationUtils {
 	/**
 	 * Method to do the deep copy.
 	 * This method requies everying to be serializable.
-	 * Object -> ObjectOutputStream -> ByteArrayOutputStream -> ByteArrayInputStream -> ObjectInputStream -> new Object.
+	 * Object -> ObjectOutputStream -> PooledChunkedOutputStream -> ObjectInputStream -> new Object.
 	 *
 	 * @param original The object to be copied.
 	 * @return The deeply copied object.
@@ -262,13 +336,13 @@ public class SerializationUtils {
 		T result = null;
 		ObjectOutputStream os = null;
 		ObjectInputStream is = null;
+		final PooledChunkedOutputStream bytesOutput = new PooledChunkedOutputStream();
 		try {
-			final ByteArrayOutputStream bytesOutput = new ByteArrayOutputStream();
 			os = new ObjectOutputStream(bytesOutput);
 			os.writeObject(original);
 			os.close();
 			os = null;
-			final ByteArrayInputStream bytesInput = new ByteArrayInputStream(bytesOutput.toByteArray());
+			final InputStream bytesInput = bytesOutput.getInputStream();
 
 			ClassLoader loader = Thread.currentThread().getContextClassLoader();
 			//if (loader == null)
@@ -304,6 +378,7 @@ public class SerializationUtils {
 				}
 				os = null;
 			}
+			bytesOutput.release();
 		}
 		return result;
 	}
@@ -55,7 +55,7 @@ public class SessionAttributeRecord implements ManualSerializable, Serializable
 	}
 
 
-	private String checksum(final byte[] data) {
+	static String checksum(final byte[] data) {
 		final CRC32 crc = new CRC32();
 		crc.update(data);
 		final String result = Long.toHexString(crc.getValue());
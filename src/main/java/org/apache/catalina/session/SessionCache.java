@@ -51,6 +51,10 @@ public class SessionCache {
 		cache.remove(id);
 	}
 
+	public boolean remove(String id, SessionSerializationData data) {
+		return cache.remove(id, data);
+	}
+
 	public int getSize() {
 		return cache.size();
 	}
@@ -0,0 +1,192 @@
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import java.util.logging.Logger;
+
+/**
+ * Description: transparent compression of serialized session attribute data before it goes to the store.
+ * <p/>
+ * Data at or above the configured threshold is deflated; the codec used is returned to the caller to be stored next
+ * to the data, so reads are self-describing and rows written before compression was enabled (codec null) still load.
+ * <p/>
+ * Configuration (system properties):
+ * <ul>
+ * <li>catalina.sessionAttributeCompressionThreshold - minimum raw size in bytes to compress, &lt;= 0 disables (default 2048)</li>
+ * <li>catalina.sessionAttributeCompressionLevel - {@link java.util.zip.Deflater} level (default 1, best speed)</li>
+ * <li>catalina.sessionAttributeCompressionDictionary - optional path to a preset dictionary trained on typical payloads</li>
+ * </ul>
+ *
+ * @author jim631@sina.com
+ */
+public class SessionDataCompression {
+
+	private static final Logger log = Logger.getLogger(SessionDataCompression.class.getName());
+
+	public static final String CODEC_NONE = "none";
+	public static final String CODEC_DEFLATE = "deflate";
+	public static final String CODEC_DEFLATE_DICTIONARY = "deflate-dict";
+
+	private static final int threshold = FoundationUtil.getInteger("catalina.sessionAttributeCompressionThreshold", 2048);
+	private static final int level = FoundationUtil.getInteger("catalina.sessionAttributeCompressionLevel", Deflater.BEST_SPEED);
+	private static final byte[] dictionary = loadDictionary(System.getProperty("catalina.sessionAttributeCompressionDictionary"));
+
+	// deflaters hold native memory, so reuse one per (persistence worker) thread rather than creating one per attribute
+	private static final ThreadLocal<Deflater> deflaters = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			return new Deflater(level);
+		}
+	};
+
+	// statistics, exposed through FoundationSessionStoreMonitoring
+	private static final AtomicLong compressedCount = new AtomicLong();
+	private static final AtomicLong compressionInputBytes = new AtomicLong();
+	private static final AtomicLong compressionOutputBytes = new AtomicLong();
+	private static final AtomicLong compressionTimeNanos = new AtomicLong();
+
+	private SessionDataCompression() {
+		super();
+	}
+
+	private static byte[] loadDictionary(final String path) {
+		if (path == null || path.length() == 0)
+			return null;
+		try {
+			final byte[] result = Files.readAllBytes(Paths.get(path));
+			log.info("Loaded session attribute compression dictionary " + path + " (" + result.length + " bytes)");
+			return result;
+		} catch (final IOException e) {
+			log.severe("Could not load session attribute compression dictionary " + path + "; compressing without dictionary: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Compress the data if it is at or above the threshold and compression actually pays off.
+	 *
+	 * @param data raw serialized attribute data
+	 * @return the compressed data (the caller must release it), or null if the data should be stored as-is
+	 */
+	public static PooledChunkedOutputStream compress(final byte[] data) throws IOException {
+		if (threshold <= 0 || data == null || data.length < threshold)
+			return null;
+
+		final long start = System.nanoTime();
+		final Deflater deflater = deflaters.get();
+		deflater.reset();
+		if (dictionary != null)
+			deflater.setDictionary(dictionary);
+		final PooledChunkedOutputStream result = new PooledChunkedOutputStream();
+		final DeflaterOutputStream out = new DeflaterOutputStream(result, deflater, PooledChunkedOutputStream.CHUNK_SIZE);
+		out.write(data);
+		out.finish();
+		compressionTimeNanos.addAndGet(System.nanoTime() - start);
+
+		if (result.size() >= data.length) {
+			// incompressible (already compressed images etc.), not worth paying for inflate on every load
+			result.release();
+			return null;
+		}
+		compressedCount.incrementAndGet();
+		compressionInputBytes.addAndGet(data.length);
+		compressionOutputBytes.addAndGet(result.size());
+		return result;
+	}
+
+	/**
+	 * @return the codec tag to store with data that {@link #compress(byte[])} returned non-null for
+	 */
+	public static String getCompressionCodec() {
+		return dictionary == null ? CODEC_DEFLATE : CODEC_DEFLATE_DICTIONARY;
+	}
+
+	/**
+	 * Wrap the stored data stream according to the codec it was written with.
+	 *
+	 * @param codec codec tag stored with the data, null for data written without a codec
+	 * @param in stored data, may be null
+	 * @return stream of the raw serialized data
+	 */
+	public static InputStream decompress(final String codec, final InputStream in) throws IOException {
+		if (in == null || codec == null || CODEC_NONE.equals(codec))
+			return in;
+		if (CODEC_DEFLATE.equals(codec))
+			return new DictionaryInflaterInputStream(in, null);
+		if (CODEC_DEFLATE_DICTIONARY.equals(codec)) {
+			if (dictionary == null)
+				throw new IOException("Data was compressed with a preset dictionary but no dictionary is configured");
+			return new DictionaryInflaterInputStream(in, dictionary);
+		}
+		throw new IOException("Unknown session data codec: " + codec);
+	}
+
+	public static long getCompressedCount() {
+		return compressedCount.get();
+	}
+
+	public static long getCompressionInputBytes() {
+		return compressionInputBytes.get();
+	}
+
+	public static long getCompressionOutputBytes() {
+		return compressionOutputBytes.get();
+	}
+
+	public static long getCompressionTimeNanos() {
+		return compressionTimeNanos.get();
+	}
+
+	public static void resetCounters() {
+		compressedCount.set(0);
+		compressionInputBytes.set(0);
+		compressionOutputBytes.set(0);
+		compressionTimeNanos.set(0);
+	}
+
+	/**
+	 * {@link java.util.zip.InflaterInputStream} that supplies the preset dictionary when the zlib stream asks for it,
+	 * and frees the native inflater on close.
+	 */
+	private static class DictionaryInflaterInputStream extends InflaterInputStream {
+		private final byte[] dictionary;
+
+		DictionaryInflaterInputStream(final InputStream in, final byte[] dictionary) {
+			super(in, new Inflater());
+			this.dictionary = dictionary;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			int result = super.read(b, off, len);
+			if (result == -1 && inf.needsDictionary()) {
+				if (dictionary == null)
+					throw new IOException("Compressed session data requires a preset dictionary");
+				try {
+					inf.setDictionary(dictionary);
+				} catch (final IllegalArgumentException e) {
+					throw new IOException("Compressed session data was written with a different preset dictionary", e);
+				}
+				result = super.read(b, off, len);
+			}
+			return result;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package org.apache.catalina.session;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Description: index of the sessions in memory by the time they next need to be looked at (expiry or inactivity
+ * eviction), so that the background sweep visits only the sessions that are due instead of every session.
+ * <p/>
+ * The index is lazy: an access does not move a session, its timestamps are the truth. A session comes up at its
+ * indexed time, and if it was accessed since then it is indexed again at its new deadline. A session is indexed at
+ * most once, at the earliest time it was scheduled for, so an earlier deadline (a shorter max inactive interval)
+ * always takes effect and a later one waits for the session to come up. Deadlines are rounded up to whole slots.
+ *
+ * @author jim631@sina.com
+ */
+public class SessionExpiryIndex {
+
+	private final long slotMs;
+
+	// guarded by this
+	private final TreeMap<Long, Set<String>> slots = new TreeMap<Long, Set<String>>();
+	private final Map<String, Long> slotOfSession = new HashMap<String, Long>();
+
+	public SessionExpiryIndex(final long slotMs) {
+		super();
+		this.slotMs = Math.max(1, slotMs);
+	}
+
+	/**
+	 * Look at the session at the given time, or earlier if it is indexed for an earlier time already.
+	 */
+	public synchronized void schedule(final String id, final long deadline) {
+		final Long slot = Long.valueOf(deadline <= 0 ? 0 : (deadline + slotMs - 1) / slotMs);
+		final Long current = slotOfSession.get(id);
+		if (current != null) {
+			if (current.longValue() <= slot.longValue())
+				return;
+			final Set<String> ids = slots.get(current);
+			ids.remove(id);
+			if (ids.isEmpty())
+				slots.remove(current);
+		}
+		slotOfSession.put(id, slot);
+		Set<String> ids = slots.get(slot);
+		if (ids == null) {
+			ids = new HashSet<String>();
+			slots.put(slot, ids);
+		}
+		ids.add(id);
+	}
+
+	/**
+	 * Take the sessions that are due at the given time out of the index, earliest first; the caller indexes those that
+	 * stay again.
+	 */
+	public synchronized List<String> pollDue(final long now) {
+		final List<String> result = new ArrayList<String>();
+		final long nowSlot = now / slotMs;
+		for (final Iterator<Map.Entry<Long, Set<String>>> it = slots.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<Long, Set<String>> entry = it.next();
+			if (entry.getKey().longValue() > nowSlot)
+				break;
+			for (final String id : entry.getValue()) {
+				slotOfSession.remove(id);
+				result.add(id);
+			}
+			it.remove();
+		}
+		return result;
+	}
+
+	public synchronized void remove(final String id) {
+		final Long slot = slotOfSession.remove(id);
+		if (slot != null) {
+			final Set<String> ids = slots.get(slot);
+			ids.remove(id);
+			if (ids.isEmpty())
+				slots.remove(slot);
+		}
+	}
+
+	public synchronized void clear() {
+		slots.clear();
+		slotOfSession.clear();
+	}
+
+	public synchronized int size() {
+		return slotOfSession.size();
+	}
+}
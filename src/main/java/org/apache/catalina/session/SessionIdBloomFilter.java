@@ -0,0 +1,109 @@
+package org.apache.catalina.session;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Description: Bloom filter of the session ids the store holds, so that a request carrying an id the store cannot hold
+ * is answered without a query.
+ * <p/>
+ * {@link #mightContain(String)} never answers false for an id that was added; it answers true for an id that was not
+ * added with the false positive probability of the filter's fill. Ids cannot be removed, the filter is rebuilt from a
+ * scan of the store instead. Adding and testing are lock free.
+ *
+ * @author jim631@sina.com
+ */
+public class SessionIdBloomFilter {
+
+	private final AtomicLongArray bits;
+	private final int bitCount;
+	private final int hashCount;
+	private final AtomicInteger added = new AtomicInteger();
+
+	/**
+	 * @param expectedIds ids the filter is sized for
+	 * @param bitsPerId bits per expected id, 10 gives about 1% false positives
+	 */
+	public SessionIdBloomFilter(final int expectedIds, final int bitsPerId) {
+		super();
+		final long size = Math.max(64L, (long) Math.max(1, expectedIds) * Math.max(1, bitsPerId));
+		this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, size);
+		this.bits = new AtomicLongArray((bitCount + 63) >>> 6);
+		this.hashCount = Math.max(1, (int) Math.round(Math.max(1, bitsPerId) * Math.log(2)));
+	}
+
+	public void add(final String id) {
+		final long hash = hash(id);
+		int h1 = (int) hash;
+		final int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			final int bit = (h1 & Integer.MAX_VALUE) % bitCount;
+			final int index = bit >>> 6;
+			final long mask = 1L << bit;
+			long word;
+			do {
+				word = bits.get(index);
+				if ((word & mask) != 0)
+					break;
+			} while (!bits.compareAndSet(index, word, word | mask));
+			h1 += h2;
+		}
+		added.incrementAndGet();
+	}
+
+	public boolean mightContain(final String id) {
+		final long hash = hash(id);
+		int h1 = (int) hash;
+		final int h2 = (int) (hash >>> 32);
+		for (int i = 0; i < hashCount; i++) {
+			final int bit = (h1 & Integer.MAX_VALUE) % bitCount;
+			if ((bits.get(bit >>> 6) & (1L << bit)) == 0)
+				return false;
+			h1 += h2;
+		}
+		return true;
+	}
+
+	public int getBitCount() {
+		return bitCount;
+	}
+
+	public int getHashCount() {
+		return hashCount;
+	}
+
+	/**
+	 * @return ids added, those added more than once counted each time
+	 */
+	public int getAddedCount() {
+		return added.get();
+	}
+
+	/**
+	 * @return estimated false positive probability at the current fill, in percent
+	 */
+	public double getFalsePositivePercent() {
+		long set = 0;
+		for (int i = 0; i < bits.length(); i++) {
+			set += Long.bitCount(bits.get(i));
+		}
+		return Math.pow((double) set / bitCount, hashCount) * 100;
+	}
+
+	/**
+	 * 64 bit FNV-1a over the id's characters, finished with the murmur3 mix so that both halves are usable as hashes.
+	 */
+	private static long hash(final String id) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < id.length(); i++) {
+			h ^= id.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
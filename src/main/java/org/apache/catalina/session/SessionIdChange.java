@@ -0,0 +1,89 @@
+package org.apache.catalina.session;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Description: change of the id of a stored session (session fixation protection), carried through the persistence
+ * lane of the old id so that the stored rows move only after every save of the old id queued before it.
+ * <p/>
+ * The thread changing the id waits for the move; if it gives up before the move started, the move is abandoned and the
+ * rows of the old id are removed when it comes up instead, the session being saved in full under its new id.
+ *
+ * @author jim631@sina.com
+ */
+public class SessionIdChange {
+
+	private static final int PENDING = 0;
+	private static final int RUNNING = 1;
+	private static final int ABANDONED = 2;
+
+	private final String oldId;
+	private final String newId;
+	private final AtomicInteger state = new AtomicInteger(PENDING);
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean moved;
+
+	public SessionIdChange(final String oldId, final String newId) {
+		super();
+		this.oldId = oldId;
+		this.newId = newId;
+	}
+
+	public String getOldId() {
+		return oldId;
+	}
+
+	public String getNewId() {
+		return newId;
+	}
+
+	/**
+	 * @return true if the move may go ahead, false if it was abandoned
+	 */
+	public boolean start() {
+		return state.compareAndSet(PENDING, RUNNING);
+	}
+
+	/**
+	 * @param moved whether the store moved the rows of the session
+	 */
+	public void finish(final boolean moved) {
+		this.moved = moved;
+		done.countDown();
+	}
+
+	/**
+	 * Wait for the move, abandoning it if it has not started within the timeout (or the thread is interrupted); once
+	 * started it is waited for to the end.
+	 *
+	 * @return true if the rows were moved
+	 */
+	public boolean await(final long timeoutMs) {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					if (state.get() != PENDING) {
+						done.await();
+						return moved;
+					}
+					final long remaining = deadline - System.nanoTime();
+					if (remaining <= 0 || interrupted) {
+						if (state.compareAndSet(PENDING, ABANDONED))
+							return false;
+					} else if (done.await(remaining, TimeUnit.NANOSECONDS)) {
+						return moved;
+					}
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -8,6 +8,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
@@ -52,11 +53,36 @@ class SessionSerializationData implements ManualSerializable, Serializable {
 	private final Map<String, SessionAttributeRecord> attributes;
 	private final Map<String, SessionAttributeRecord> modifiedSessionAttributeRecords;
 	private final Set<String> removedSessionAttributes;
-	private PersistenceQueueState persistenceQueueState;
+	// written under the lock, read without it by threads waiting for the snapshot to be stored
+	private volatile PersistenceQueueState persistenceQueueState;
 
 	private long waitLockTime;
 	private long lastAccessTime; //determine the TTL in cache only.
 
+	// version of the stored session this data is based on (0 if never stored or stored before versioning)
+	private volatile long version;
+	private long baseVersion;
+
+	// baseline only: access time of the last header handed to the store (full save or touch), and whether the last
+	// capture changed nothing but the access times
+	private long touchedAccessTime;
+	private boolean touched;
+	// baseline only: whether the last capture saw the user of the session change (a login)
+	private boolean userChanged;
+
+	// copies handed off for persistence only: how urgently the copy has to be stored
+	private transient PersistencePriority persistencePriority;
+	// copies handed off for persistence only: change of the session's id to make once this copy is stored
+	private transient SessionIdChange idChange;
+
+	// numbers the captures that found changes across all sessions, so that a baseline loaded anew never mistakes the
+	// acknowledgement of a copy of its predecessor for one of its own
+	private static final AtomicLong captureSequences = new AtomicLong();
+	// baseline: the last capture that found changes; copies: the capture they were taken from (0 if none)
+	private transient volatile long captureSequence;
+	// baseline only: the latest capture a stored copy was taken from
+	private transient volatile long storedCaptureSequence;
+
 	public SessionSerializationData(Logger logger, String id) {
 		super();
 		this.id= id;
@@ -180,15 +206,88 @@ class SessionSerializationData implements ManualSerializable, Serializable {
 		return result;
 	}
 
+	/**
+	 * @return how urgently the captured changes have to be stored: a session that was never stored or just had its user
+	 * change first, then attribute changes, then header only changes
+	 */
+	public PersistencePriority getPersistencePriority() {
+		if (persistencePriority != null)
+			return persistencePriority;
+		if (version == 0 || userChanged)
+			return PersistencePriority.FIRST_PERSIST;
+		return haveAttributesChanged() ? PersistencePriority.ATTRIBUTE_CHANGE : PersistencePriority.HEADER_ONLY;
+	}
+
+	void setPersistencePriority(final PersistencePriority persistencePriority) {
+		this.persistencePriority = persistencePriority;
+	}
+
+	SessionIdChange getIdChange() {
+		return idChange;
+	}
+
+	void setIdChange(final SessionIdChange idChange) {
+		this.idChange = idChange;
+	}
+
+	long getCaptureSequence() {
+		return captureSequence;
+	}
+
+	void setCaptureSequence(final long captureSequence) {
+		this.captureSequence = captureSequence;
+	}
+
+	/**
+	 * Acknowledge (on the baseline) that a copy taken from the given capture is stored.
+	 */
+	synchronized void markStored(final long captureSequence) {
+		if (captureSequence > storedCaptureSequence)
+			storedCaptureSequence = captureSequence;
+	}
+
+	/**
+	 * Unlike {@link #isDirty()}, which describes the last capture until the next one, this tells whether the changes
+	 * of the last capture that found any are still to be stored.
+	 *
+	 * @return true if the baseline has changes no stored copy was taken from
+	 */
+	public boolean hasUnstoredChanges() {
+		return captureSequence > storedCaptureSequence;
+	}
+
 	private void assertThreadHasLock() throws IllegalStateException {
 		if (!lock.isHeldByCurrentThread())
 			throw new IllegalStateException("Cannot perform this operation without a lock");
 	}
 
-	public void captureSessionData(final StandardSession currentSession, final Request request, final String nodeID, final String webApp) {
+	/**
+	 * @param writtenKeys keys set or removed on the session since the last capture, or null to examine every attribute
+	 */
+	public void captureSessionData(final StandardSession currentSession, final Request request, final String nodeID, final String webApp,
+			final Set<String> writtenKeys) {
 		assertThreadHasLock();
 		setHeaderData(currentSession, request, nodeID, webApp);
-		takeSnapshotAndCalculateDelta(currentSession);
+		takeSnapshotAndCalculateDelta(currentSession, writtenKeys);
+
+		// a full save carries the access times as well, so only flag a touch when nothing else is going out
+		final boolean dirty = isDirty();
+		if (dirty)
+			captureSequence = captureSequences.incrementAndGet();
+		touched = !dirty && header.isAccessTimeChanged(touchedAccessTime);
+		if (dirty || touched)
+			touchedAccessTime = header.getThisAccessedTime();
+	}
+
+	/**
+	 * @return true if the last capture found only access time changes that are due to be written
+	 */
+	public boolean isTouched() {
+		return touched;
+	}
+
+	void setTouchedAccessTime(final long touchedAccessTime) {
+		this.touchedAccessTime = touchedAccessTime;
 	}
 
 	public void clear() {
@@ -255,31 +354,15 @@ class SessionSerializationData implements ManualSerializable, Serializable {
 		this.removedSessionAttributes.clear();
 		this.modifiedSessionAttributeRecords.clear();
 
-		for (final Map.Entry<String, Object> entry : ReflectionUtils.getSessionAttributes(currentSession).entrySet()) {
-			final String key = entry.getKey();
-
-			final Object currentSessionAttrValue = entry.getValue();
-			try {
-				final SessionAttributeRecord existingSar = this.attributes.get(key);
-				final int update_count = existingSar == null ? 1 : existingSar.update_count + 1;
-				final SessionAttributeRecord newAttrRec = new SessionAttributeRecord(getLogger(), key, currentSessionAttrValue, update_count);
+		for (final Map.Entry<String, Object> entry : FoundationSession.attributesOf(currentSession).entrySet()) {
+			final SessionAttributeRecord newAttrRec = examineAttribute(entry.getKey(), entry.getValue());
+			if (newAttrRec != null) {
 				attributes_count++;
 				attributes_size += newAttrRec.data_length;
-				if (existingSar == null || existingSar.data_length != newAttrRec.data_length || !existingSar.data_checksum.equals(newAttrRec.data_checksum)) {
-					modifiedSessionAttributeRecords.put(key, newAttrRec);
-					//new attr or changed attributes,  put to the attributes collection.
-					putAttributeRecord(newAttrRec);
-				}
-
-				// remove this from the removedSessionAttributes because we know it exists now  --redundant?
-				removedSessionAttributes.remove(key);
-			} catch (final Exception e) {
-				//getLogger().error("Problem processing session attribute change for session: " + session_id + " and attribute: " + key, e);
-				// we'll end up skipping saving this attribute, it probably had problems being serialized
 			}
 		}
 
-		Map<String, Object>  sessionAttrs = ReflectionUtils.getSessionAttributes(currentSession);
+		Map<String, Object>  sessionAttrs = FoundationSession.attributesOf(currentSession);
 		final Set<String> keySet = this.attributes.keySet();
 		for (final Iterator<String> attrIterator = keySet.iterator(); attrIterator.hasNext();) {
 			final String key = attrIterator.next();
@@ -293,11 +376,94 @@ class SessionSerializationData implements ManualSerializable, Serializable {
 
 	}
 
+	/**
+	 * Like {@link #takeSnapshotAndCalculateDelta(StandardSession)}, but only the written keys, new keys and attributes that
+	 * may have been mutated in place are serialized and compared; a request that wrote nothing examines no attribute.
+	 * <p/>
+	 * An attribute mutated in place on a request that wrote nothing is picked up by the next request that writes.
+	 */
+	protected void takeSnapshotAndCalculateDelta(final StandardSession currentSession, final Set<String> writtenKeys) {
+		assertThreadHasLock();
+		final Map<String, Object> sessionAttrs = FoundationSession.attributesOf(currentSession);
+		// the baseline has to mirror the session for a partial examination; a new or reloaded one may not, so scan it all
+		if (writtenKeys == null || this.attributes.size() != sessionAttrs.size()) {
+			takeSnapshotAndCalculateDelta(currentSession);
+			return;
+		}
+
+		this.removedSessionAttributes.clear();
+		this.modifiedSessionAttributeRecords.clear();
+
+		if (!writtenKeys.isEmpty()) {
+			for (final Map.Entry<String, Object> entry : sessionAttrs.entrySet()) {
+				final String key = entry.getKey();
+				final Object value = entry.getValue();
+				if (writtenKeys.contains(key) || !this.attributes.containsKey(key) || isMutable(value))
+					examineAttribute(key, value);
+			}
+			for (final String key : writtenKeys) {
+				if (!sessionAttrs.containsKey(key) && this.attributes.remove(key) != null)
+					removedSessionAttributes.add(key);
+			}
+		}
+
+		// totals from the baseline records, the untouched attributes need not be serialized for them
+		attributes_count = this.attributes.size();
+		attributes_size = 0;
+		for (final SessionAttributeRecord sar : this.attributes.values()) {
+			attributes_size += sar.data_length;
+		}
+	}
+
+	/**
+	 * Serialize the attribute and record it as modified if it differs from the baseline.
+	 *
+	 * @return the new record, null if the attribute could not be serialized
+	 */
+	private SessionAttributeRecord examineAttribute(final String key, final Object currentSessionAttrValue) {
+		try {
+			final SessionAttributeRecord existingSar = this.attributes.get(key);
+			final int update_count = existingSar == null ? 1 : existingSar.update_count + 1;
+			final SessionAttributeRecord newAttrRec = new SessionAttributeRecord(getLogger(), key, currentSessionAttrValue, update_count);
+			if (existingSar == null || existingSar.data_length != newAttrRec.data_length || !existingSar.data_checksum.equals(newAttrRec.data_checksum)) {
+				modifiedSessionAttributeRecords.put(key, newAttrRec);
+				//new attr or changed attributes,  put to the attributes collection.
+				putAttributeRecord(newAttrRec);
+			}
+
+			// remove this from the removedSessionAttributes because we know it exists now  --redundant?
+			removedSessionAttributes.remove(key);
+			return newAttrRec;
+		} catch (final Exception e) {
+			//getLogger().error("Problem processing session attribute change for session: " + session_id + " and attribute: " + key, e);
+			// we'll end up skipping saving this attribute, it probably had problems being serialized
+			return null;
+		}
+	}
+
+	private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.<Class<?>> asList(String.class, Boolean.class,
+			Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class, Double.class, java.math.BigInteger.class,
+			java.math.BigDecimal.class, java.util.UUID.class, java.util.Locale.class, Class.class));
+
+	/**
+	 * @return true if the value could have been changed without a setAttribute, i.e. it is not of a known immutable type
+	 */
+	private static boolean isMutable(final Object value) {
+		if (value == null)
+			return false;
+		final Class<?> type = value.getClass();
+		return !IMMUTABLE_TYPES.contains(type) && !(value instanceof Enum);
+	}
+
 	public void setHeaderData(final StandardSession s, final Request request, final String nodeID, final String webApp) {
 		assertThreadHasLock();
 		final SessionSerializationHeaderData oldHeader = header;
 		header = new SessionSerializationHeaderData(getLogger(), s, request, nodeID, webApp);
-		headerChanged = oldHeader == null || !oldHeader.equals(header);
+		if (request == null && oldHeader != null)
+			header.keepRequestData(oldHeader);
+		// without a request since the baseline was loaded, the stored header is still current
+		headerChanged = oldHeader == null ? request != null : !oldHeader.equals(header);
+		userChanged = oldHeader != null && !Objects.equals(oldHeader.user_id, header.user_id);
 	}
 
 	public Collection<SessionAttributeRecord> getModifiedSessionAttributeRecords() {
@@ -352,6 +518,34 @@ class SessionSerializationData implements ManualSerializable, Serializable {
 		return id;
 	}
 
+	/**
+	 * Follow the session to its new id, once the store moved it there.
+	 */
+	void changeId(final String id) {
+		assertThreadHasLock();
+		this.id = id;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(final long version) {
+		this.version = version;
+	}
+
+	/**
+	 * @return the version this (baseline) data started from when it was loaded or created
+	 */
+	public long getBaseVersion() {
+		return baseVersion;
+	}
+
+	void initVersion(final long version) {
+		this.baseVersion = version;
+		this.version = version;
+	}
+
 
 
 	@Override
@@ -399,6 +593,7 @@ class SessionSerializationData implements ManualSerializable, Serializable {
 		stream.writeObject(persistenceQueueState);
 		stream.writeObject(Long.valueOf(waitLockTime));
 		stream.writeObject(Long.valueOf(lastAccessTime));
+		stream.writeObject(Long.valueOf(version));
 
 	}
 
@@ -448,11 +643,47 @@ class SessionSerializationData implements ManualSerializable, Serializable {
 		persistenceQueueState = (PersistenceQueueState)stream.readObject();
 		waitLockTime =((Long)stream.readObject()).longValue();
 		lastAccessTime = ((Long)stream.readObject()).longValue();
+		version = ((Long)stream.readObject()).longValue();
 
 
 	}
 
 
+	/**
+	 * Fold the changes of an older snapshot of the same session that was never stored into this (newer) one, so that
+	 * storing this snapshot alone has the same effect as storing both in order.
+	 * <p/>
+	 * Both snapshots must be copies handed off for persistence, not the baseline, and neither may be in use by another
+	 * thread.
+	 */
+	void mergeFrom(final SessionSerializationData older) {
+		if (!id.equals(older.id))
+			throw new IllegalArgumentException("Cannot merge snapshot of session " + older.id + " into " + id);
+		if (header == null && older.header != null) {
+			// this one captured nothing (a session id change marker): it is stored as the older capture would have been
+			header = older.header;
+			version = older.version;
+			attributes_count = older.attributes_count;
+			attributes_size = older.attributes_size;
+		}
+		headerChanged = headerChanged || older.headerChanged;
+		persistencePriority = PersistencePriority.higher(getPersistencePriority(), older.getPersistencePriority());
+		for (final Map.Entry<String, SessionAttributeRecord> entry : older.modifiedSessionAttributeRecords.entrySet()) {
+			final String key = entry.getKey();
+			// a newer write or removal of the same key supersedes the older one
+			if (!modifiedSessionAttributeRecords.containsKey(key) && !removedSessionAttributes.contains(key))
+				modifiedSessionAttributeRecords.put(key, entry.getValue());
+		}
+		for (final String key : older.removedSessionAttributes) {
+			if (!modifiedSessionAttributeRecords.containsKey(key))
+				removedSessionAttributes.add(key);
+		}
+		waitLockTime = Math.max(waitLockTime, older.waitLockTime);
+		captureSequence = Math.max(captureSequence, older.captureSequence);
+		if (idChange == null)
+			idChange = older.idChange;
+	}
+
 	/**
 	 * Wipe the attribute data to be stored to the cache to save memory.
 	 */
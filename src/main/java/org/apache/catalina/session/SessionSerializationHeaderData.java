@@ -104,8 +104,8 @@ public class SessionSerializationHeaderData implements ManualSerializable, Seria
          final StandardSession s, final Request request, final String nodeID, final String webApp) {
      super();
      this.logger =logger;
-     tenant_id = FoundationUtil.truncate(ReflectionUtils.getSessionAttributes(s).get("tenantToken"), 255);
-     user = ReflectionUtils.getSessionAttributes(s).get("com.plateausystems.elms.client.javabean.TMSUserContextProvider");
+     tenant_id = FoundationUtil.truncate(FoundationSession.attributesOf(s).get("tenantToken"), 255);
+     user = FoundationSession.attributesOf(s).get("com.plateausystems.elms.client.javabean.TMSUserContextProvider");
      user_id = user == null ? null : FoundationUtil.truncate(user.toString(), 255);
      node_id = FoundationUtil.truncate(nodeID, 90);
      webapp = FoundationUtil.truncate(webApp, 90);
@@ -135,19 +135,14 @@ public class SessionSerializationHeaderData implements ManualSerializable, Seria
      final int prime = 31;
      int result = 1;
      result = prime * result + ((creation_time == null) ? 0 : creation_time.hashCode());
-     result = prime * result + ((expiration_time == null) ? 0 : expiration_time.hashCode());
      result = prime * result + ((is_new == null) ? 0 : is_new.hashCode());
      result = prime * result + ((is_valid == null) ? 0 : is_valid.hashCode());
-     result = prime * result + ((last_accessed_time == null) ? 0 : last_accessed_time.hashCode());
      result = prime * result + max_inactive_interval;
      result = prime * result + ((node_id == null) ? 0 : node_id.hashCode());
      result = prime * result + ((remote_addr == null) ? 0 : remote_addr.hashCode());
      result = prime * result + ((remote_host == null) ? 0 : remote_host.hashCode());
-     result = prime * result + ((remote_port == null) ? 0 : remote_port.hashCode());
      result = prime * result + ((remote_user == null) ? 0 : remote_user.hashCode());
-     result = prime * result + request_count;
      result = prime * result + ((tenant_id == null) ? 0 : tenant_id.hashCode());
-     result = prime * result + ((this_accessed_time == null) ? 0 : this_accessed_time.hashCode());
      result = prime * result + ((user == null) ? 0 : user.hashCode());
      result = prime * result + ((user_agent == null) ? 0 : user_agent.hashCode());
      result = prime * result + ((user_id == null) ? 0 : user_id.hashCode());
@@ -158,19 +153,35 @@ public class SessionSerializationHeaderData implements ManualSerializable, Seria
 
 
 
- private boolean isTimeChanged(Timestamp a,  Timestamp b ) {
-     if (a == null) {
-         if (b != null)
-             return true;
-     }
-     else if (a != null) {
-         if (b == null)
-             return true;
-     }
-     else if (  Math.abs(b.getTime()-a.getTime()) > timeChangedSkew ) {
-         return true;
-     }
-     return false;
+ /**
+  * Access times and the request counter move on every request, so they are left out of {@link #equals(Object)} and
+  * travel through the touch channel instead: a header whose other fields did not change only needs its access
+  * times written once they drifted more than {@link #timeChangedSkew} from what was last sent to the store.
+  *
+  * @param lastSentAccessTime this_accessed_time of the header last sent to the store, 0 if none
+  * @return true if the access times need to be written
+  */
+ public boolean isAccessTimeChanged(final long lastSentAccessTime) {
+     if (this_accessed_time == null)
+         return false;
+     return Math.abs(this_accessed_time.getTime() - lastSentAccessTime) > timeChangedSkew;
+ }
+
+ public long getThisAccessedTime() {
+     return this_accessed_time == null ? 0 : this_accessed_time.getTime();
+ }
+
+ /**
+  * Keep what the previous header took from its request, for a header captured outside of a request (unload,
+  * eviction) which would otherwise store the client columns as null.
+  */
+ void keepRequestData(final SessionSerializationHeaderData previous) {
+     request_count = previous.request_count;
+     user_agent = previous.user_agent;
+     remote_host = previous.remote_host;
+     remote_addr = previous.remote_addr;
+     remote_port = previous.remote_port;
+     remote_user = previous.remote_user;
  }
 
 
@@ -194,9 +205,6 @@ public class SessionSerializationHeaderData implements ManualSerializable, Seria
 //   } else if (!expiration_time.equals(other.expiration_time))
 //       return false;
 
-     if (isTimeChanged(expiration_time,other.expiration_time ))
-         return false;
-
 
 
      if (is_new == null) {
@@ -214,8 +222,6 @@ public class SessionSerializationHeaderData implements ManualSerializable, Seria
 //           return false;
 //   } else if (!last_accessed_time.equals(other.last_accessed_time))
 //       return false;
-     if (isTimeChanged(last_accessed_time,other.last_accessed_time ))
-         return false;
 
 
 
@@ -251,8 +257,7 @@ public class SessionSerializationHeaderData implements ManualSerializable, Seria
              return false;
      } else if (!remote_user.equals(other.remote_user))
          return false;
-     if (request_count != other.request_count)
-         return false;
+     // request_count goes with the access times, see isAccessTimeChanged()
      if (tenant_id == null) {
          if (other.tenant_id != null)
              return false;
@@ -264,9 +269,6 @@ public class SessionSerializationHeaderData implements ManualSerializable, Seria
 //   } else if (!this_accessed_time.equals(other.this_accessed_time))
 //       return false;
 
-     if (isTimeChanged(this_accessed_time,other.this_accessed_time ))
-         return false;
-
 
      if (user == null) {
          if (other.user != null)
@@ -0,0 +1,199 @@
+package org.apache.catalina.session;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Description: local swap file of passivated sessions, memory mapped and indexed by session id, so that a session
+ * evicted from memory is brought back at local disk speed instead of being loaded from the store.
+ * <p/>
+ * The file is a ring: records are appended after one another and writing wraps around to the start of the file once
+ * the end is reached, overwriting the oldest records, which are dropped from the index. A record taken or removed
+ * leaves its space behind until the writing comes around to it. The index is in memory only, the file is scratch
+ * space for the lifetime of the store and deleted on close.
+ *
+ * @author jim631@sina.com
+ */
+public class SessionSwapFile {
+
+	/**
+	 * Record of a passivated session: the version of the stored session it was passivated at, and its data.
+	 */
+	public static final class Record {
+		private final long version;
+		private final byte[] data;
+
+		Record(final long version, final byte[] data) {
+			this.version = version;
+			this.data = data;
+		}
+
+		public long getVersion() {
+			return version;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+	}
+
+	private static final class Entry {
+		final int offset;
+		final int length;
+		final long version;
+
+		Entry(final int offset, final int length, final long version) {
+			this.offset = offset;
+			this.length = length;
+			this.version = version;
+		}
+	}
+
+	private final File file;
+	private final RandomAccessFile raf;
+	private final int capacity;
+
+	// guarded by this; entries in the order they were written, oldest first
+	private MappedByteBuffer buffer;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+	private int writePosition;
+	private long usedBytes;
+	private long overwritten;
+
+	/**
+	 * @param file swap file, created or truncated
+	 * @param capacity size of the file in bytes
+	 */
+	public SessionSwapFile(final File file, final int capacity) throws IOException {
+		super();
+		this.file = file;
+		this.capacity = Math.max(1, capacity);
+		this.raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(0);
+			raf.setLength(this.capacity);
+			this.buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+		} catch (final IOException e) {
+			raf.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Keep the data of the session, in place of what was kept for it before.
+	 *
+	 * @return false if the data is larger than the file, or the file is closed
+	 */
+	public synchronized boolean put(final String id, final long version, final byte[] data) {
+		remove(id);
+		if (buffer == null || data.length > capacity)
+			return false;
+		if (writePosition + data.length > capacity) {
+			// the tail is too short, the records left in it are the oldest and give way as the writing starts over
+			dropOldestFrom(writePosition, capacity);
+			writePosition = 0;
+		}
+		dropOldestFrom(writePosition, writePosition + data.length);
+		buffer.position(writePosition);
+		buffer.put(data);
+		entries.put(id, new Entry(writePosition, data.length, version));
+		usedBytes += data.length;
+		writePosition += data.length;
+		return true;
+	}
+
+	/**
+	 * Drop the records of the previous round that start in the given range; being the oldest they are first in line.
+	 */
+	private void dropOldestFrom(final int from, final int to) {
+		for (final Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			final Entry entry = it.next();
+			if (entry.offset < from || entry.offset >= to)
+				break;
+			it.remove();
+			usedBytes -= entry.length;
+			overwritten++;
+		}
+	}
+
+	/**
+	 * Take the data kept for the session out of the file.
+	 *
+	 * @return the record, or null if none is kept
+	 */
+	public synchronized Record take(final String id) {
+		final Entry entry = entries.remove(id);
+		if (entry == null || buffer == null)
+			return null;
+		usedBytes -= entry.length;
+		final byte[] data = new byte[entry.length];
+		buffer.position(entry.offset);
+		buffer.get(data);
+		return new Record(entry.version, data);
+	}
+
+	public synchronized boolean contains(final String id) {
+		return entries.containsKey(id);
+	}
+
+	public synchronized void remove(final String id) {
+		final Entry entry = entries.remove(id);
+		if (entry != null)
+			usedBytes -= entry.length;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return bytes of the records kept
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * @return records dropped to make room for newer ones
+	 */
+	public synchronized long getOverwrittenCount() {
+		return overwritten;
+	}
+
+	/**
+	 * Forget every record, the file is written from its start again.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		usedBytes = 0;
+		writePosition = 0;
+	}
+
+	/**
+	 * Forget every record and delete the file.
+	 */
+	public synchronized void close() {
+		entries.clear();
+		usedBytes = 0;
+		buffer = null;
+		try {
+			raf.close();
+		} catch (final IOException e) {
+			// nothing is kept in the file beyond this point
+		}
+		file.delete();
+	}
+
+	public File getFile() {
+		return file;
+	}
+}
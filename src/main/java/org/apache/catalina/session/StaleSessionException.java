@@ -0,0 +1,28 @@
+package org.apache.catalina.session;
+
+import java.sql.SQLException;
+
+/**
+ * Thrown when a session write is fenced off because the stored session version is no longer the one the writer
+ * based its snapshot on, i.e. another node (or a newer owner) has written the session in the meantime.
+ */
+public class StaleSessionException extends SQLException {
+
+	private static final long serialVersionUID = 1L;
+
+	public StaleSessionException() {
+		super();
+	}
+
+	public StaleSessionException(final String message, final Throwable cause) {
+		super(message, cause);
+	}
+
+	public StaleSessionException(final String message) {
+		super(message);
+	}
+
+	public StaleSessionException(final Throwable cause) {
+		super(cause);
+	}
+}
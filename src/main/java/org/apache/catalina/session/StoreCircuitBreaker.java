@@ -0,0 +1,118 @@
+package org.apache.catalina.session;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.logging.Logger;
+
+/**
+ * Description: circuit breaker in front of the session store, so that requests stop waiting on connection timeouts while
+ * the store is down.
+ * <p/>
+ * CLOSED lets every call through and opens after a number of consecutive store failures. OPEN fails every call fast
+ * until the open time has passed; then the next caller (the health probe, or a request) becomes the trial and the
+ * breaker is HALF_OPEN: the trial's outcome closes or reopens it, the other callers keep failing fast meanwhile. A trial
+ * that never reports back is replaced after another open time.
+ * <p/>
+ * The CLOSED check is a single volatile read, the request path only synchronizes while the store is down.
+ *
+ * @author jim631@sina.com
+ */
+public class StoreCircuitBreaker {
+
+	private static final Logger log = Logger.getLogger(StoreCircuitBreaker.class.getName());
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int failureThreshold;
+	private final long openDurationMs;
+
+	private volatile State state = State.CLOSED;
+	private volatile int consecutiveFailures;
+	// OPEN: time the next trial may start, HALF_OPEN: time the running trial is given up on
+	private long nextTrialTime;
+
+	private volatile long openedCount;
+	private volatile long rejectedCount;
+
+	public StoreCircuitBreaker(final int failureThreshold, final long openDurationMs) {
+		super();
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openDurationMs = Math.max(1, openDurationMs);
+	}
+
+	/**
+	 * @return true if the caller may use the store; while not CLOSED at most one caller at a time gets true, as the trial
+	 */
+	public boolean allowRequest() {
+		if (state == State.CLOSED)
+			return true;
+		synchronized (this) {
+			final long now = System.currentTimeMillis();
+			if (state == State.CLOSED)
+				return true;
+			if (now < nextTrialTime) {
+				rejectedCount++;
+				return false;
+			}
+			state = State.HALF_OPEN;
+			nextTrialTime = now + openDurationMs;
+			return true;
+		}
+	}
+
+	public boolean isClosed() {
+		return state == State.CLOSED;
+	}
+
+	public void onSuccess() {
+		if (state == State.CLOSED && consecutiveFailures == 0)
+			return;
+		synchronized (this) {
+			consecutiveFailures = 0;
+			if (state != State.CLOSED) {
+				state = State.CLOSED;
+				log.info("Session store is reachable again, circuit closed");
+			}
+		}
+	}
+
+	public synchronized void onFailure() {
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			nextTrialTime = System.currentTimeMillis() + openDurationMs;
+			openedCount++;
+			log.severe("Session store failed " + consecutiveFailures + " time(s) in a row, circuit open for " + openDurationMs + "ms");
+		}
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public long getOpenedCount() {
+		return openedCount;
+	}
+
+	public long getRejectedCount() {
+		return rejectedCount;
+	}
+
+	public synchronized void resetCounters() {
+		openedCount = 0;
+		rejectedCount = 0;
+	}
+
+	/**
+	 * @return true if the exception tells the store could not be reached or failed, rather than that the data was bad
+	 */
+	public static boolean isStoreFailure(final IOException e) {
+		for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+			if (cause instanceof SQLException)
+				return !(cause instanceof StaleSessionException);
+		}
+		return false;
+	}
+}
@@ -0,0 +1,109 @@
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author jim631@sina.com
+ */
+public class BinaryDeltaTest {
+
+	private static byte[] roundTrip(final byte[] base, final byte[] target) throws IOException {
+		final byte[] delta = BinaryDelta.diff(base, target);
+		final byte[] result = BinaryDelta.apply(base, delta);
+		assertArrayEquals(target, result);
+		return delta;
+	}
+
+	private static byte[] random(final Random random, final int length) {
+		final byte[] result = new byte[length];
+		random.nextBytes(result);
+		return result;
+	}
+
+	@Test
+	public void identicalDataGivesSmallDelta() throws IOException {
+		final byte[] base = random(new Random(1), 4096);
+		final byte[] delta = roundTrip(base, base.clone());
+		assertTrue(delta.length < 16);
+	}
+
+	@Test
+	public void replacedRunsOfTheSameLength() throws IOException {
+		final Random random = new Random(2);
+		final byte[] base = random(random, 8192);
+		final byte[] target = base.clone();
+		for (int i = 0; i < 20; i++) {
+			target[random.nextInt(target.length)] ^= 0x5a;
+		}
+		final byte[] delta = roundTrip(base, target);
+		assertTrue(delta.length < target.length / 10);
+	}
+
+	@Test
+	public void grownAndShrunkRegion() throws IOException {
+		final Random random = new Random(3);
+		final byte[] base = random(random, 8192);
+		final byte[] grown = new byte[base.length + 100];
+		System.arraycopy(base, 0, grown, 0, 4000);
+		System.arraycopy(random(random, 100), 0, grown, 4000, 100);
+		System.arraycopy(base, 4000, grown, 4100, base.length - 4000);
+		assertTrue(roundTrip(base, grown).length < 200);
+		roundTrip(grown, base);
+		roundTrip(base, Arrays.copyOf(base, 100));
+		roundTrip(base, new byte[0]);
+		roundTrip(new byte[0], base);
+	}
+
+	@Test
+	public void unrelatedData() throws IOException {
+		final Random random = new Random(4);
+		for (int i = 0; i < 200; i++) {
+			roundTrip(random(random, random.nextInt(2000)), random(random, random.nextInt(2000)));
+		}
+	}
+
+	@Test
+	public void chainOfDeltas() throws IOException {
+		final Random random = new Random(5);
+		byte[] image = random(random, 16384);
+		final byte[] first = image;
+		final byte[][] deltas = new byte[10][];
+		final byte[][] images = new byte[10][];
+		for (int i = 0; i < deltas.length; i++) {
+			final byte[] next = image.clone();
+			next[random.nextInt(next.length)]++;
+			deltas[i] = BinaryDelta.diff(image, next);
+			images[i] = next;
+			image = next;
+		}
+		// a load replays the chain from the full image
+		byte[] replayed = first;
+		for (int i = 0; i < deltas.length; i++) {
+			replayed = BinaryDelta.apply(replayed, deltas[i]);
+			assertArrayEquals(images[i], replayed);
+		}
+	}
+
+	@Test
+	public void deltaAgainstAnotherBaseIsRejected() throws IOException {
+		final Random random = new Random(6);
+		final byte[] base = random(random, 1000);
+		final byte[] target = base.clone();
+		target[10]++;
+		final byte[] delta = BinaryDelta.diff(base, target);
+		try {
+			BinaryDelta.apply(Arrays.copyOf(base, 5), delta);
+			fail("delta applied to a base it does not fit");
+		} catch (final IOException e) {
+			// expected
+		}
+	}
+}
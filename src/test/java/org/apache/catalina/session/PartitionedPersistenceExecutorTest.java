@@ -0,0 +1,274 @@
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.apache.catalina.session.PartitionedPersistenceExecutor.WaitStrategy;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author jim631@sina.com
+ */
+public class PartitionedPersistenceExecutorTest {
+
+	private static final Logger log = Logger.getLogger(PartitionedPersistenceExecutorTest.class.getName());
+
+	private final List<ThreadPoolExecutor> pools = new ArrayList<ThreadPoolExecutor>();
+
+	@After
+	public void shutDown() {
+		for (final ThreadPoolExecutor pool : pools) {
+			pool.shutdownNow();
+		}
+	}
+
+	private ThreadPoolExecutor workers(final int threads) {
+		final ThreadPoolExecutor result = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		pools.add(result);
+		return result;
+	}
+
+	private ScheduledExecutorService retryTimer() {
+		final ScheduledThreadPoolExecutor result = new ScheduledThreadPoolExecutor(1);
+		pools.add(result);
+		return result;
+	}
+
+	private static SessionSerializationData snapshot(final String id, final long captureSequence, final String... removedKeys) throws Exception {
+		final SessionSerializationData result = new SessionSerializationData(log, id);
+		result.setCaptureSequence(captureSequence);
+		result.tryLock(1, TimeUnit.SECONDS);
+		try {
+			result.getRemovedSessionAttributes().addAll(Arrays.asList(removedKeys));
+		} finally {
+			result.unlock();
+		}
+		return result;
+	}
+
+	private static void await(final CountDownLatch latch) throws InterruptedException {
+		assertTrue("timed out", latch.await(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void savesOfEachSessionStayInOrderUnderConcurrentProducers() throws Exception {
+		final int producers = 4;
+		final int sessionsPerProducer = 20;
+		final int capturesPerSession = 500;
+		final Map<String, Long> lastStored = new ConcurrentHashMap<String, Long>();
+		final Map<String, Boolean> inProgress = new ConcurrentHashMap<String, Boolean>();
+		final AtomicInteger outOfOrder = new AtomicInteger();
+		final AtomicInteger overlapping = new AtomicInteger();
+		final PartitionedPersistenceExecutor executor = new PartitionedPersistenceExecutor(4, 64, workers(4), WaitStrategy.YIELD,
+				TimeUnit.MICROSECONDS.toNanos(50), PersistencePriority.getDefaultWeights(), 1, 1, 1, null) {
+			@Override
+			protected void persist(final SessionSerializationData ssd, final long timeQueued) {
+				if (inProgress.put(ssd.getId(), Boolean.TRUE) != null)
+					overlapping.incrementAndGet();
+				final Long previous = lastStored.put(ssd.getId(), Long.valueOf(ssd.getCaptureSequence()));
+				if (previous != null && previous.longValue() >= ssd.getCaptureSequence())
+					outOfOrder.incrementAndGet();
+				inProgress.remove(ssd.getId());
+			}
+		};
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> threads = new ArrayList<Thread>();
+		final AtomicInteger producerFailures = new AtomicInteger();
+		for (int p = 0; p < producers; p++) {
+			final int producer = p;
+			final Thread thread = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						for (int capture = 1; capture <= capturesPerSession; capture++) {
+							for (int s = 0; s < sessionsPerProducer; s++) {
+								final SessionSerializationData ssd = snapshot(producer + "-" + s, capture);
+								while (!executor.submit(ssd)) {
+									Thread.yield();
+								}
+							}
+						}
+					} catch (final Exception e) {
+						producerFailures.incrementAndGet();
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		start.countDown();
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(0, executor.drain(System.currentTimeMillis() + 10000));
+		assertEquals(0, producerFailures.get());
+		assertEquals(0, outOfOrder.get());
+		assertEquals(0, overlapping.get());
+		assertEquals(producers * sessionsPerProducer, lastStored.size());
+		for (final Long last : lastStored.values()) {
+			// the last capture of each session is stored, merged with whatever was still waiting
+			assertEquals(capturesPerSession, last.longValue());
+		}
+		assertEquals((long) producers * sessionsPerProducer * capturesPerSession,
+				executor.getTotalSessionsPersisted() + executor.getTotalSessionsCoalesced());
+	}
+
+	@Test
+	public void snapshotWaitingForItsRetryTakesInLaterOnes() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		final CountDownLatch failed = new CountDownLatch(1);
+		final CountDownLatch stored = new CountDownLatch(1);
+		final List<SessionSerializationData> persisted = new ArrayList<SessionSerializationData>();
+		final PartitionedPersistenceExecutor executor = new PartitionedPersistenceExecutor(1, 16, workers(1), WaitStrategy.RELEASE, 0,
+				PersistencePriority.getDefaultWeights(), 3, 200, 200, retryTimer()) {
+			@Override
+			protected void persist(final SessionSerializationData ssd, final long timeQueued) throws IOException {
+				if (attempts.incrementAndGet() == 1) {
+					failed.countDown();
+					throw new IOException("store down");
+				}
+				synchronized (persisted) {
+					persisted.add(ssd);
+				}
+				stored.countDown();
+			}
+		};
+
+		assertTrue(executor.submit(snapshot("a", 1, "first")));
+		await(failed);
+		assertTrue(executor.submit(snapshot("a", 2, "second")));
+		await(stored);
+		assertEquals(0, executor.drain(System.currentTimeMillis() + 10000));
+
+		assertEquals(2, attempts.get());
+		assertEquals(1, persisted.size());
+		final SessionSerializationData merged = persisted.get(0);
+		assertEquals(2, merged.getCaptureSequence());
+		merged.tryLock(1, TimeUnit.SECONDS);
+		try {
+			assertEquals(new HashSet<String>(Arrays.asList("first", "second")), merged.getRemovedSessionAttributes());
+		} finally {
+			merged.unlock();
+		}
+		assertEquals(1, executor.getTotalSessionsCoalesced());
+		assertEquals(1, executor.getTotalPersistFailures());
+		assertEquals(1, executor.getTotalPersistRetries());
+		assertEquals(0, executor.getTotalSessionsGivenUp());
+	}
+
+	@Test
+	public void fullLaneRejectsSnapshots() throws Exception {
+		final ThreadPoolExecutor workers = workers(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		// keep the only worker busy so that the lane is not taken into its window
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					// shutting down
+				}
+			}
+		});
+		final AtomicInteger stored = new AtomicInteger();
+		final PartitionedPersistenceExecutor executor = new PartitionedPersistenceExecutor(1, 3, workers, WaitStrategy.RELEASE, 0,
+				PersistencePriority.getDefaultWeights(), 1, 1, 1, null) {
+			@Override
+			protected void persist(final SessionSerializationData ssd, final long timeQueued) {
+				stored.incrementAndGet();
+			}
+		};
+
+		// the capacity is rounded up to 4
+		for (int i = 0; i < 4; i++) {
+			assertTrue(executor.submit(snapshot("s" + i, 1)));
+		}
+		assertFalse(executor.submit(snapshot("s4", 1)));
+		assertFalse(executor.submit(snapshot("s0", 2)));
+		assertEquals(2, executor.getTotalSessionsRejected());
+		assertEquals(4, executor.getQueueSize());
+
+		release.countDown();
+		assertEquals(0, executor.drain(System.currentTimeMillis() + 10000));
+		assertEquals(4, stored.get());
+		assertTrue(executor.submit(snapshot("s4", 1)));
+	}
+
+	@Test
+	public void drainReturnsWhatIsLeftAtTheDeadline() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger stored = new AtomicInteger();
+		final PartitionedPersistenceExecutor executor = new PartitionedPersistenceExecutor(1, 16, workers(1), WaitStrategy.RELEASE, 0,
+				PersistencePriority.getDefaultWeights(), 1, 1, 1, null) {
+			@Override
+			protected void persist(final SessionSerializationData ssd, final long timeQueued) throws IOException {
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					throw new IOException(e);
+				}
+				stored.incrementAndGet();
+			}
+		};
+		for (int i = 0; i < 3; i++) {
+			assertTrue(executor.submit(snapshot("s" + i, 1)));
+		}
+
+		final long start = System.currentTimeMillis();
+		final int left = executor.drain(start + 200);
+		assertTrue(System.currentTimeMillis() - start >= 200);
+		// one is being stored, the other two are still waiting
+		assertEquals(2, left);
+		assertEquals(0, stored.get());
+
+		release.countDown();
+		assertEquals(0, executor.drain(System.currentTimeMillis() + 10000));
+		assertEquals(3, stored.get());
+	}
+
+	@Test
+	public void drainRetriesWithoutBackoff() throws Exception {
+		final AtomicInteger attempts = new AtomicInteger();
+		final CountDownLatch failed = new CountDownLatch(1);
+		final PartitionedPersistenceExecutor executor = new PartitionedPersistenceExecutor(1, 16, workers(1), WaitStrategy.RELEASE, 0,
+				PersistencePriority.getDefaultWeights(), 3, 60000, 60000, retryTimer()) {
+			@Override
+			protected void persist(final SessionSerializationData ssd, final long timeQueued) throws IOException {
+				if (attempts.incrementAndGet() == 1) {
+					failed.countDown();
+					throw new IOException("store down");
+				}
+			}
+		};
+		assertTrue(executor.submit(snapshot("a", 1)));
+		await(failed);
+
+		// the retry is a minute away, the drain does not wait for it
+		assertEquals(0, executor.drain(System.currentTimeMillis() + 10000));
+		assertEquals(2, attempts.get());
+		assertEquals(1, executor.getTotalSessionsPersisted());
+		assertEquals(0, executor.getTotalSessionsGivenUp());
+	}
+}
@@ -0,0 +1,69 @@
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * @author jim631@sina.com
+ */
+public class SessionExpiryIndexTest {
+
+	@Test
+	public void dueSessionsComeOutEarliestFirst() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(10);
+		index.schedule("a", 35);
+		index.schedule("b", 15);
+		index.schedule("c", 100);
+		assertEquals(3, index.size());
+		assertEquals(Arrays.asList("b", "a"), index.pollDue(40));
+		assertEquals(1, index.size());
+		assertTrue(index.pollDue(40).isEmpty());
+		assertEquals(Collections.singletonList("c"), index.pollDue(100));
+		assertEquals(0, index.size());
+	}
+
+	@Test
+	public void deadlinesAreRoundedUpToWholeSlots() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(10);
+		index.schedule("a", 31);
+		assertTrue(index.pollDue(39).isEmpty());
+		assertEquals(Collections.singletonList("a"), index.pollDue(40));
+	}
+
+	@Test
+	public void earlierDeadlineTakesEffectLaterOneWaits() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(10);
+		index.schedule("a", 100);
+		index.schedule("a", 30);
+		assertEquals(1, index.size());
+		assertEquals(Collections.singletonList("a"), index.pollDue(30));
+
+		index.schedule("b", 30);
+		index.schedule("b", 100);
+		// the session comes up at its earlier time, the caller indexes it again at its current deadline
+		assertEquals(Collections.singletonList("b"), index.pollDue(30));
+		assertTrue(index.pollDue(100).isEmpty());
+	}
+
+	@Test
+	public void removeAndClear() {
+		final SessionExpiryIndex index = new SessionExpiryIndex(10);
+		index.schedule("a", 10);
+		index.schedule("b", 10);
+		index.schedule("c", 20);
+		index.remove("a");
+		index.remove("unknown");
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList("b", "c"), index.pollDue(20));
+
+		index.schedule("d", 10);
+		index.clear();
+		assertEquals(0, index.size());
+		assertTrue(index.pollDue(Long.MAX_VALUE).isEmpty());
+	}
+}
@@ -0,0 +1,102 @@
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * @author jim631@sina.com
+ */
+public class SessionIdBloomFilterTest {
+
+	private static List<String> ids(final int count) {
+		final List<String> result = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			result.add(UUID.randomUUID().toString().replace("-", "").toUpperCase());
+		}
+		return result;
+	}
+
+	@Test
+	public void sizing() {
+		final SessionIdBloomFilter filter = new SessionIdBloomFilter(1000, 10);
+		assertEquals(10000, filter.getBitCount());
+		assertEquals(7, filter.getHashCount());
+		assertEquals(64, new SessionIdBloomFilter(0, 0).getBitCount());
+	}
+
+	@Test
+	public void emptyFilterContainsNothing() {
+		final SessionIdBloomFilter filter = new SessionIdBloomFilter(1000, 10);
+		for (final String id : ids(1000)) {
+			assertFalse(filter.mightContain(id));
+		}
+		assertEquals(0, filter.getFalsePositivePercent(), 0);
+	}
+
+	@Test
+	public void addedIdsAreAlwaysFound() {
+		final SessionIdBloomFilter filter = new SessionIdBloomFilter(10000, 10);
+		final List<String> added = ids(10000);
+		for (final String id : added) {
+			filter.add(id);
+		}
+		for (final String id : added) {
+			assertTrue(id, filter.mightContain(id));
+		}
+		assertEquals(added.size(), filter.getAddedCount());
+	}
+
+	@Test
+	public void falsePositivesStayNearTheSizedRate() {
+		final SessionIdBloomFilter filter = new SessionIdBloomFilter(10000, 10);
+		for (final String id : ids(10000)) {
+			filter.add(id);
+		}
+		int falsePositives = 0;
+		final List<String> others = ids(100000);
+		for (final String id : others) {
+			if (filter.mightContain(id))
+				falsePositives++;
+		}
+		// about 1% at 10 bits per id
+		assertTrue("false positives: " + falsePositives, falsePositives < others.size() * 2 / 100);
+		assertTrue(filter.getFalsePositivePercent() < 2);
+	}
+
+	@Test
+	public void concurrentAddsAreNotLost() throws InterruptedException {
+		final SessionIdBloomFilter filter = new SessionIdBloomFilter(40000, 10);
+		final List<List<String>> batches = new ArrayList<List<String>>();
+		final List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			final List<String> batch = ids(10000);
+			batches.add(batch);
+			final Thread thread = new Thread() {
+				@Override
+				public void run() {
+					for (final String id : batch) {
+						filter.add(id);
+					}
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+		for (final List<String> batch : batches) {
+			for (final String id : batch) {
+				assertTrue(id, filter.mightContain(id));
+			}
+		}
+		assertEquals(40000, filter.getAddedCount());
+	}
+}
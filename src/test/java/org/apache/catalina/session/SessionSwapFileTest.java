@@ -0,0 +1,118 @@
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author jim631@sina.com
+ */
+public class SessionSwapFileTest {
+
+	private SessionSwapFile swap;
+
+	@Before
+	public void open() throws IOException {
+		swap = new SessionSwapFile(File.createTempFile("session-swap", ".tmp"), 100);
+	}
+
+	@After
+	public void close() {
+		swap.close();
+		assertFalse(swap.getFile().exists());
+	}
+
+	private static byte[] data(final int length, final int fill) {
+		final byte[] result = new byte[length];
+		Arrays.fill(result, (byte) fill);
+		return result;
+	}
+
+	private void assertRecord(final String id, final long version, final byte[] data) {
+		final SessionSwapFile.Record record = swap.take(id);
+		assertEquals(version, record.getVersion());
+		assertArrayEquals(data, record.getData());
+	}
+
+	@Test
+	public void putAndTake() {
+		assertTrue(swap.put("a", 7, data(30, 1)));
+		assertTrue(swap.contains("a"));
+		assertEquals(30, swap.getUsedBytes());
+		assertRecord("a", 7, data(30, 1));
+		assertNull(swap.take("a"));
+		assertEquals(0, swap.size());
+		assertEquals(0, swap.getUsedBytes());
+	}
+
+	@Test
+	public void putReplacesWhatWasKept() {
+		swap.put("a", 1, data(30, 1));
+		swap.put("a", 2, data(20, 2));
+		assertEquals(1, swap.size());
+		assertEquals(20, swap.getUsedBytes());
+		assertRecord("a", 2, data(20, 2));
+	}
+
+	@Test
+	public void writingWrapsAroundOverOldestRecords() {
+		swap.put("a", 1, data(30, 1));
+		swap.put("b", 2, data(30, 2));
+		swap.put("c", 3, data(30, 3));
+		// 10 bytes left at the end: d starts over at 0 and drops a
+		assertTrue(swap.put("d", 4, data(20, 4)));
+		assertFalse(swap.contains("a"));
+		assertEquals(1, swap.getOverwrittenCount());
+		// e reaches into b
+		assertTrue(swap.put("e", 5, data(20, 5)));
+		assertFalse(swap.contains("b"));
+		assertEquals(2, swap.getOverwrittenCount());
+		assertEquals(3, swap.size());
+		assertEquals(70, swap.getUsedBytes());
+
+		assertRecord("c", 3, data(30, 3));
+		assertRecord("d", 4, data(20, 4));
+		assertRecord("e", 5, data(20, 5));
+	}
+
+	@Test
+	public void takenRecordIsNotCountedWhenOverwritten() {
+		swap.put("a", 1, data(60, 1));
+		swap.take("a");
+		swap.put("b", 2, data(60, 2));
+		assertEquals(0, swap.getOverwrittenCount());
+		assertEquals(60, swap.getUsedBytes());
+		assertRecord("b", 2, data(60, 2));
+	}
+
+	@Test
+	public void recordLargerThanTheFileIsRefused() {
+		swap.put("a", 1, data(10, 1));
+		assertFalse(swap.put("b", 2, data(101, 2)));
+		assertFalse(swap.contains("b"));
+		assertTrue(swap.put("c", 3, data(100, 3)));
+		assertFalse(swap.contains("a"));
+		assertRecord("c", 3, data(100, 3));
+	}
+
+	@Test
+	public void clearStartsOver() {
+		swap.put("a", 1, data(50, 1));
+		swap.clear();
+		assertEquals(0, swap.size());
+		assertEquals(0, swap.getUsedBytes());
+		assertNull(swap.take("a"));
+		assertTrue(swap.put("b", 2, data(100, 2)));
+		assertEquals(0, swap.getOverwrittenCount());
+	}
+}
@@ -0,0 +1,103 @@
+package org.apache.catalina.session;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+import org.apache.catalina.session.StoreCircuitBreaker.State;
+import org.junit.Test;
+
+/**
+ * @author jim631@sina.com
+ */
+public class StoreCircuitBreakerTest {
+
+	private static final long OPEN_MS = 50;
+
+	private static StoreCircuitBreaker opened() {
+		final StoreCircuitBreaker breaker = new StoreCircuitBreaker(1, OPEN_MS);
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		return breaker;
+	}
+
+	@Test
+	public void opensAfterConsecutiveFailures() {
+		final StoreCircuitBreaker breaker = new StoreCircuitBreaker(3, 60000);
+		breaker.onFailure();
+		breaker.onFailure();
+		breaker.onSuccess();
+		breaker.onFailure();
+		breaker.onFailure();
+		assertTrue(breaker.isClosed());
+		assertTrue(breaker.allowRequest());
+
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1, breaker.getOpenedCount());
+		assertEquals(2, breaker.getRejectedCount());
+	}
+
+	@Test
+	public void successfulTrialCloses() throws InterruptedException {
+		final StoreCircuitBreaker breaker = opened();
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(OPEN_MS + 10);
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		// one trial at a time
+		assertFalse(breaker.allowRequest());
+		breaker.onSuccess();
+		assertTrue(breaker.isClosed());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void failedTrialReopens() throws InterruptedException {
+		final StoreCircuitBreaker breaker = new StoreCircuitBreaker(5, OPEN_MS);
+		for (int i = 0; i < 5; i++) {
+			breaker.onFailure();
+		}
+		Thread.sleep(OPEN_MS + 10);
+		assertTrue(breaker.allowRequest());
+		// a single failure of the trial is enough, whatever the threshold
+		breaker.onFailure();
+		assertEquals(State.OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+		assertEquals(2, breaker.getOpenedCount());
+	}
+
+	@Test
+	public void trialThatNeverReportsIsReplaced() throws InterruptedException {
+		final StoreCircuitBreaker breaker = opened();
+		Thread.sleep(OPEN_MS + 10);
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(OPEN_MS + 10);
+		assertTrue(breaker.allowRequest());
+		assertEquals(State.HALF_OPEN, breaker.getState());
+	}
+
+	@Test
+	public void resetCounters() {
+		final StoreCircuitBreaker breaker = opened();
+		breaker.allowRequest();
+		breaker.resetCounters();
+		assertEquals(0, breaker.getOpenedCount());
+		assertEquals(0, breaker.getRejectedCount());
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void onlyStoreFailuresCount() {
+		assertTrue(StoreCircuitBreaker.isStoreFailure(new IOException(new SQLException("connection refused"))));
+		assertTrue(StoreCircuitBreaker.isStoreFailure(new IOException(new RuntimeException(new SQLException("timeout")))));
+		assertFalse(StoreCircuitBreaker.isStoreFailure(new IOException(new StaleSessionException("stale"))));
+		assertFalse(StoreCircuitBreaker.isStoreFailure(new IOException("corrupt data")));
+	}
+}